@@ -2,6 +2,8 @@ package classification;
 
 import org.jgap.gp.GPFitnessFunction;
 import org.jgap.gp.IGPProgram;
+import org.jgap.gp.impl.BatchData;
+import org.jgap.gp.impl.GPConfiguration;
 import org.jgap.gp.terminal.Variable;
 
 import java.util.List;
@@ -13,6 +15,16 @@ public class ClassificationFitnessFunction extends GPFitnessFunction {
 
     private List<CancerInstance> trainingSet;
 
+    /**
+     * The training set in columnar form, built on first use
+     */
+    private transient BatchData sharedData;
+
+    /**
+     * Copies of sharedData, one per thread. The copies share the outputs cached for the training set.
+     */
+    private final transient ThreadLocal<BatchData> batchData = new ThreadLocal<>();
+
     /**
      * Constructor
      *
@@ -24,16 +36,8 @@ public class ClassificationFitnessFunction extends GPFitnessFunction {
 
     @Override
     protected double evaluate(IGPProgram gpProgram) {
-        // 9 variables
-        Variable feature1 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_1);
-        Variable feature2 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_2);
-        Variable feature3 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_3);
-        Variable feature4 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_4);
-        Variable feature5 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_5);
-        Variable feature6 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_6);
-        Variable feature7 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_7);
-        Variable feature8 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_8);
-        Variable feature9 = gpProgram.getGPConfiguration().getVariable(ClassificationProblem.FEATURE_9);
+        // evaluate the programme for all instances at once
+        double[] results = gpProgram.execute_batch(0, getBatchData(gpProgram.getGPConfiguration()));
 
         // F1 measure is used here
         float truePositive = 0;
@@ -41,18 +45,9 @@ public class ClassificationFitnessFunction extends GPFitnessFunction {
         float falseNegative = 0;
 
         // check the performance against every instance from training set
-        for (CancerInstance cancerInstance : trainingSet) {
-            feature1.set((float) cancerInstance.features[0]);
-            feature2.set((float) cancerInstance.features[1]);
-            feature3.set((float) cancerInstance.features[2]);
-            feature4.set((float) cancerInstance.features[3]);
-            feature5.set((float) cancerInstance.features[4]);
-            feature6.set((float) cancerInstance.features[5]);
-            feature7.set((float) cancerInstance.features[6]);
-            feature8.set((float) cancerInstance.features[7]);
-            feature9.set((float) cancerInstance.features[8]);
-
-            double result = gpProgram.execute_float(0, null);
+        for (int i = 0; i < trainingSet.size(); i++) {
+            CancerInstance cancerInstance = trainingSet.get(i);
+            double result = results[i];
 
             // if the programme produce NaN, just return it, as NaN programmes will be least favoured by the selector
             if (Double.isNaN(result)) {
@@ -79,4 +74,43 @@ public class ClassificationFitnessFunction extends GPFitnessFunction {
 
         return 100 * (2.0f * precision * recall) / (precision + recall);
     }
+
+    /**
+     * Get the training set in columnar form, one column per feature. Built on first use, copied once per thread.
+     *
+     * @param configuration
+     * @return
+     */
+    private BatchData getBatchData(GPConfiguration configuration) {
+        BatchData data = batchData.get();
+        if (data == null) {
+            data = new BatchData(getSharedData(configuration));
+            batchData.set(data);
+        }
+        return data;
+    }
+
+    private synchronized BatchData getSharedData(GPConfiguration configuration) {
+        if (sharedData == null) {
+            Variable[] features = {
+                    configuration.getVariable(ClassificationProblem.FEATURE_1),
+                    configuration.getVariable(ClassificationProblem.FEATURE_2),
+                    configuration.getVariable(ClassificationProblem.FEATURE_3),
+                    configuration.getVariable(ClassificationProblem.FEATURE_4),
+                    configuration.getVariable(ClassificationProblem.FEATURE_5),
+                    configuration.getVariable(ClassificationProblem.FEATURE_6),
+                    configuration.getVariable(ClassificationProblem.FEATURE_7),
+                    configuration.getVariable(ClassificationProblem.FEATURE_8),
+                    configuration.getVariable(ClassificationProblem.FEATURE_9)
+            };
+            double[][] columns = new double[features.length][trainingSet.size()];
+            for (int i = 0; i < trainingSet.size(); i++) {
+                for (int j = 0; j < features.length; j++) {
+                    columns[j][i] = trainingSet.get(i).features[j];
+                }
+            }
+            sharedData = new BatchData(features, columns);
+        }
+        return sharedData;
+    }
 }
@@ -610,6 +610,32 @@ public abstract class CommandGene
         " cannot return Object");
   }
 
+  /**
+   * Executes this node for all rows of a dataset at once, see
+   * ProgramChromosome.execute_batch. Override to implement a kernel operating
+   * on whole columns. This default implementation sets the variables row by
+   * row and calls execute_float resp. execute_double.
+   *
+   * @param c the chromosome this node belongs to
+   * @param n the index of this node in the chromosome
+   * @param a_data the dataset
+   * @param a_result receives the result for each row
+   */
+  public void execute_batch(ProgramChromosome c, int n, BatchData a_data,
+                            double[] a_result) {
+    int rows = a_data.getRows();
+    boolean isFloat = a_data.isFloat();
+    for (int i = 0; i < rows; i++) {
+      a_data.setRow(i);
+      if (isFloat) {
+        a_result[i] = execute_float(c, n, null);
+      }
+      else {
+        a_result[i] = execute_double(c, n, null);
+      }
+    }
+  }
+
   public String getName() {
     return toString() + " (class " + getClass().getName() + ")";
   }
@@ -661,6 +687,20 @@ public abstract class CommandGene
     }
   }
 
+  /**
+   * Identifies the state of this node when looking up programs in the program
+   * cache, see org.jgap.gp.impl.ProgramCache. Two nodes of the same class,
+   * arity and types with equal cache values must compute the same results.
+   * The default is the string representation of the node. Override to return
+   * null for nodes without state and a Number for nodes whose state is a
+   * number, both of which avoid building a string.
+   *
+   * @return null, a Number or any other object comparable via equals
+   */
+  public Object getCacheValue() {
+    return toString();
+  }
+
   public boolean isIntegerType() {
     return m_integerType;
   }
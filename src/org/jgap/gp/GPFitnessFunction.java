@@ -55,13 +55,35 @@ public abstract class GPFitnessFunction
    * @since 3.0
    */
   public final double getFitnessValue(final IGPProgram a_program) {
+    return getFitnessValue(a_program, Double.NaN);
+  }
+
+  /**
+   * Retrieves the fitness value of the given GPProgram, allowing to stop
+   * early if the program turns out to be less fit than the given bound, see
+   * evaluate(IGPProgram, double).
+   *
+   * @param a_program the GPProgram for which to compute and return the
+   * fitness value
+   * @param a_bound fitness value the result is only of interest for if it is
+   * at least as fit, NaN for no bound
+   * @return the fitness value of the given GPProgram, or a value less fit than
+   * a_bound which is at least as fit as the fitness value
+   */
+  public final double getFitnessValue(final IGPProgram a_program,
+                                      double a_bound) {
     // Delegate to the evaluate() method to actually compute the
     // fitness value. If the returned value is less than zero
     // we throw a runtime exception.
     // ---------------------------------------------------------
     double fitnessValue;
     try {
-      fitnessValue = evaluate(a_program);
+      if (Double.isNaN(a_bound)) {
+        fitnessValue = evaluate(a_program);
+      }
+      else {
+        fitnessValue = evaluate(a_program, a_bound);
+      }
     } catch (IllegalStateException iex) {
       LOGGER.debug(iex.getMessage());
       fitnessValue = NO_FITNESS_VALUE;
@@ -103,4 +125,32 @@ public abstract class GPFitnessFunction
    * @since 3.0
    */
   protected abstract double evaluate(IGPProgram a_subject);
+
+  /**
+   * Determines the fitness of the given GPProgram instance, but may stop as
+   * soon as it is clear that the program is less fit than the given bound.
+   * In that case, a value less fit than the bound must be returned that is
+   * at least as fit as the complete fitness value, e.g. the error summed up
+   * so far when using DeltaGPFitnessEvaluator. Only called if
+   * isBoundSupported returns true, see GPConfiguration.setBoundedEvaluation.
+   * <p>
+   * The default implementation computes the complete fitness value.
+   *
+   * @param a_subject the GPProgram instance to evaluate
+   * @param a_bound fitness value the result is only of interest for if it is
+   * at least as fit
+   * @return positive double reflecting the fitness rating of the given
+   * GPProgram, or a bound for it as described above
+   */
+  protected double evaluate(IGPProgram a_subject, double a_bound) {
+    return evaluate(a_subject);
+  }
+
+  /**
+   * @return true: evaluate(IGPProgram, double) stops early, so any result
+   * less fit than the bound may be incomplete
+   */
+  public boolean isBoundSupported() {
+    return false;
+  }
 }
@@ -26,6 +26,12 @@ public abstract class GPProgramBase
 
   private double m_fitnessValue = FitnessFunction.NO_FITNESS_VALUE;
 
+  /**
+   * True: m_fitnessValue was computed against a bound and may be fitter than
+   * the complete fitness value, see calcFitnessValue(double).
+   */
+  private boolean m_fitnessBounded;
+
   private GPConfiguration m_conf;
 
   /**
@@ -124,13 +130,51 @@ public abstract class GPProgramBase
    * @since 3.0
    */
   public double calcFitnessValue() {
-    GPFitnessFunction normalFitnessFunction = getGPConfiguration().
-        getGPFitnessFunction();
+    return calcFitnessValue(Double.NaN);
+  }
+
+  /**
+   * Computes the fitness value of this program, allowing the fitness function
+   * to stop early if the program is less fit than the given bound. If it
+   * does, the fitness value is marked as bounded: it is less fit than a_bound
+   * but may be fitter than the complete fitness value, see
+   * GPFitnessFunction.evaluate(IGPProgram, double). Bounded values are not
+   * put to the program cache.
+   *
+   * @param a_bound fitness value the result is only of interest for if it is
+   * at least as fit, NaN for no bound
+   * @return fitness value of this program, or a bound for it
+   */
+  public double calcFitnessValue(double a_bound) {
+    GPConfiguration conf = getGPConfiguration();
+    m_fitnessBounded = false;
+    GPFitnessFunction normalFitnessFunction = conf.getGPFitnessFunction();
     if (normalFitnessFunction != null) {
-      // Grab the "normal" fitness function and ask it to calculate our
-      // fitness value.
-      // --------------------------------------------------------------
-      m_fitnessValue = normalFitnessFunction.getFitnessValue(this);
+      // Reuse the fitness value of an equal program computed before.
+      // ------------------------------------------------------------
+      GPProgramInfo pcInfo = null;
+      if (conf.isUseProgramCache()) {
+        pcInfo = conf.readProgramCache(this);
+      }
+      if (pcInfo != null) {
+        m_fitnessValue = pcInfo.getFitnessValue();
+      }
+      else {
+        // Grab the "normal" fitness function and ask it to calculate our
+        // fitness value.
+        // --------------------------------------------------------------
+        m_fitnessValue = normalFitnessFunction.getFitnessValue(this, a_bound);
+        if (!Double.isNaN(a_bound) && normalFitnessFunction.isBoundSupported()
+            && m_fitnessValue >= 0.000d && !Double.isInfinite(m_fitnessValue)) {
+          m_fitnessBounded = conf.getGPFitnessEvaluator().isFitter(a_bound,
+              m_fitnessValue);
+        }
+        if (conf.isUseProgramCache() && !m_fitnessBounded
+            && m_fitnessValue >= 0.000d
+            && !Double.isInfinite(m_fitnessValue)) {
+          conf.putToProgramCache(this);
+        }
+      }
     }
     if (Double.isInfinite(m_fitnessValue)) {
       return GPFitnessFunction.NO_FITNESS_VALUE;
@@ -166,7 +210,37 @@ public abstract class GPProgramBase
   }
 
   public void setFitnessValue(double a_fitness) {
+    setFitnessValue(a_fitness, false);
+  }
+
+  /**
+   * @param a_fitness the fitness value to set
+   * @param a_bounded true: a_fitness is a bound for the fitness value, see
+   * calcFitnessValue(double)
+   */
+  public void setFitnessValue(double a_fitness, boolean a_bounded) {
     m_fitnessValue = a_fitness;
+    m_fitnessBounded = a_bounded;
+  }
+
+  /**
+   * @return true: the fitness value was computed against a bound and may be
+   * fitter than the complete fitness value, see calcFitnessValue(double)
+   */
+  public boolean isFitnessBounded() {
+    return m_fitnessBounded;
+  }
+
+  /**
+   * Computes the complete fitness value if only a bound for it is known.
+   *
+   * @return fitness value of this program
+   */
+  public double completeFitnessValue() {
+    if (m_fitnessBounded) {
+      return calcFitnessValue();
+    }
+    return getFitnessValue();
   }
 
   public void setTypes(Class[] a_types) {
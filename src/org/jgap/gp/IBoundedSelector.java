@@ -0,0 +1,26 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp;
+
+/**
+ * Implemented by selectors which mostly pick programs from the fittest part
+ * of the population. The fitness values of the remaining programs need not be
+ * computed completely, see GPConfiguration.setBoundedEvaluation.
+ */
+public interface IBoundedSelector {
+  /** String containing the CVS revision. Read out via reflection!*/
+  static final String CVS_REVISION = "$Revision: 1.1 $";
+
+  /**
+   * @return fraction (0..1] of the fittest programs of the population that
+   * nearly all selected programs come from
+   */
+  double getSelectedFraction();
+}
@@ -0,0 +1,40 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp;
+
+/**
+ * A GP program chromosome translated into an executable form, see
+ * org.jgap.gp.impl.ProgramCompiler.
+ */
+public interface ICompiledProgram {
+  /** String containing the CVS revision. Read out via reflection!*/
+  final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  /**
+   * Evaluates the program.
+   *
+   * @param a_vars the values of the variables, in the order the variables were
+   * given when compiling
+   * @return the result of the program; boolean programs return 1 for true and
+   * 0 for false
+   */
+  double eval(double[] a_vars);
+
+  /**
+   * Evaluates the program for many rows at once, see
+   * org.jgap.gp.impl.ProgramChromosome.execute_batch.
+   *
+   * @param a_columns for each variable the values of all rows, in the order
+   * the variables were given when compiling
+   * @param a_rows number of rows to evaluate
+   * @param a_result receives the result for each row, see eval(double[])
+   */
+  void eval(double[][] a_columns, int a_rows, double[] a_result);
+}
@@ -73,6 +73,26 @@ public interface IGPProgram
    */
   boolean execute_boolean(int a_chromosomeNum, Object[] a_args);
 
+  /**
+   * Executes the given chromosome for all rows of a dataset.
+   *
+   * @param a_chromosomeNum the index of the chromosome to execute
+   * @param a_data the dataset
+   * @return the output for each row, see ProgramChromosome.execute_batch
+   */
+  double[] execute_batch(int a_chromosomeNum, BatchData a_data);
+
+  /**
+   * Sets the context holding the variable values for all chromosomes of this
+   * program. Programs may share chromosomes, e.g. offsprings not crossed with
+   * their parents, so to evaluate programs concurrently install one context
+   * per thread via EvaluationContext.setCurrent instead.
+   *
+   * @param a_context the context to use, null to use the values set via
+   * Variable.set
+   */
+  void setEvaluationContext(EvaluationContext a_context);
+
   /**
    * Executes the given chromosome as an object function.
    *
@@ -0,0 +1,23 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp;
+
+/**
+ * Marker interface for GP commands whose state does not change after
+ * construction, e.g. arithmetic operators. A single instance of such a command
+ * is shared by all programs using it instead of being cloned for each program,
+ * see ProgramChromosome.clone.<p>
+ * Mutating such a command must return a new instance. Application data or
+ * energy set on a shared instance applies to all programs using it.
+ */
+public interface IImmutableCommand {
+  /** String containing the CVS revision. Read out via reflection!*/
+  final static String CVS_REVISION = "$Revision: 1.1 $";
+}
@@ -21,7 +21,7 @@ import org.jgap.util.*;
  * @since 3.0
  */
 public class Exp
-    extends MathCommand implements ICloneable {
+    extends MathCommand implements ICloneable, IImmutableCommand {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.9 $";
 
@@ -22,7 +22,7 @@ import org.jgap.util.*;
  * @since 3.2
  */
 public class GreaterThan
-    extends MathCommand implements ICloneable {
+    extends MathCommand implements ICloneable, IImmutableCommand {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.5 $";
 
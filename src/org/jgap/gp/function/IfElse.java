@@ -22,7 +22,7 @@ import org.jgap.util.*;
  * @since 3.0
  */
 public class IfElse
-    extends CommandGene implements ICloneable {
+    extends CommandGene implements ICloneable, IImmutableCommand {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.14 $";
 
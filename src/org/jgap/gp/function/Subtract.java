@@ -21,7 +21,7 @@ import org.jgap.util.*;
  * @since 3.0
  */
 public class Subtract
-    extends MathCommand implements IMutateable, ICloneable {
+    extends MathCommand implements IMutateable, ICloneable, IImmutableCommand {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.9 $";
 
@@ -57,6 +57,10 @@ public class Subtract
     return "&1 - &2";
   }
 
+  public Object getCacheValue() {
+    return null;
+  }
+
   /**
    * @return textual name of this command
    *
@@ -83,6 +87,28 @@ public class Subtract
     return c.execute_double(n, 0, args) - c.execute_double(n, 1, args);
   }
 
+  /**
+   * Batch kernel, see CommandGene.execute_batch.
+   */
+  public void execute_batch(ProgramChromosome c, int n, BatchData a_data,
+                            double[] a_result) {
+    double[] other = a_data.acquire();
+    c.execute_batch(n, 0, a_data, a_result);
+    c.execute_batch(n, 1, a_data, other);
+    int rows = a_data.getRows();
+    if (a_data.isFloat()) {
+      for (int i = 0; i < rows; i++) {
+        a_result[i] = (float) (a_result[i] - other[i]);
+      }
+    }
+    else {
+      for (int i = 0; i < rows; i++) {
+        a_result[i] -= other[i];
+      }
+    }
+    a_data.release(other);
+  }
+
   public Object execute_object(ProgramChromosome c, int n, Object[] args) {
     return ( (Compatible) c.execute_object(n, 0, args)).execute_subtract(c.
         execute_object(n, 1, args));
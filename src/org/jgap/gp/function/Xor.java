@@ -22,7 +22,7 @@ import org.jgap.util.*;
  */
 public class Xor
     extends MathCommand
-implements ICloneable {
+implements ICloneable, IImmutableCommand {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.7 $";
 
@@ -0,0 +1,271 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.terminal.*;
+
+/**
+ * A columnar dataset for evaluating a GP program over many rows at once, see
+ * ProgramChromosome.execute_batch. Holds one column of values per variable
+ * and a pool of buffers the nodes write their intermediate results to.<p>
+ * Instances are not thread-safe. To evaluate in several threads, give each
+ * thread a copy made via BatchData(BatchData): copies share the columns and
+ * the key the outputs of the dataset are cached by.
+ */
+public class BatchData {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  /**
+   * True for the node classes implementing a batch kernel.
+   */
+  private final static ConcurrentMap<Class<?>, Boolean> KERNELS = new
+      ConcurrentHashMap<Class<?>, Boolean>();
+
+  private final Variable[] m_vars;
+
+  private final double[][] m_columns;
+
+  /**
+   * The columns rounded to float precision, created on demand.
+   */
+  private double[][] m_floatColumns;
+
+  private final int m_rows;
+
+  /**
+   * Identifies the dataset, shared by all copies.
+   */
+  private final Object m_key;
+
+  /**
+   * True: the program is evaluated with float precision.
+   */
+  private boolean m_float;
+
+  /**
+   * Buffers currently not in use.
+   */
+  private double[][] m_pool = new double[8][];
+
+  private int m_poolSize;
+
+  private double[] m_output;
+
+  /**
+   * Receives the values of a row for nodes executed row by row.
+   */
+  private EvaluationContext m_context = new EvaluationContext();
+
+  /**
+   * The chromosome execution in progress, see ProgramChromosome.execute_batch.
+   */
+  private ProgramChromosome.BatchRun m_run;
+
+  /**
+   * @param a_vars the variables of the dataset
+   * @param a_columns for each variable the values of all rows
+   */
+  public BatchData(Variable[] a_vars, double[][] a_columns) {
+    if (a_vars.length != a_columns.length) {
+      throw new IllegalArgumentException("Number of variables and columns must"
+                                         + " be equal");
+    }
+    m_vars = a_vars;
+    m_columns = a_columns;
+    m_rows = a_columns.length == 0 ? 0 : a_columns[0].length;
+    for (int i = 1; i < a_columns.length; i++) {
+      if (a_columns[i].length != m_rows) {
+        throw new IllegalArgumentException("All columns must have the same"
+                                           + " length");
+      }
+    }
+    m_output = new double[m_rows];
+    m_key = new Object();
+  }
+
+  /**
+   * Creates a copy for use in another thread. The copy shares the columns
+   * and the key with the given dataset, but has its own buffers.
+   *
+   * @param a_data the dataset to copy
+   */
+  public BatchData(BatchData a_data) {
+    m_vars = a_data.m_vars;
+    m_columns = a_data.m_columns;
+    m_rows = a_data.m_rows;
+    m_output = new double[m_rows];
+    m_key = a_data.m_key;
+  }
+
+  /**
+   * @return the key identifying this dataset: equal for all copies made via
+   * BatchData(BatchData), so outputs cached for one copy are found for all
+   * of them, see SubtreeOutputCache
+   */
+  public Object getKey() {
+    return m_key;
+  }
+
+  /**
+   * @return number of rows in the dataset
+   */
+  public int getRows() {
+    return m_rows;
+  }
+
+  /**
+   * @return the variables of the dataset, in the order of the columns
+   */
+  public Variable[] getVariables() {
+    return m_vars;
+  }
+
+  /**
+   * @return for each variable the values of all rows, in the order of
+   * getVariables; must not be changed
+   */
+  public double[][] getColumns() {
+    return m_columns;
+  }
+
+  /**
+   * @param a_var the variable to look for
+   * @return the column of the given variable, or null if the variable is not
+   * part of the dataset
+   */
+  public double[] getColumn(Variable a_var) {
+    for (int i = 0; i < m_vars.length; i++) {
+      if (m_vars[i] == a_var) {
+        return m_columns[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param a_var the variable to look for
+   * @return the column of the given variable rounded to float precision, or
+   * null if the variable is not part of the dataset
+   */
+  public double[] getFloatColumn(Variable a_var) {
+    for (int i = 0; i < m_vars.length; i++) {
+      if (m_vars[i] == a_var) {
+        if (m_floatColumns == null) {
+          m_floatColumns = new double[m_columns.length][];
+        }
+        if (m_floatColumns[i] == null) {
+          double[] column = new double[m_rows];
+          for (int k = 0; k < m_rows; k++) {
+            column[k] = (float) m_columns[i][k];
+          }
+          m_floatColumns[i] = column;
+        }
+        return m_floatColumns[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true: results are rounded to float precision after each operation
+   */
+  public boolean isFloat() {
+    return m_float;
+  }
+
+  public void setFloat(boolean a_float) {
+    m_float = a_float;
+  }
+
+  /**
+   * @return the buffer receiving the output of the program, reused for each
+   * evaluation
+   */
+  public double[] getOutput() {
+    return m_output;
+  }
+
+  /**
+   * Obtains a buffer for intermediate results. Give it back via release.
+   *
+   * @return buffer with at least getRows() elements
+   */
+  public double[] acquire() {
+    if (m_poolSize > 0) {
+      return m_pool[--m_poolSize];
+    }
+    return new double[m_rows];
+  }
+
+  /**
+   * @param a_buffer buffer obtained via acquire that is no longer needed
+   */
+  public void release(double[] a_buffer) {
+    if (m_poolSize == m_pool.length) {
+      m_pool = Arrays.copyOf(m_pool, m_poolSize * 2);
+    }
+    m_pool[m_poolSize++] = a_buffer;
+  }
+
+  /**
+   * @return the context holding the variable values of the current row, see
+   * setRow
+   */
+  public EvaluationContext getContext() {
+    return m_context;
+  }
+
+  ProgramChromosome.BatchRun getRun() {
+    return m_run;
+  }
+
+  void setRun(ProgramChromosome.BatchRun a_run) {
+    m_run = a_run;
+  }
+
+  /**
+   * Sets the variables in the context to the values of the given row. Used for
+   * nodes without a batch implementation which have to be executed row by row.
+   *
+   * @param a_row index of the row
+   */
+  public void setRow(int a_row) {
+    for (int i = 0; i < m_vars.length; i++) {
+      m_context.set(m_vars[i], m_columns[i][a_row]);
+    }
+  }
+
+  /**
+   * @param a_node the node to check
+   * @return true: the class of the node implements a batch kernel, i.e.
+   * overrides CommandGene.execute_batch, so its output for a dataset only
+   * depends on its subtree
+   */
+  public static boolean hasKernel(CommandGene a_node) {
+    Class<?> clazz = a_node.getClass();
+    Boolean result = KERNELS.get(clazz);
+    if (result == null) {
+      try {
+        result = Boolean.valueOf(clazz.getMethod("execute_batch",
+            new Class<?>[] {ProgramChromosome.class, int.class, BatchData.class,
+            double[].class}).getDeclaringClass() != CommandGene.class);
+      } catch (NoSuchMethodException nex) {
+        result = Boolean.FALSE;
+      }
+      KERNELS.put(clazz, result);
+    }
+    return result.booleanValue();
+  }
+}
@@ -12,6 +12,7 @@ package org.jgap.gp.impl;
 import java.io.*;
 import org.jgap.*;
 import org.jgap.gp.*;
+import org.jgap.util.*;
 
 /**
  * Crossing over for GP ProgramChromosomes.
@@ -171,7 +172,7 @@ public class BranchTypingCross
       if (nf == 0) {
         // No functions there.
         // -------------------
-        return c;
+        return notCrossed(c);
       }
       int fctIndex = random.nextInt(nf);
       p0 = a_c0.getFunction(fctIndex);
@@ -185,6 +186,9 @@ public class BranchTypingCross
       CommandGene command = a_c0.getNode(p0);
       if (random.nextDouble() <= getConfiguration().getMutationProb()) {
         if (IMutateable.class.isInstance(command)) {
+          a_c0 = copyForMutation(a_c0);
+          c[0] = a_c0;
+          command = copyNode(a_c0.getNode(p0));
           IMutateable term = (IMutateable) command;
           command = term.applyMutation(0, 0.3d);
           if (command != null) {
@@ -210,7 +214,7 @@ public class BranchTypingCross
       if (nf == 0) {
         // No functions of that type.
         // --------------------------
-        return c;
+        return notCrossed(c);
       }
       p1 = a_c1.getFunction(random.nextInt(nf), type_, subType);
     }
@@ -221,7 +225,7 @@ public class BranchTypingCross
       if (nt == 0) {
         // No terminals of that type.
         // --------------------------
-        return c;
+        return notCrossed(c);
       }
       p1 = a_c1.getTerminal(random.nextInt(a_c1.numTerminals(type_, subType)),
                           type_, subType);
@@ -230,6 +234,9 @@ public class BranchTypingCross
       CommandGene command = a_c1.getNode(p1);
       if (random.nextDouble() <= getConfiguration().getMutationProb()) {
         if (IMutateable.class.isInstance(command)) {
+          a_c1 = copyForMutation(a_c1);
+          c[1] = a_c1;
+          command = copyNode(a_c1.getNode(p1));
           IMutateable term = (IMutateable) command;
           command = term.applyMutation(0, 0.3d);
           if (command != null) {
@@ -244,8 +251,16 @@ public class BranchTypingCross
     }
     /**@todo solve in general*/
     if (org.jgap.gp.function.SubProgram.class.isAssignableFrom(a_c1.getFunctions()[p1].getClass())) {
-      ((IMutateable)a_c1.getFunctions()[p1]).applyMutation(0, 0.5d);
+      a_c1 = copyForMutation(a_c1);
+      c[1] = a_c1;
+      CommandGene command = copyNode(a_c1.getNode(p1));
+      ((IMutateable)command).applyMutation(0, 0.5d);
+      a_c1.setGene(p1, command);
     }
+    // Sizes and depths come from the child lookup index of the parents, so
+    // both offsprings are checked against the limits before creating them.
+    // ---------------------------------------------------------------------
+    CrossoverStatistics statistics = getConfiguration().getCrossoverStatistics();
     int s0 = a_c0.getSize(p0); //Number of nodes in c0 from index p0
     int s1 = a_c1.getSize(p1); //Number of nodes in c1 from index p1
     int d0 = a_c0.getDepth(p0); //Depth of c0 from index p0
@@ -254,9 +269,9 @@ public class BranchTypingCross
     int c1s = a_c1.getSize(0); //Number of nodes in c1
     // Check for depth constraint for p1 inserted into c0.
     // ---------------------------------------------------
-    if (d0 - 1 + d1/*s1*/ > getConfiguration().getMaxCrossoverDepth()
-        || c0s - p0 - s0 < 0
-        || p0 + s1 + c0s - p0 - s0 >= a_c0.getFunctions().length) {
+    CrossoverResult result = check(a_c0, c0s, p0, s0, d0, s1, d1);
+    statistics.record(result);
+    if (result != CrossoverResult.CROSSED) {
       // Choose the other parent.
       // ------------------------
       c[0] = a_c1;
@@ -267,17 +282,17 @@ public class BranchTypingCross
                                    c[0].getFunctionSet(),
                                    c[0].getArgTypes(),
                                    a_c0.getIndividual());
-      System.arraycopy(a_c0.getFunctions(), 0, c[0].getFunctions(), 0, p0);
-      System.arraycopy(a_c1.getFunctions(), p1, c[0].getFunctions(), p0, s1);
-      System.arraycopy(a_c0.getFunctions(), p0 + s0, c[0].getFunctions(),
-                       p0 + s1, c0s - p0 - s0);
-      c[0].redepth();
+      c[0].replaceSubtree(a_c0, p0, a_c1, p1);
+      if (getConfiguration().isUseSubtreeCache()) {
+        getConfiguration().getSubtreeCache().recordCross(c[0], a_c0, p0, s0,
+            a_c1, p1, s1);
+      }
     }
     // Check for depth constraint for p0 inserted into c1.
     // ---------------------------------------------------
-    if (d1 - 1 + d0/*s0*/ > getConfiguration().getMaxCrossoverDepth()
-        || c1s - p1 - s1 < 0
-        || p1 + s0 + c1s - p1 - s1 >= a_c1.getFunctions().length) {
+    result = check(a_c1, c1s, p1, s1, d1, s0, d0);
+    statistics.record(result);
+    if (result != CrossoverResult.CROSSED) {
       // Choose the other parent.
       // ------------------------
       c[1] = a_c0;
@@ -288,15 +303,93 @@ public class BranchTypingCross
                                    c[1].getFunctionSet(),
                                    c[1].getArgTypes(),
                                    a_c1.getIndividual());
-      System.arraycopy(a_c1.getFunctions(), 0, c[1].getFunctions(), 0, p1);
-      System.arraycopy(a_c0.getFunctions(), p0, c[1].getFunctions(), p1, s0);
-      System.arraycopy(a_c1.getFunctions(), p1 + s1, c[1].getFunctions(),
-                       p1 + s0, c1s - p1 - s1);
-      c[1].redepth();
+      c[1].replaceSubtree(a_c1, p1, a_c0, p0);
+      if (getConfiguration().isUseSubtreeCache()) {
+        getConfiguration().getSubtreeCache().recordCross(c[1], a_c1, p1, s1,
+            a_c0, p0, s0);
+      }
     }
     return c;
   }
 
+  /**
+   * Checks whether replacing a subtree of a chromosome keeps within the
+   * maximum crossover depth and the maximum number of nodes.
+   *
+   * @param a_chrom the chromosome receiving the subtree
+   * @param a_size number of nodes of a_chrom
+   * @param a_index index of the subtree to replace
+   * @param a_subtreeSize number of nodes of the subtree to replace
+   * @param a_subtreeDepth depth of the subtree to replace
+   * @param a_insertSize number of nodes of the subtree to insert
+   * @param a_insertDepth depth of the subtree to insert
+   * @return CROSSED if the offspring may be created, else the limit exceeded
+   */
+  protected CrossoverResult check(ProgramChromosome a_chrom, int a_size,
+                                  int a_index, int a_subtreeSize,
+                                  int a_subtreeDepth, int a_insertSize,
+                                  int a_insertDepth) {
+    if (a_subtreeDepth - 1 + a_insertDepth
+        > getConfiguration().getMaxCrossoverDepth()) {
+      return CrossoverResult.DEPTH_EXCEEDED;
+    }
+    if (a_size - a_index - a_subtreeSize < 0
+        || a_size - a_subtreeSize + a_insertSize
+        >= a_chrom.getFunctions().length) {
+      return CrossoverResult.SIZE_EXCEEDED;
+    }
+    return CrossoverResult.CROSSED;
+  }
+
+  /**
+   * Records that no matching crossover points were found, both offsprings are
+   * copies of their parents.
+   *
+   * @param a_parents the parents
+   * @return the parents
+   */
+  private ProgramChromosome[] notCrossed(ProgramChromosome[] a_parents) {
+    CrossoverStatistics statistics = getConfiguration().getCrossoverStatistics();
+    statistics.record(CrossoverResult.TYPE_MISMATCH);
+    statistics.record(CrossoverResult.TYPE_MISMATCH);
+    return a_parents;
+  }
+
+  /**
+   * Crossing over mutates nodes of the parents in place. When breeding in
+   * several threads, other threads may cross the same parent at the same time,
+   * so the node is mutated in a copy of the parent then. The same holds with
+   * the subtree cache, which requires nodes of evaluated chromosomes to stay
+   * unchanged, and when breeding steady state, where the parents stay in the
+   * population with their fitness values.
+   *
+   * @param a_chrom the parent chromosome about to be mutated
+   * @return the chromosome to mutate
+   */
+  protected ProgramChromosome copyForMutation(ProgramChromosome a_chrom) {
+    if (getConfiguration().getBreedingThreads() > 1
+        || getConfiguration().isUseSubtreeCache()
+        || getConfiguration().isSteadyState()) {
+      return (ProgramChromosome) a_chrom.clone();
+    }
+    return a_chrom;
+  }
+
+  /**
+   * Nodes may be shared by several chromosomes, e.g. by clones, see
+   * ProgramChromosome.clone, so a node is copied before mutating it in place.
+   * The copy replaces the node via ProgramChromosome.setGene.
+   *
+   * @param a_node the node about to be mutated
+   * @return the node to mutate
+   */
+  protected CommandGene copyNode(CommandGene a_node) {
+    if (a_node instanceof ICloneable && ! (a_node instanceof IImmutableCommand)) {
+      return (CommandGene) ( (ICloneable) a_node).clone();
+    }
+    return a_node;
+  }
+
   /**
    * The compareTo-method.
    *
@@ -345,7 +438,15 @@ public class BranchTypingCross
    * @since 3.2
    */
   public Object clone() {
-    BranchTypingCross result = new BranchTypingCross(getConfiguration());
-    return result;
+    return newInstance(getConfiguration());
+  }
+
+  /**
+   * @param a_config the configuration to use
+   * @return new instance with the settings of this one, using the given
+   * configuration
+   */
+  protected BranchTypingCross newInstance(GPConfiguration a_config) {
+    return new BranchTypingCross(a_config, m_simpleChromosomeSelection);
   }
 }
@@ -0,0 +1,40 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+/**
+ * Result of creating an offspring by crossing over, see
+ * BranchTypingCross.check and CrossoverStatistics. Each offspring not crossed
+ * is a copy of a parent.
+ */
+public enum CrossoverResult {
+  /**
+   * The offspring was created by exchanging subtrees.
+   */
+  CROSSED,
+  /**
+   * No matching crossover points were found, e.g. the second parent contains
+   * no node of the type of the point chosen in the first parent.
+   */
+  TYPE_MISMATCH,
+  /**
+   * The offspring would exceed the maximum crossover depth.
+   */
+  DEPTH_EXCEEDED,
+  /**
+   * The offspring would exceed the maximum number of nodes.
+   */
+  SIZE_EXCEEDED,
+  /**
+   * Crossing over failed with an exception and was retried, see
+   * GPGenotype.breed.
+   */
+  FAILED
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts the offsprings of crossing over by their CrossoverResult, see
+ * GPConfiguration.getCrossoverStatistics. GPGenotype.evolve resets the
+ * counters at the start of each generation, so after evolving they hold the
+ * counts of the generation just bred. May be updated by several threads at
+ * once.
+ */
+public class CrossoverStatistics {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static CrossoverResult[] RESULTS = CrossoverResult.values();
+
+  private final AtomicLongArray m_counts = new AtomicLongArray(RESULTS.length);
+
+  /**
+   * Records the result of creating an offspring.
+   *
+   * @param a_result the result
+   */
+  public void record(CrossoverResult a_result) {
+    m_counts.incrementAndGet(a_result.ordinal());
+  }
+
+  /**
+   * @param a_result the result to look for
+   * @return number of offsprings with the given result
+   */
+  public long getCount(CrossoverResult a_result) {
+    return m_counts.get(a_result.ordinal());
+  }
+
+  /**
+   * @return number of offsprings not crossed or failed
+   */
+  public long getFailureCount() {
+    long failures = 0;
+    for (int i = 0; i < RESULTS.length; i++) {
+      if (RESULTS[i] != CrossoverResult.CROSSED) {
+        failures += m_counts.get(i);
+      }
+    }
+    return failures;
+  }
+
+  public void reset() {
+    for (int i = 0; i < RESULTS.length; i++) {
+      m_counts.set(i, 0);
+    }
+  }
+
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < RESULTS.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(RESULTS[i].name().toLowerCase().replace('_', ' '));
+      sb.append(": ");
+      sb.append(m_counts.get(i));
+    }
+    return sb.toString();
+  }
+}
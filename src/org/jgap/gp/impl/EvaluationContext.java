@@ -0,0 +1,148 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import org.jgap.gp.terminal.*;
+
+/**
+ * Holds the values of the variables for evaluating GP programs. Each Variable
+ * owns a slot index, assigned by the GPConfiguration when the Variable is
+ * created, so setting and reading a value is a plain array access.<p>
+ * Install a context per thread via setCurrent to evaluate programs of the
+ * same configuration in several threads at once. Variables without a value in
+ * the context fall back to the value set via Variable.set.
+ */
+public class EvaluationContext {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  /**
+   * Context of the current thread, see setCurrent.
+   */
+  private final static ThreadLocal<EvaluationContext> CURRENT = new
+      ThreadLocal<EvaluationContext>();
+
+  /**
+   * True as soon as any thread has a current context. Saves looking up the
+   * thread local in single-threaded use.
+   */
+  private static volatile boolean ANY_CURRENT;
+
+  private double[] m_values;
+
+  private Object[] m_objects;
+
+  /**
+   * Marks the slots holding a value.
+   */
+  private boolean[] m_set;
+
+  public EvaluationContext() {
+    this(16);
+  }
+
+  /**
+   * @param a_slots initial number of variable slots, grows on demand
+   */
+  public EvaluationContext(int a_slots) {
+    m_values = new double[a_slots];
+    m_objects = new Object[a_slots];
+    m_set = new boolean[a_slots];
+  }
+
+  /**
+   * Sets the value of a numeric or boolean (1 for true, 0 for false) variable.
+   *
+   * @param a_var the variable to set
+   * @param a_value the value to set
+   */
+  public void set(Variable a_var, double a_value) {
+    setValue(a_var.getSlot(), a_value);
+  }
+
+  public void setValue(int a_slot, double a_value) {
+    ensureCapacity(a_slot);
+    m_values[a_slot] = a_value;
+    m_set[a_slot] = true;
+  }
+
+  /**
+   * Sets the value of a variable executed via execute_object.
+   *
+   * @param a_var the variable to set
+   * @param a_value the value to set
+   */
+  public void setObject(Variable a_var, Object a_value) {
+    int slot = a_var.getSlot();
+    ensureCapacity(slot);
+    m_objects[slot] = a_value;
+    m_set[slot] = true;
+  }
+
+  /**
+   * @param a_slot the slot of a variable
+   * @return true if a value has been set for the variable
+   */
+  public boolean hasValue(int a_slot) {
+    return a_slot < m_set.length && m_set[a_slot];
+  }
+
+  public double getValue(int a_slot) {
+    return m_values[a_slot];
+  }
+
+  public Object getObject(int a_slot) {
+    return m_objects[a_slot];
+  }
+
+  /**
+   * Installs a context for the calling thread. Variable.set then stores into
+   * this context instead of the value shared by all threads, and Variables
+   * executed without a context set at the chromosome read from it. Used by
+   * threads computing fitness values in parallel.
+   *
+   * @param a_context the context for the calling thread, null to remove it
+   */
+  public static void setCurrent(EvaluationContext a_context) {
+    if (a_context != null) {
+      ANY_CURRENT = true;
+    }
+    CURRENT.set(a_context);
+  }
+
+  /**
+   * @return the context of the calling thread, or null if none is installed
+   */
+  public static EvaluationContext getCurrent() {
+    if (!ANY_CURRENT) {
+      return null;
+    }
+    return CURRENT.get();
+  }
+
+  /**
+   * Removes all values.
+   */
+  public void clear() {
+    Arrays.fill(m_set, false);
+    Arrays.fill(m_objects, null);
+  }
+
+  private void ensureCapacity(int a_slot) {
+    if (a_slot >= m_values.length) {
+      int size = Math.max(a_slot + 1, m_values.length * 2);
+      m_values = Arrays.copyOf(m_values, size);
+      m_objects = Arrays.copyOf(m_objects, size);
+      m_set = Arrays.copyOf(m_set, size);
+    }
+  }
+}
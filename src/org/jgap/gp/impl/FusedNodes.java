@@ -0,0 +1,528 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+
+/**
+ * Superinstructions for ProgramChromosome.execute_batch, see
+ * GPConfiguration.setFuseNodes. Frequent shapes of arithmetic nodes are
+ * executed by a single kernel instead of one kernel per node:
+ * <ul>
+ * <li>Add, Subtract, Multiply or Divide with a variable or constant child,
+ * e.g. var * const or x / var: the leaf is read directly instead of being
+ * copied into a buffer first</li>
+ * <li>a * b + c and c + a * b: one loop for both operations</li>
+ * <li>chains of nested Add nodes: the operands are added up without
+ * executing the inner Add nodes</li>
+ * </ul>
+ * The nodes of the chromosome are not changed, so its string representation
+ * stays the same. Results are exactly those of the node kernels, including the
+ * rounding to float precision after each operation.<p>
+ * A variable whose column is not part of the dataset is read row by row by its
+ * node; a superinstruction containing it is not used then.
+ */
+public class FusedNodes {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int OP_ADD = 1;
+
+  private final static int OP_SUBTRACT = 2;
+
+  private final static int OP_MULTIPLY = 3;
+
+  private final static int OP_DIVIDE = 4;
+
+  private final Fused[] m_nodes;
+
+  private int m_count;
+
+  /**
+   * Detects the nodes of a chromosome that can be fused. The chromosome must
+   * have been redepthed.
+   *
+   * @param a_chrom the chromosome
+   */
+  public FusedNodes(ProgramChromosome a_chrom) {
+    int size = a_chrom.getSize(0);
+    m_nodes = new Fused[size];
+    for (int i = 0; i < size; i++) {
+      m_nodes[i] = create(a_chrom, i);
+      if (m_nodes[i] != null) {
+        m_count++;
+      }
+    }
+  }
+
+  /**
+   * Executes a node by a superinstruction if possible.
+   *
+   * @param a_chrom the chromosome the node belongs to
+   * @param a_index index of the node
+   * @param a_data the dataset
+   * @param a_result receives the output of the node
+   * @return false: the node cannot be fused, execute it as usual
+   */
+  public boolean execute(ProgramChromosome a_chrom, int a_index,
+                         BatchData a_data, double[] a_result) {
+    Fused fused = m_nodes[a_index];
+    return fused != null && fused.execute(a_chrom, a_data, a_result);
+  }
+
+  /**
+   * @return number of nodes executed by a superinstruction
+   */
+  public int getFusedCount() {
+    return m_count;
+  }
+
+  private static Fused create(ProgramChromosome a_chrom, int a_index) {
+    int op = getOp(a_chrom, a_index);
+    if (op == 0) {
+      return null;
+    }
+    int left = a_chrom.getChild(a_index, 0);
+    int right = a_chrom.getChild(a_index, 1);
+    if (op == OP_ADD) {
+      boolean leftAdd = getOp(a_chrom, left) == OP_ADD;
+      boolean rightAdd = getOp(a_chrom, right) == OP_ADD;
+      if (leftAdd != rightAdd) {
+        return new AddChain(a_chrom, a_index);
+      }
+      if (getOp(a_chrom, left) == OP_MULTIPLY) {
+        return new MultiplyAdd(a_chrom, left, a_index, 1);
+      }
+      if (getOp(a_chrom, right) == OP_MULTIPLY) {
+        return new MultiplyAdd(a_chrom, right, a_index, 0);
+      }
+    }
+    if (isLeaf(a_chrom, left) || isLeaf(a_chrom, right)) {
+      return new Binary(op, new Operand(a_chrom, a_index, 0),
+                        new Operand(a_chrom, a_index, 1));
+    }
+    return null;
+  }
+
+  /**
+   * @return the arithmetic operation of a node, 0 if none
+   */
+  private static int getOp(ProgramChromosome a_chrom, int a_index) {
+    CommandGene node = a_chrom.getGene(a_index);
+    if (node.getArity(a_chrom.getIndividual()) != 2) {
+      return 0;
+    }
+    Class<?> clazz = node.getClass();
+    if (clazz == Add.class) {
+      return OP_ADD;
+    }
+    if (clazz == Subtract.class) {
+      return OP_SUBTRACT;
+    }
+    if (clazz == Multiply.class) {
+      return OP_MULTIPLY;
+    }
+    if (clazz == Divide.class) {
+      return OP_DIVIDE;
+    }
+    return 0;
+  }
+
+  private static boolean isLeaf(ProgramChromosome a_chrom, int a_index) {
+    Class<?> clazz = a_chrom.getGene(a_index).getClass();
+    return clazz == Variable.class || clazz == Terminal.class
+        || clazz == Constant.class;
+  }
+
+  /**
+   * Computes a_result = a op b for all rows, with a resp. b being a_const
+   * where null. The result is rounded to float precision if requested, as the
+   * kernel of the operation does.
+   */
+  private static void combine(int a_op, double[] a, double a_const,
+                              double[] b, double b_const, double[] a_result,
+                              int a_rows, boolean a_float) {
+    if (a != null && b != null) {
+      combine(a_op, a, b, a_result, a_rows);
+    }
+    else if (a != null) {
+      combine(a_op, a, b_const, a_result, a_rows);
+    }
+    else if (b != null) {
+      combine(a_op, a_const, b, a_result, a_rows);
+    }
+    else {
+      double[] constant = {a_const};
+      combine(a_op, constant, b_const, constant, 1);
+      Arrays.fill(a_result, 0, a_rows, constant[0]);
+    }
+    if (a_float) {
+      for (int i = 0; i < a_rows; i++) {
+        a_result[i] = (float) a_result[i];
+      }
+    }
+  }
+
+  private static void combine(int a_op, double[] a, double[] b,
+                              double[] a_result, int a_rows) {
+    switch (a_op) {
+      case OP_ADD:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] + b[i];
+        }
+        break;
+      case OP_SUBTRACT:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] - b[i];
+        }
+        break;
+      case OP_MULTIPLY:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] * b[i];
+        }
+        break;
+      default:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] / b[i];
+        }
+    }
+  }
+
+  private static void combine(int a_op, double[] a, double b,
+                              double[] a_result, int a_rows) {
+    switch (a_op) {
+      case OP_ADD:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] + b;
+        }
+        break;
+      case OP_SUBTRACT:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] - b;
+        }
+        break;
+      case OP_MULTIPLY:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] * b;
+        }
+        break;
+      default:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a[i] / b;
+        }
+    }
+  }
+
+  private static void combine(int a_op, double a, double[] b,
+                              double[] a_result, int a_rows) {
+    switch (a_op) {
+      case OP_ADD:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a + b[i];
+        }
+        break;
+      case OP_SUBTRACT:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a - b[i];
+        }
+        break;
+      case OP_MULTIPLY:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a * b[i];
+        }
+        break;
+      default:
+        for (int i = 0; i < a_rows; i++) {
+          a_result[i] = a / b[i];
+        }
+    }
+  }
+
+  /**
+   * A child of a fused node: a variable read from its column, a constant, or
+   * a subtree executed into a buffer.
+   */
+  private static class Operand {
+    final int m_parent;
+
+    final int m_child;
+
+    final int m_index;
+
+    final CommandGene m_node;
+
+    final Variable m_var;
+
+    final boolean m_const;
+
+    Operand(ProgramChromosome a_chrom, int a_parent, int a_child) {
+      m_parent = a_parent;
+      m_child = a_child;
+      m_index = a_chrom.getChild(a_parent, a_child);
+      m_node = a_chrom.getGene(m_index);
+      Class<?> clazz = m_node.getClass();
+      if (clazz == Variable.class) {
+        m_var = (Variable) m_node;
+        m_const = false;
+      }
+      else {
+        m_var = null;
+        m_const = clazz == Terminal.class || clazz == Constant.class;
+      }
+    }
+
+    boolean isSubtree() {
+      return m_var == null && !m_const;
+    }
+
+    /**
+     * @return false: a variable is not part of the dataset
+     */
+    boolean isAvailable(BatchData a_data) {
+      return m_var == null || a_data.getColumn(m_var) != null;
+    }
+
+    /**
+     * @return the values of the operand, null for a constant; a buffer for a
+     * subtree, to be released by the caller
+     */
+    double[] load(ProgramChromosome a_chrom, BatchData a_data) {
+      if (m_const) {
+        return null;
+      }
+      if (m_var != null) {
+        // Values of a float program are rounded when read.
+        // -------------------------------------------------
+        if (a_data.isFloat()) {
+          return a_data.getFloatColumn(m_var);
+        }
+        return a_data.getColumn(m_var);
+      }
+      double[] buffer = a_data.acquire();
+      a_chrom.execute_batch(m_parent, m_child, a_data, buffer);
+      return buffer;
+    }
+
+    /**
+     * @return the value of a constant in the precision of the program, like
+     * its kernel fills it in
+     */
+    double getConst(ProgramChromosome a_chrom, BatchData a_data) {
+      if (!m_const) {
+        return 0;
+      }
+      if (a_data.isFloat()) {
+        return m_node.execute_float(a_chrom, m_index, null);
+      }
+      return m_node.execute_double(a_chrom, m_index, null);
+    }
+
+    void release(BatchData a_data, double[] a_values) {
+      if (isSubtree()) {
+        a_data.release(a_values);
+      }
+    }
+  }
+
+  private static abstract class Fused {
+    abstract boolean execute(ProgramChromosome a_chrom, BatchData a_data,
+                             double[] a_result);
+  }
+
+  /**
+   * Binary operation with at least one leaf child.
+   */
+  private static class Binary
+      extends Fused {
+    private final int m_op;
+
+    private final Operand m_left;
+
+    private final Operand m_right;
+
+    Binary(int a_op, Operand a_left, Operand a_right) {
+      m_op = a_op;
+      m_left = a_left;
+      m_right = a_right;
+    }
+
+    boolean execute(ProgramChromosome a_chrom, BatchData a_data,
+                    double[] a_result) {
+      if (!m_left.isAvailable(a_data) || !m_right.isAvailable(a_data)) {
+        return false;
+      }
+      double[] left = m_left.load(a_chrom, a_data);
+      double[] right = m_right.load(a_chrom, a_data);
+      combine(m_op, left, m_left.getConst(a_chrom, a_data), right,
+              m_right.getConst(a_chrom, a_data), a_result,
+              a_data.getRows(), a_data.isFloat());
+      m_left.release(a_data, left);
+      m_right.release(a_data, right);
+      return true;
+    }
+  }
+
+  /**
+   * a * b + c resp. c + a * b.
+   */
+  private static class MultiplyAdd
+      extends Fused {
+    private final Operand m_a;
+
+    private final Operand m_b;
+
+    private final Operand m_c;
+
+    private final boolean m_multiplyFirst;
+
+    MultiplyAdd(ProgramChromosome a_chrom, int a_multiply, int a_add,
+                int a_addend) {
+      m_a = new Operand(a_chrom, a_multiply, 0);
+      m_b = new Operand(a_chrom, a_multiply, 1);
+      m_c = new Operand(a_chrom, a_add, a_addend);
+      m_multiplyFirst = a_addend == 1;
+    }
+
+    boolean execute(ProgramChromosome a_chrom, BatchData a_data,
+                    double[] a_result) {
+      if (!m_a.isAvailable(a_data) || !m_b.isAvailable(a_data)
+          || !m_c.isAvailable(a_data)) {
+        return false;
+      }
+      // Execute the subtrees in the order of the nodes.
+      // -----------------------------------------------
+      double[] a;
+      double[] b;
+      double[] c;
+      if (m_multiplyFirst) {
+        a = m_a.load(a_chrom, a_data);
+        b = m_b.load(a_chrom, a_data);
+        c = m_c.load(a_chrom, a_data);
+      }
+      else {
+        c = m_c.load(a_chrom, a_data);
+        a = m_a.load(a_chrom, a_data);
+        b = m_b.load(a_chrom, a_data);
+      }
+      int rows = a_data.getRows();
+      boolean isFloat = a_data.isFloat();
+      combine(OP_MULTIPLY, a, m_a.getConst(a_chrom, a_data), b,
+              m_b.getConst(a_chrom, a_data), a_result, rows, isFloat);
+      combine(OP_ADD, a_result, 0, c, m_c.getConst(a_chrom, a_data),
+              a_result, rows, isFloat);
+      m_a.release(a_data, a);
+      m_b.release(a_data, b);
+      m_c.release(a_data, c);
+      return true;
+    }
+  }
+
+  /**
+   * Nested Add nodes, each having one Add child except the innermost.
+   */
+  private static class AddChain
+      extends Fused {
+    /**
+     * The operands in the order of the nodes.
+     */
+    private final Operand[] m_operands;
+
+    /**
+     * Indices into m_operands in the order of addition: the two operands of
+     * the innermost Add first, then outwards.
+     */
+    private final int[] m_order;
+
+    AddChain(ProgramChromosome a_chrom, int a_index) {
+      // Collect the Add nodes from the outermost to the innermost one.
+      // --------------------------------------------------------------
+      List<Integer> chain = new ArrayList<Integer>();
+      int node = a_index;
+      while (true) {
+        chain.add(node);
+        boolean leftAdd = getOp(a_chrom, a_chrom.getChild(node, 0)) == OP_ADD;
+        boolean rightAdd = getOp(a_chrom, a_chrom.getChild(node, 1)) == OP_ADD;
+        if (leftAdd == rightAdd) {
+          break;
+        }
+        node = a_chrom.getChild(node, leftAdd ? 0 : 1);
+      }
+      int adds = chain.size();
+      m_operands = new Operand[adds + 1];
+      m_order = new int[adds + 1];
+      // Operands left of the inner chain come first, top down; then the
+      // operands of the innermost node; then those right of the chain,
+      // bottom up.
+      // ----------------------------------------------------------------
+      int[] operandOf = new int[adds];
+      int count = 0;
+      for (int i = 0; i < adds - 1; i++) {
+        int add = chain.get(i);
+        if (getOp(a_chrom, a_chrom.getChild(add, 1)) == OP_ADD) {
+          operandOf[i] = count;
+          m_operands[count++] = new Operand(a_chrom, add, 0);
+        }
+      }
+      int innermost = chain.get(adds - 1);
+      int first = count;
+      m_operands[count++] = new Operand(a_chrom, innermost, 0);
+      m_operands[count++] = new Operand(a_chrom, innermost, 1);
+      for (int i = adds - 2; i >= 0; i--) {
+        int add = chain.get(i);
+        if (getOp(a_chrom, a_chrom.getChild(add, 0)) == OP_ADD) {
+          operandOf[i] = count;
+          m_operands[count++] = new Operand(a_chrom, add, 1);
+        }
+      }
+      m_order[0] = first;
+      m_order[1] = first + 1;
+      for (int i = adds - 2, k = 2; i >= 0; i--, k++) {
+        m_order[k] = operandOf[i];
+      }
+    }
+
+    boolean execute(ProgramChromosome a_chrom, BatchData a_data,
+                    double[] a_result) {
+      int n = m_operands.length;
+      for (int i = 0; i < n; i++) {
+        if (!m_operands[i].isAvailable(a_data)) {
+          return false;
+        }
+      }
+      double[][] values = new double[n][];
+      for (int i = 0; i < n; i++) {
+        values[i] = m_operands[i].load(a_chrom, a_data);
+      }
+      int rows = a_data.getRows();
+      boolean isFloat = a_data.isFloat();
+      // Addition is commutative, so adding the sum of the inner nodes from
+      // either side gives the same result.
+      // ------------------------------------------------------------------
+      Operand first = m_operands[m_order[0]];
+      Operand second = m_operands[m_order[1]];
+      combine(OP_ADD, values[m_order[0]], first.getConst(a_chrom, a_data),
+              values[m_order[1]], second.getConst(a_chrom, a_data),
+              a_result, rows, isFloat);
+      for (int k = 2; k < n; k++) {
+        Operand operand = m_operands[m_order[k]];
+        combine(OP_ADD, a_result, 0, values[m_order[k]],
+                operand.getConst(a_chrom, a_data), a_result, rows, isFloat);
+      }
+      for (int i = 0; i < n; i++) {
+        m_operands[i].release(a_data, values[i]);
+      }
+      return true;
+    }
+  }
+}
@@ -11,6 +11,7 @@ package org.jgap.gp.impl;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import org.apache.commons.lang.builder.*;
 import org.jgap.*;
@@ -42,13 +43,40 @@ public class GPConfiguration
   /**
    * Internal stack, see PushCommand for example.
    */
-  private /*transient*/ Stack m_stack = new Stack();
+  private /*transient*/ Stack<Object> m_stack = new Stack<Object>();
 
   /**
    * Internal memory, see StoreTerminalCommand for example.
    */
   private transient Culture m_memory = new Culture(50);
 
+  /**
+   * Stack and memory of threads evaluating programs in parallel, see
+   * initThreadState.
+   */
+  private transient ThreadLocal<Stack<Object>> m_threadStack;
+
+  private transient ThreadLocal<Culture> m_threadMemory;
+
+  /**
+   * Random generator of threads breeding programs in parallel or evolving an
+   * island, see setThreadRandomGenerator. Shared by all configurations.
+   */
+  private final static ThreadLocal<RandomGenerator> THREAD_RANDOM =
+      new ThreadLocal<RandomGenerator>();
+
+  /**
+   * True as soon as any thread uses its own random generator. Process-wide
+   * like THREAD_RANDOM: once set, every configuration looks up the thread's
+   * generator before falling back to its own.
+   */
+  private static volatile boolean THREAD_RANDOM_USED;
+
+  /**
+   * True as soon as any thread uses its own stack and memory.
+   */
+  private transient volatile boolean m_perThreadState;
+
   private transient Hashtable<String, char[][]> m_matrices;
 
   /**
@@ -153,7 +181,89 @@ public class GPConfiguration
 
   private Map m_variables;
 
-  private transient Map m_programCache;
+  /**
+   * Number of slot indices handed out to Variables, see nextVariableSlot.
+   */
+  private int m_variableSlots;
+
+  /**
+   * Number of threads for computing fitness values, 1 for computing them in
+   * the calling thread.
+   */
+  private int m_fitnessThreads = 1;
+
+  /**
+   * Number of threads for breeding a new generation, 1 for breeding it in the
+   * calling thread.
+   */
+  private int m_breedingThreads = 1;
+
+  private transient ProgramCache m_programCache;
+
+  /**
+   * Maximum number of programs held by the program cache.
+   */
+  private int m_programCacheSize = 10000;
+
+  /**
+   * Compiles programs into JVM classes, see ProgramChromosome.compile.
+   */
+  private transient ProgramCompiler m_programCompiler;
+
+  /**
+   * True: programs are simplified before their fitness is computed.
+   */
+  private boolean m_simplifyPrograms;
+
+  private transient ProgramSimplifier m_programSimplifier;
+
+  /**
+   * Lookup tables for selecting nodes, by node set.
+   */
+  private transient Map<CommandGene[], NodeTable> m_nodeTables;
+
+  private transient ProgramCreationStatistics m_creationStatistics;
+
+  private transient CrossoverStatistics m_crossoverStatistics;
+
+  /**
+   * True: outputs of subtrees are kept for reuse after crossing over.
+   */
+  private boolean m_useSubtreeCache;
+
+  /**
+   * Maximum memory in megabytes used by the subtree output cache.
+   */
+  private int m_subtreeCacheMemory = 64;
+
+  private transient SubtreeOutputCache m_subtreeCache;
+
+  /**
+   * True: frequent node patterns are executed by superinstructions.
+   */
+  private boolean m_fuseNodes;
+
+  /**
+   * True: programs are executed compiled by the ProgramCompiler.
+   */
+  private boolean m_compilePrograms;
+
+  /**
+   * True: offsprings replace programs of the population one by one instead
+   * of forming a new generation.
+   */
+  private boolean m_steadyState;
+
+  private ReplacementPolicy m_replacementPolicy =
+      ReplacementPolicy.INVERSE_TOURNAMENT;
+
+  private int m_replacementTournamentSize = 3;
+
+  /**
+   * True: fitness values of programs unlikely to be selected may be computed
+   * incompletely.
+   */
+  private boolean m_boundedEvaluation;
 
   /**
    * Holds the central configurable factory for creating default objects.
@@ -172,10 +282,28 @@ public class GPConfiguration
   private IGPInitStrategy m_initStrategy;
 
   /**
-   * TRUE: Activate methods checkErroneousPop and checkErroneousProg in class
-   * GPGenotype.
+   * Name of the system property holding the default ValidationPolicy, e.g.
+   * ALWAYS for tests. If not set, programs are not validated.
+   */
+  public static final String PROPERTY_VALIDATION_POLICY =
+      "JGAPVALIDATIONPOLICY";
+
+  /**
+   * Which programs the methods checkErroneousPop and checkErroneousProg in
+   * class GPGenotype validate.
+   */
+  private ValidationPolicy m_validationPolicy = getDefaultValidationPolicy();
+
+  /**
+   * Share of programs validated with ValidationPolicy.SAMPLED.
+   */
+  private double m_validationRate = 0.1d;
+
+  /**
+   * Number of programs considered for validation with
+   * ValidationPolicy.SAMPLED.
    */
-  private boolean m_verify;
+  private final AtomicLong m_validationCount = new AtomicLong();
 
   /**
    * TRUE: Do not clone command genes when creating a new GP program in
@@ -267,7 +395,9 @@ public class GPConfiguration
     if (m_factory == null) {
       throw new IllegalStateException("JGAPFactory not registered!");
     }
-    m_programCache = new HashMap(50);
+    m_programCache = new ProgramCache(m_programCacheSize);
+    m_programCompiler = new ProgramCompiler();
+    m_programSimplifier = new ProgramSimplifier();
     m_matrices = new Hashtable();
     if (a_fullInit) {
       m_variables = new Hashtable();
@@ -463,24 +593,103 @@ public class GPConfiguration
     m_minInitDepth = a_minDepth;
   }
 
+  /**
+   * Gives the calling thread its own stack and memory, so that programs using
+   * them can be evaluated in several threads at once. Called by the threads
+   * computing fitness values in parallel.
+   */
+  public void initThreadState() {
+    synchronized (this) {
+      if (m_threadStack == null) {
+        m_threadStack = new ThreadLocal<Stack<Object>>();
+        m_threadMemory = new ThreadLocal<Culture>();
+      }
+    }
+    if (m_threadStack.get() == null) {
+      m_threadStack.set(new Stack<Object>());
+      m_threadMemory.set(new Culture(m_memory.size()));
+    }
+    m_perThreadState = true;
+  }
+
+  /**
+   * Sets a random generator used only by the calling thread, so that threads
+   * breeding programs in parallel each draw from their own deterministic
+   * stream. The generator is returned by all configurations within the
+   * calling thread, as nodes of programs migrated from another island refer
+   * to the configuration of that island, see GPIslandModel.
+   *
+   * @param a_generator the generator for the calling thread, null to use the
+   * generator of the configuration again
+   */
+  public void setThreadRandomGenerator(RandomGenerator a_generator) {
+    initThreadState();
+    if (a_generator != null) {
+      THREAD_RANDOM_USED = true;
+    }
+    THREAD_RANDOM.set(a_generator);
+  }
+
+  /**
+   * @return the random generator of the calling thread if one was set via
+   * setThreadRandomGenerator, otherwise the generator of the configuration
+   */
+  public RandomGenerator getRandomGenerator() {
+    if (THREAD_RANDOM_USED) {
+      RandomGenerator random = THREAD_RANDOM.get();
+      if (random != null) {
+        return random;
+      }
+    }
+    return super.getRandomGenerator();
+  }
+
+  /**
+   * @return the stack of the calling thread if it has one, otherwise the
+   * shared stack
+   */
+  protected Stack<Object> getStack() {
+    if (m_perThreadState) {
+      Stack<Object> stack = m_threadStack.get();
+      if (stack != null) {
+        return stack;
+      }
+    }
+    return m_stack;
+  }
+
+  /**
+   * @return the memory of the calling thread if it has one, otherwise the
+   * shared memory
+   */
+  protected Culture getMemory() {
+    if (m_perThreadState) {
+      Culture memory = m_threadMemory.get();
+      if (memory != null) {
+        return memory;
+      }
+    }
+    return m_memory;
+  }
+
   public void pushToStack(Object a_value) {
-    m_stack.push(a_value);
+    getStack().push(a_value);
   }
 
   public Object popFromStack() {
-    return m_stack.pop();
+    return getStack().pop();
   }
 
   public Object peekStack() {
-    return m_stack.peek();
+    return getStack().peek();
   }
 
   public int stackSize() {
-    return m_stack.size();
+    return getStack().size();
   }
 
   public void clearStack() {
-    m_stack.clear();
+    getStack().clear();
   }
 
   /**
@@ -493,7 +702,7 @@ public class GPConfiguration
    * @since 3.0
    */
   public void storeInMemory(String a_name, Object a_value) {
-    m_memory.set(a_name, a_value, -1);
+    getMemory().set(a_name, a_value, -1);
   }
 
   /**
@@ -626,7 +835,7 @@ public class GPConfiguration
    * @since 3.2
    */
   public CultureMemoryCell storeMatrixMemory(int a_x, int a_y, Object a_value) {
-    return m_memory.setMatrix(a_x, a_y, a_value);
+    return getMemory().setMatrix(a_x, a_y, a_value);
   }
 
   /**
@@ -640,7 +849,7 @@ public class GPConfiguration
    * @since 3.2
    */
   public Object readMatrixMemory(int a_x, int a_y) {
-    return m_memory.getMatrix(a_x, a_y).getCurrentValue();
+    return getMemory().getMatrix(a_x, a_y).getCurrentValue();
   }
 
   /**
@@ -653,7 +862,7 @@ public class GPConfiguration
    * @since 3.0
    */
   public Object readFromMemory(String a_name) {
-    return m_memory.get(a_name).getCurrentValue();
+    return getMemory().get(a_name).getCurrentValue();
   }
 
   /**
@@ -666,7 +875,7 @@ public class GPConfiguration
   public Object readFromMemoryIfExists(String a_name) {
     CultureMemoryCell cell = null;
     try {
-      cell = m_memory.get(a_name);
+      cell = getMemory().get(a_name);
     } catch (IllegalArgumentException iex) {
       // Memory name not found: OK.
       // --------------------------
@@ -689,7 +898,7 @@ public class GPConfiguration
    * @since 3.2
    */
   public CultureMemoryCell storeIndexedMemory(int a_index, Object a_value) {
-    return m_memory.set(a_index, a_value, -1, "noname");
+    return getMemory().set(a_index, a_value, -1, "noname");
   }
 
   /**
@@ -702,7 +911,7 @@ public class GPConfiguration
    * @since 3.2
    */
   public Object readIndexedMemory(int a_index) {
-    CultureMemoryCell cell = m_memory.get(a_index);
+    CultureMemoryCell cell = getMemory().get(a_index);
     if (cell == null) {
       return null;
     }
@@ -718,7 +927,7 @@ public class GPConfiguration
    * @since 3.0
    */
   public void clearMemory() {
-    m_memory.clear();
+    getMemory().clear();
   }
 
   public GPFitnessFunction getGPFitnessFunction() {
@@ -985,18 +1194,283 @@ public class GPConfiguration
    * @since 3.2
    */
   public int getMemorySize() {
-    return m_memory.size();
+    return getMemory().size();
   }
 
-  public GPProgramInfo readProgramCache(GPProgram a_prog) {
-    GPProgramInfo pci = new GPProgramInfo(a_prog, true);
-    pci.setFound(false);
-    return (GPProgramInfo) m_programCache.get(pci.getToStringNorm());
+  /**
+   * @param a_prog the program to look up
+   * @return info holding the fitness value of an equal program computed
+   * before, or null
+   *
+   * @author Klaus Meffert
+   * @since 3.2
+   */
+  public GPProgramInfo readProgramCache(IGPProgram a_prog) {
+    return m_programCache.get(a_prog);
+  }
+
+  /**
+   * Stores the fitness value of the given program in the program cache.
+   *
+   * @param a_prog the program with computed fitness value
+   * @return info previously stored for an equal program, or null
+   *
+   * @author Klaus Meffert
+   * @since 3.2
+   */
+  public GPProgramInfo putToProgramCache(GPProgramBase a_prog) {
+    return m_programCache.put(a_prog, a_prog.getFitnessValueDirectly());
+  }
+
+  /**
+   * @return the cache of fitness values used if isUseProgramCache, holds the
+   * hit, miss and eviction counters
+   */
+  public ProgramCache getProgramCache() {
+    return m_programCache;
+  }
+
+  /**
+   * @param a_size maximum number of programs held by the program cache, the
+   * least recently used programs are evicted
+   */
+  public void setProgramCacheSize(int a_size) {
+    m_programCache.setMaxSize(a_size);
+    m_programCacheSize = a_size;
+  }
+
+  public int getProgramCacheSize() {
+    return m_programCacheSize;
+  }
+
+  /**
+   * @return the compiler used for turning programs into JVM classes
+   */
+  public ProgramCompiler getProgramCompiler() {
+    return m_programCompiler;
+  }
+
+  /**
+   * @param a_simplify true: GPGenotype.calcFitness rewrites the programs to be
+   * evaluated into equivalent smaller ones first, see ProgramSimplifier
+   */
+  public void setSimplifyPrograms(boolean a_simplify) {
+    m_simplifyPrograms = a_simplify;
   }
 
-  public GPProgramInfo putToProgramCache(GPProgram a_prog) {
-    GPProgramInfo pci = new GPProgramInfo(a_prog, true);
-    return (GPProgramInfo) m_programCache.put(pci.getToStringNorm(), pci);
+  public boolean isSimplifyPrograms() {
+    return m_simplifyPrograms;
+  }
+
+  /**
+   * @return the simplifier used if isSimplifyPrograms, holds the number of
+   * nodes removed
+   */
+  public ProgramSimplifier getProgramSimplifier() {
+    return m_programSimplifier;
+  }
+
+  /**
+   * Lets the fitness function stop evaluating a program as soon as it is
+   * clear that the program is less fit than the programs the selection method
+   * mostly picks from. The bound is taken from the fitness values of the
+   * previous generation, see IBoundedSelector. Only takes effect if the
+   * selection method implements IBoundedSelector and the fitness function
+   * supports bounds, see GPFitnessFunction.isBoundSupported.<p>
+   * Incomplete fitness values are completed when a program wins a tournament
+   * or may be the fittest of its generation, so evolution proceeds the same
+   * as without bounds. GPGenotype.getTotalFitness only sums up complete
+   * fitness values then.
+   *
+   * @param a_bounded true: compute fitness values against a bound
+   */
+  public void setBoundedEvaluation(boolean a_bounded) {
+    m_boundedEvaluation = a_bounded;
+  }
+
+  public boolean isBoundedEvaluation() {
+    return m_boundedEvaluation;
+  }
+
+  /**
+   * Returns the lookup table for selecting nodes from the given node set when
+   * growing chromosomes with the given argument types. Tables are built once
+   * per node set, which is identified by reference, so its contents must not
+   * be changed afterwards.
+   *
+   * @param a_nodeSet the nodes available for a chromosome
+   * @param a_argTypes the argument types of the chromosome
+   * @return the table
+   */
+  public synchronized NodeTable getNodeTable(CommandGene[] a_nodeSet,
+      Class[] a_argTypes) {
+    if (m_nodeTables == null) {
+      m_nodeTables = new IdentityHashMap<CommandGene[], NodeTable>();
+    }
+    NodeTable table = m_nodeTables.get(a_nodeSet);
+    if (table == null || !table.isFor(a_argTypes)) {
+      table = new NodeTable(a_nodeSet, a_argTypes);
+      m_nodeTables.put(a_nodeSet, table);
+    }
+    return table;
+  }
+
+  /**
+   * @return counters of the random programs created with this configuration
+   */
+  public synchronized ProgramCreationStatistics getProgramCreationStatistics() {
+    if (m_creationStatistics == null) {
+      m_creationStatistics = new ProgramCreationStatistics();
+    }
+    return m_creationStatistics;
+  }
+
+  /**
+   * @return counters of the offsprings of crossing over by result, for the
+   * current resp. last generation
+   */
+  public synchronized CrossoverStatistics getCrossoverStatistics() {
+    if (m_crossoverStatistics == null) {
+      m_crossoverStatistics = new CrossoverStatistics();
+    }
+    return m_crossoverStatistics;
+  }
+
+  /**
+   * Lets programs keep the output of each node when evaluated on a dataset via
+   * ProgramChromosome.execute_batch. An offspring of crossing over then only
+   * executes the nodes on the path from the crossover point to the root and
+   * takes the outputs of all other subtrees from its parents. Crossing over
+   * mutates copies of the parents instead of the parents in this mode, as it
+   * does with several breeding threads. See SubtreeOutputCache.
+   *
+   * @param a_useCache true: use the subtree output cache
+   */
+  public void setUseSubtreeCache(boolean a_useCache) {
+    m_useSubtreeCache = a_useCache;
+  }
+
+  public boolean isUseSubtreeCache() {
+    return m_useSubtreeCache;
+  }
+
+  /**
+   * @param a_megabytes maximum memory used for outputs of subtrees, the
+   * outputs of the least recently evaluated programs are evicted
+   */
+  public synchronized void setSubtreeCacheMemory(int a_megabytes) {
+    if (m_subtreeCache != null) {
+      m_subtreeCache.setMaxMemory(a_megabytes);
+    }
+    m_subtreeCacheMemory = a_megabytes;
+  }
+
+  public int getSubtreeCacheMemory() {
+    return m_subtreeCacheMemory;
+  }
+
+  /**
+   * @return the cache of subtree outputs used if isUseSubtreeCache, holds the
+   * reuse and eviction counters
+   */
+  public synchronized SubtreeOutputCache getSubtreeCache() {
+    if (m_subtreeCache == null) {
+      m_subtreeCache = new SubtreeOutputCache(m_subtreeCacheMemory);
+    }
+    return m_subtreeCache;
+  }
+
+  /**
+   * Lets ProgramChromosome.execute_batch execute frequent patterns of
+   * arithmetic nodes, like var * const or a * b + c, by one fused kernel
+   * each. The programs and their results are not changed. Only used while
+   * the subtree cache is not enabled, as it needs the output of every node. See FusedNodes.
+   *
+   * @param a_fuse true: fuse frequent node patterns
+   */
+  public void setFuseNodes(boolean a_fuse) {
+    m_fuseNodes = a_fuse;
+  }
+
+  public boolean isFuseNodes() {
+    return m_fuseNodes;
+  }
+
+  /**
+   * Lets ProgramChromosome.execute_batch execute programs compiled by the
+   * ProgramCompiler, which loop over the rows of the dataset, instead of
+   * executing the kernel of each node. The results are not changed. Programs
+   * the compiler does not support are executed as usual. Compiled programs
+   * have no outputs per node, so the subtree cache and fused
+   * nodes are not used for them.<p>
+   * Defining a class per new program is expensive, and the JIT has to warm up
+   * each class on its own, while the node kernels are shared by all programs.
+   * On the symbolic regression example with 20000 rows the kernels are still
+   * about 15% faster once the compiled classes are warm. Switching off
+   * bytecode generation (see ProgramCompiler.setGenerateBytecode) makes
+   * compiling cheaper. Generating classes requires Java 15 or later.
+   *
+   * @param a_compile true: execute compiled programs
+   */
+  public void setCompilePrograms(boolean a_compile) {
+    m_compilePrograms = a_compile;
+  }
+
+  public boolean isCompilePrograms() {
+    return m_compilePrograms;
+  }
+
+  /**
+   * Lets GPGenotype.evolve breed steady state: each offspring is evaluated
+   * right away and replaces a program of the current population in place,
+   * chosen by the replacement policy. Offsprings are bred from the population
+   * changed so far, so fit programs take part sooner. No new population is
+   * allocated. One generation still produces as many offsprings as the
+   * population holds, crossing over, reproducing and creating programs in
+   * the same proportions, so the number of evaluations per generation is the
+   * same as with generational breeding. Offsprings are bred and evaluated in
+   * the calling thread.
+   *
+   * @param a_steadyState true: breed steady state
+   */
+  public void setSteadyState(boolean a_steadyState) {
+    m_steadyState = a_steadyState;
+  }
+
+  public boolean isSteadyState() {
+    return m_steadyState;
+  }
+
+  /**
+   * @param a_policy which program an offspring replaces when breeding steady
+   * state
+   */
+  public void setReplacementPolicy(ReplacementPolicy a_policy) {
+    if (a_policy == null) {
+      throw new IllegalArgumentException("Replacement policy must not be"
+                                         + " null");
+    }
+    m_replacementPolicy = a_policy;
+  }
+
+  public ReplacementPolicy getReplacementPolicy() {
+    return m_replacementPolicy;
+  }
+
+  /**
+   * @param a_size number of programs drawn for an inverse tournament, see
+   * ReplacementPolicy.INVERSE_TOURNAMENT
+   */
+  public void setReplacementTournamentSize(int a_size) {
+    if (a_size < 1) {
+      throw new IllegalArgumentException("Tournament size must be at least"
+                                         + " one");
+    }
+    m_replacementTournamentSize = a_size;
+  }
+
+  public int getReplacementTournamentSize() {
+    return m_replacementTournamentSize;
   }
 
   public boolean isUseProgramCache() {
@@ -1030,6 +1504,60 @@ public class GPConfiguration
     return (Variable) m_variables.get(a_varName);
   }
 
+  /**
+   * Assigns the next free index for holding the value of a Variable in an
+   * EvaluationContext.
+   *
+   * @return the slot index
+   */
+  public synchronized int nextVariableSlot() {
+    return m_variableSlots++;
+  }
+
+  /**
+   * Sets the number of threads computing the fitness values of a population.
+   * With more than one thread, each thread uses its own stack, memory and
+   * EvaluationContext. The fitness function must then be thread-safe.
+   * Results are the same as with a single thread.
+   *
+   * @param a_threads number of threads, 1 for computing the fitness values in
+   * the calling thread
+   */
+  public void setFitnessThreads(int a_threads) {
+    if (a_threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least"
+                                         + " one");
+    }
+    m_fitnessThreads = a_threads;
+  }
+
+  public int getFitnessThreads() {
+    return m_fitnessThreads;
+  }
+
+  /**
+   * Sets the number of threads breeding a new generation in GPGenotype.evolve.
+   * With more than one thread, the population is split into fixed chunks of
+   * slots, each bred with its own random generator seeded from the generator
+   * of the configuration. Results are thus the same for any number of threads
+   * above one, but differ from breeding in the calling thread. Terminals
+   * mutated during crossover are mutated in a copy of the parent chromosome
+   * instead of the parent itself.
+   *
+   * @param a_threads number of threads, 1 for breeding in the calling thread
+   */
+  public void setBreedingThreads(int a_threads) {
+    if (a_threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least"
+                                         + " one");
+    }
+    m_breedingThreads = a_threads;
+  }
+
+  public int getBreedingThreads() {
+    return m_breedingThreads;
+  }
+
   /**
    * @return deep clone of this instance
    *
@@ -1079,19 +1607,47 @@ public class GPConfiguration
       result.m_reproductionProb = m_reproductionProb;
       result.m_newChromsPercent = m_newChromsPercent;
       result.m_functionProb = m_functionProb;
+      result.m_mutationProb = m_mutationProb;
+      result.m_dynArityProb = m_dynArityProb;
       result.m_maxCrossoverDepth = m_maxCrossoverDepth;
       result.m_maxInitDepth = m_maxInitDepth;
       result.m_minInitDepth = m_minInitDepth;
       result.m_strictProgramCreation = m_strictProgramCreation;
       result.m_programCreationMaxTries = m_programCreationMaxTries;
       result.m_selectionMethod = (INaturalGPSelector) doClone(m_selectionMethod);
-      result.m_crossMethod = (CrossMethod) doClone(m_crossMethod);
+      if (m_crossMethod instanceof BranchTypingCross) {
+        // The clone must draw from its own random generator and count its
+        // own crossover statistics.
+        // ------------------------------------------------------------------
+        result.m_crossMethod = ( (BranchTypingCross) m_crossMethod).
+            newInstance(result);
+      }
+      else {
+        result.m_crossMethod = (CrossMethod) doClone(m_crossMethod);
+      }
       result.m_fitnessEvaluator = (IGPFitnessEvaluator) doClone(
           m_fitnessEvaluator);
       result.m_nodeValidator = (INodeValidator) doClone(m_nodeValidator);
+      result.m_singleNodeValidator = m_singleNodeValidator;
+      result.m_initStrategy = m_initStrategy;
+      result.m_noCommandGeneCloning = m_noCommandGeneCloning;
       result.m_useProgramCache = m_useProgramCache;
-      result.m_verify = m_verify;
+      result.setProgramCacheSize(m_programCacheSize);
+      result.m_validationPolicy = m_validationPolicy;
+      result.m_validationRate = m_validationRate;
       result.m_variables = m_variables;
+      result.m_variableSlots = m_variableSlots;
+      result.m_fitnessThreads = m_fitnessThreads;
+      result.m_breedingThreads = m_breedingThreads;
+      result.m_simplifyPrograms = m_simplifyPrograms;
+      result.m_boundedEvaluation = m_boundedEvaluation;
+      result.m_useSubtreeCache = m_useSubtreeCache;
+      result.m_subtreeCacheMemory = m_subtreeCacheMemory;
+      result.m_fuseNodes = m_fuseNodes;
+      result.m_compilePrograms = m_compilePrograms;
+      result.m_steadyState = m_steadyState;
+      result.m_replacementPolicy = m_replacementPolicy;
+      result.m_replacementTournamentSize = m_replacementTournamentSize;
       // Configurable data.
       // ------------------
 //      result.m_config = new ConfigurationConfigurable();
@@ -1163,24 +1719,91 @@ public class GPConfiguration
 
   /**
    * @param a_verify true: verify GP programs for correctness (i.e. is fitness
-   * computation possible without exception?)
+   * computation possible without exception?), same as ValidationPolicy.ALWAYS;
+   * false: same as ValidationPolicy.OFF
    *
    * @author Klaus Meffert
    * @since 3.3.4
    */
   public void setVerifyPrograms(boolean a_verify) {
-    m_verify = a_verify;
+    m_validationPolicy = a_verify ? ValidationPolicy.ALWAYS
+        : ValidationPolicy.OFF;
   }
 
   /**
    * @return true: verify GP programs for correctness (i.e. is fitness
-   * computation possible without exception?)
+   * computation possible without exception?), at least sampled
    *
    * @author Klaus Meffert
    * @since 3.3.4
    */
   public boolean isVerifyPrograms() {
-    return m_verify;
+    return m_validationPolicy != ValidationPolicy.OFF;
+  }
+
+  /**
+   * Sets which programs GPGenotype validates while evolving: every program,
+   * a share of them, or none. Validating computes the fitness of a program,
+   * so the population is evaluated again before each generation. The default
+   * is taken from the system property PROPERTY_VALIDATION_POLICY, OFF if not
+   * set.
+   *
+   * @param a_policy the policy to use
+   */
+  public void setValidationPolicy(ValidationPolicy a_policy) {
+    if (a_policy == null) {
+      throw new IllegalArgumentException("Validation policy must not be null");
+    }
+    m_validationPolicy = a_policy;
+  }
+
+  public ValidationPolicy getValidationPolicy() {
+    return m_validationPolicy;
+  }
+
+  /**
+   * @param a_rate share of programs validated with ValidationPolicy.SAMPLED,
+   * between 0 and 1
+   */
+  public void setValidationRate(double a_rate) {
+    if (a_rate < 0 || a_rate > 1) {
+      throw new IllegalArgumentException("Validation rate must be between 0"
+                                         + " and 1");
+    }
+    m_validationRate = a_rate;
+  }
+
+  public double getValidationRate() {
+    return m_validationRate;
+  }
+
+  /**
+   * Decides whether to validate the next program according to the validation
+   * policy. With ValidationPolicy.SAMPLED, the programs validated are evenly
+   * spread; the random generator is not used, so validating does not change
+   * the course of evolution.
+   *
+   * @return true: validate the program
+   */
+  public boolean isValidating() {
+    switch (m_validationPolicy) {
+      case ALWAYS:
+        return true;
+      case OFF:
+        return false;
+      default:
+        long n = m_validationCount.incrementAndGet();
+        return (long) (n * m_validationRate)
+            != (long) ( (n - 1) * m_validationRate);
+    }
+  }
+
+  private static ValidationPolicy getDefaultValidationPolicy() {
+    String policy = System.getProperty(PROPERTY_VALIDATION_POLICY);
+    if (policy != null && policy.length() > 0) {
+      return ValidationPolicy.valueOf(policy.trim().toUpperCase());
+    }
+    return ValidationPolicy.OFF;
   }
 
   /**
@@ -11,6 +11,7 @@ package org.jgap.gp.impl;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.log4j.*;
 import org.jgap.*;
@@ -18,6 +19,7 @@ import org.jgap.distr.grid.gp.*;
 import org.jgap.event.*;
 import org.jgap.gp.*;
 import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
 import org.jgap.util.*;
 
 /**
@@ -109,6 +111,35 @@ public class GPGenotype
 
   private boolean m_cloneWarningGPProgramShown;
 
+  /**
+   * Fitness value programs of the next generation are evaluated against, NaN
+   * for evaluating them completely, see GPConfiguration.setBoundedEvaluation.
+   */
+  private double m_fitnessBound = Double.NaN;
+
+  /**
+   * Threads computing fitness values in parallel, see
+   * GPConfiguration.setFitnessThreads.
+   */
+  private transient ExecutorService m_fitnessExecutor;
+
+  /**
+   * Threads breeding a new generation in parallel, see
+   * GPConfiguration.setBreedingThreads.
+   */
+  private transient ExecutorService m_breedingExecutor;
+
+  /**
+   * Offsprings bred but not yet added when breeding steady state.
+   */
+  private transient IGPProgram[] m_offsprings;
+
+  /**
+   * Number of population slots bred by one task when breeding in parallel.
+   * Even, so that pairs of crossed over programs don't cross chunk borders.
+   */
+  private final static int BREEDING_CHUNK = 32;
+
 //  private boolean[] disabledChromosomes;
 
   /**
@@ -413,9 +444,6 @@ public class GPGenotype
       throw new IllegalArgumentException("Set the population size in the"
           + " configuration!");
     }
-    // Clean up memory.
-    // ----------------
-    System.gc();
     if (a_verboseOutput) {
       LOGGER.info("Creating initial population");
       LOGGER.info("Mem free: "
@@ -430,12 +458,11 @@ public class GPGenotype
     } catch (Exception ex) {
       throw new InvalidConfigurationException(ex);
     }
-    // Clean up memory.
-    // ----------------
-    System.gc();
     if (a_verboseOutput) {
       LOGGER.info("Mem free after creating population: "
                   + SystemKit.niceMemory(SystemKit.getTotalMemoryMB()) + " MB");
+      LOGGER.info("Program creation: "
+                  + a_conf.getProgramCreationStatistics());
     }
     checkErroneousPop(pop, " after creating population/2");
     // Determine which GP functions are never used as child.
@@ -547,6 +574,272 @@ public class GPGenotype
     }
   }
 
+  /**
+   * Simplifies all programs not yet evaluated, see
+   * GPConfiguration.setSimplifyPrograms. Done before computing fitness values
+   * in parallel, as programs may share chromosomes.
+   *
+   * @param a_pop the population to simplify
+   */
+  protected void simplifyPrograms(GPPopulation a_pop) {
+    ProgramSimplifier simplifier = getGPConfiguration().getProgramSimplifier();
+    for (int i = 0; i < a_pop.size() && a_pop.getGPProgram(i) != null; i++) {
+      IGPProgram program = a_pop.getGPProgram(i);
+      if (program instanceof GPProgramBase
+          && ( (GPProgramBase) program).getFitnessValueDirectly() >= 0) {
+        continue;
+      }
+      for (int j = 0; j < program.size(); j++) {
+        simplifier.simplify(program.getChromosome(j));
+      }
+    }
+  }
+
+  /**
+   * Computes the fitness values of all programs not yet evaluated, using the
+   * number of threads set via GPConfiguration.setFitnessThreads. Each thread
+   * gets its own stack, memory and evaluation context, see
+   * GPConfiguration.initThreadState. The fitness values are stored at the
+   * programs, so calcFitness picks them up in the same order as without
+   * threads.
+   *
+   * @param a_pop the population to evaluate
+   * @param a_bound bound to evaluate against, see
+   * GPProgramBase.calcFitnessValue(double), NaN for none
+   */
+  protected void calcFitnessParallel(GPPopulation a_pop,
+                                     final double a_bound) {
+    final GPConfiguration conf = getGPConfiguration();
+    List<IGPProgram> todo = new ArrayList<IGPProgram>();
+    for (int i = 0; i < a_pop.size() && a_pop.getGPProgram(i) != null; i++) {
+      IGPProgram program = a_pop.getGPProgram(i);
+      if (! (program instanceof GPProgramBase)
+          || ( (GPProgramBase) program).getFitnessValueDirectly() < 0) {
+        todo.add(program);
+      }
+    }
+    if (todo.size() < 2) {
+      return;
+    }
+    m_fitnessExecutor = getExecutor(m_fitnessExecutor, conf.getFitnessThreads(),
+                                    "fitness");
+    // Several chunks per thread to even out programs of different size.
+    // ------------------------------------------------------------------
+    int chunks = Math.min(todo.size(), conf.getFitnessThreads() * 4);
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(chunks);
+    for (int c = 0; c < chunks; c++) {
+      final List<IGPProgram> chunk = todo.subList(c * todo.size() / chunks,
+          (c + 1) * todo.size() / chunks);
+      tasks.add(new Callable<Object>() {
+        public Object call() {
+          conf.initThreadState();
+          if (EvaluationContext.getCurrent() == null) {
+            EvaluationContext.setCurrent(new EvaluationContext());
+          }
+          for (IGPProgram program : chunk) {
+            try {
+              calcFitnessValue(program, a_bound);
+            } catch (IllegalStateException iex) {
+              // Handled when calcFitness asks the program again.
+              // ------------------------------------------------
+            }
+          }
+          return null;
+        }
+      });
+    }
+    invokeAll(m_fitnessExecutor, tasks);
+  }
+
+  /**
+   * @param a_program the program to evaluate
+   * @param a_bound bound to evaluate against, NaN for none
+   * @return fitness value of the program, or a bound for it
+   */
+  private static double calcFitnessValue(IGPProgram a_program, double a_bound) {
+    if (!Double.isNaN(a_bound) && a_program instanceof GPProgramBase) {
+      GPProgramBase program = (GPProgramBase) a_program;
+      if (program.getFitnessValueDirectly() < 0) {
+        return program.calcFitnessValue(a_bound);
+      }
+    }
+    return a_program.getFitnessValue();
+  }
+
+  /**
+   * @return the bound to evaluate the current generation against, or NaN if
+   * the programs are to be evaluated completely
+   */
+  private double getFitnessBound() {
+    GPConfiguration conf = getGPConfiguration();
+    GPFitnessFunction fitnessFunction = conf.getGPFitnessFunction();
+    if (!conf.isBoundedEvaluation()
+        || ! (conf.getSelectionMethod() instanceof IBoundedSelector)
+        || fitnessFunction == null || !fitnessFunction.isBoundSupported()) {
+      return Double.NaN;
+    }
+    return m_fitnessBound;
+  }
+
+  /**
+   * Completes the bounded fitness values of programs which may be at least as
+   * fit as the fittest program with complete fitness value. Afterwards, the
+   * fittest program of the population is known exactly.
+   *
+   * @param a_pop the evaluated population
+   */
+  protected void completeBoundedPrograms(GPPopulation a_pop) {
+    IGPFitnessEvaluator evaluator = getGPConfiguration().getGPFitnessEvaluator();
+    boolean completed;
+    do {
+      double best = Double.NaN;
+      for (int i = 0; i < a_pop.size() && a_pop.getGPProgram(i) != null; i++) {
+        IGPProgram program = a_pop.getGPProgram(i);
+        if (isBounded(program)) {
+          continue;
+        }
+        double fitness;
+        try {
+          fitness = program.getFitnessValue();
+        } catch (IllegalStateException iex) {
+          continue;
+        }
+        if (fitness >= 0 && !Double.isInfinite(fitness)
+            && (Double.isNaN(best) || evaluator.isFitter(fitness, best))) {
+          best = fitness;
+        }
+      }
+      completed = false;
+      for (int i = 0; i < a_pop.size() && a_pop.getGPProgram(i) != null; i++) {
+        IGPProgram program = a_pop.getGPProgram(i);
+        if (isBounded(program) && (Double.isNaN(best)
+            || !evaluator.isFitter(best, program.getFitnessValue()))) {
+          try {
+            ( (GPProgramBase) program).completeFitnessValue();
+          } catch (IllegalStateException iex) {
+            // Handled when calcFitness asks the program again.
+            // ------------------------------------------------
+          }
+          completed = true;
+        }
+      }
+    } while (completed);
+  }
+
+  static boolean isBounded(IGPProgram a_program) {
+    return a_program instanceof GPProgramBase
+        && ( (GPProgramBase) a_program).isFitnessBounded();
+  }
+
+  /**
+   * Determines the bound for evaluating the next generation: the fitness
+   * value of the least fit program among the fraction of fittest programs
+   * the selection method mostly picks from. Kept if that program has a
+   * bounded fitness value.
+   *
+   * @param a_pop the evaluated population
+   */
+  protected void updateFitnessBound(GPPopulation a_pop) {
+    GPConfiguration conf = getGPConfiguration();
+    if (!conf.isBoundedEvaluation()
+        || ! (conf.getSelectionMethod() instanceof IBoundedSelector)) {
+      m_fitnessBound = Double.NaN;
+      return;
+    }
+    double[] values = new double[a_pop.size()];
+    int size = 0;
+    int count = 0;
+    for (int i = 0; i < a_pop.size() && a_pop.getGPProgram(i) != null; i++) {
+      IGPProgram program = a_pop.getGPProgram(i);
+      size++;
+      if (isBounded(program)) {
+        continue;
+      }
+      double fitness;
+      try {
+        fitness = program.getFitnessValue();
+      } catch (IllegalStateException iex) {
+        continue;
+      }
+      if (fitness >= 0 && !Double.isInfinite(fitness)) {
+        values[count++] = fitness;
+      }
+    }
+    double fraction = ( (IBoundedSelector) conf.getSelectionMethod()).
+        getSelectedFraction();
+    int rank = Math.max(1, (int) Math.ceil(fraction * size));
+    if (rank > count) {
+      return;
+    }
+    Arrays.sort(values, 0, count);
+    if (conf.getGPFitnessEvaluator().isFitter(1.0d, 2.0d)) {
+      // Lower values are fitter.
+      // ------------------------
+      m_fitnessBound = values[rank - 1];
+    }
+    else {
+      m_fitnessBound = values[count - rank];
+    }
+  }
+
+  /**
+   * Creates a pool of daemon threads, so that the VM does not stay alive after
+   * evolution has ended. The given pool is reused if it has the requested
+   * number of threads.
+   *
+   * @param a_executor the current pool, may be null
+   * @param a_threads the number of threads
+   * @param a_task what the threads do, used for the thread names
+   * @return the pool to use
+   */
+  static ExecutorService getExecutor(ExecutorService a_executor,
+      int a_threads, final String a_task) {
+    if (a_executor != null) {
+      if ( ( (ThreadPoolExecutor) a_executor).getCorePoolSize() == a_threads) {
+        return a_executor;
+      }
+      a_executor.shutdown();
+    }
+    return Executors.newFixedThreadPool(a_threads, new ThreadFactory() {
+      public Thread newThread(Runnable a_runnable) {
+        Thread t = new Thread(a_runnable, "GPGenotype " + a_task);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Runs the given tasks and waits for all of them to finish. An exception
+   * thrown by a task is rethrown.
+   *
+   * @param a_executor the threads to run the tasks
+   * @param a_tasks the tasks to run
+   * @return the results of the tasks, in the order of the tasks
+   */
+  static <T> List<T> invokeAll(ExecutorService a_executor,
+                               List<Callable<T>> a_tasks) {
+    List<T> results = new ArrayList<T>(a_tasks.size());
+    try {
+      for (Future<T> result : a_executor.invokeAll(a_tasks)) {
+        results.add(result.get());
+      }
+    } catch (InterruptedException iex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for threads");
+    } catch (ExecutionException eex) {
+      Throwable cause = eex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause.getMessage(), cause);
+    }
+    return results;
+  }
+
   /**
    * Calculates the fitness value of all programs, of the best solution as well
    * as the total fitness (sum of all fitness values).
@@ -557,12 +850,35 @@ public class GPGenotype
   public void calcFitness() {
     double totalFitness = 0.0d;
     GPPopulation pop = getGPPopulation();
+    if (getGPConfiguration().isSimplifyPrograms()) {
+      simplifyPrograms(pop);
+    }
+    double bound = getFitnessBound();
+    if (getGPConfiguration().getFitnessThreads() > 1) {
+      calcFitnessParallel(pop, bound);
+    }
+    if (!Double.isNaN(bound)) {
+      for (int i = 0; i < pop.size() && pop.getGPProgram(i) != null; i++) {
+        try {
+          calcFitnessValue(pop.getGPProgram(i), bound);
+        } catch (IllegalStateException iex) {
+          // Handled below when asking the program again.
+          // --------------------------------------------
+        }
+      }
+      completeBoundedPrograms(pop);
+    }
     IGPProgram best = null;
     IGPFitnessEvaluator evaluator = getGPConfiguration().getGPFitnessEvaluator();
     m_bestFitness = FitnessFunction.NO_FITNESS_VALUE;
     boolean bestPreserved = false;
     for (int i = 0; i < pop.size() && pop.getGPProgram(i) != null; i++) {
       IGPProgram program = pop.getGPProgram(i);
+      if (isBounded(program)) {
+        // Less fit than the fittest program, complete value not known.
+        // -------------------------------------------------------------
+        continue;
+      }
       /**@todo get information from fitness function how calculation happened.
        * In case of Robocode: return the robot competed against, in case the
        * -enemies option was used without -battleAll
@@ -636,6 +952,8 @@ public class GPGenotype
     if (!bestPreserved && m_allTimeBest != null) {
       addFittestProgram(m_allTimeBest);
     }
+    pop.updateFitnessColumn();
+    updateFitnessBound(pop);
   }
 
   /**
@@ -688,7 +1006,9 @@ public class GPGenotype
   /**
    * Evolve the population by one generation. Probabilistically reproduces
    * and crosses individuals into a new population which then overwrites the
-   * original population.
+   * original population. When breeding steady state, the offsprings replace
+   * programs of the population in place instead, see
+   * GPConfiguration.setSteadyState.
    *
    * @author Klaus Meffert
    * @since 3.0
@@ -696,218 +1016,469 @@ public class GPGenotype
   public void evolve() {
     try {
       int popSize = getGPConfiguration().getPopulationSize();
-      GPPopulation oldPop = getGPPopulation();
-      GPPopulation newPopulation = new GPPopulation(oldPop, false);
-      if (m_fittestToAdd != null) {
-        newPopulation.addFittestProgram(m_fittestToAdd);
-        m_fittestToAdd = null;
-      }
-      float val;
-      RandomGenerator random = getGPConfiguration().getRandomGenerator();
       GPConfiguration conf = getGPConfiguration();
       // Determine how many new individuals will be added to the new generation.
       // -----------------------------------------------------------------------
       int popSize1 = (int) Math.round(popSize * (1 - conf.getNewChromsPercent()));
-      double crossProb = conf.getCrossoverProb()
-          / (conf.getCrossoverProb() + conf.getReproductionProb());
-      int crossover = 0;
-      int reproduction = 0;
-      int creation = 0;
       checkErroneousPop(getGPPopulation(), " (before evolution)", true);
-      final int maxTries = getGPConfiguration().getProgramCreationMaxtries();
-      // Do crossing over.
-      // -----------------
-      for (int i = 0; i < popSize1; i++) {
-        // Clear the stack for each GP program.
-        // ------------------------------------
-        getGPConfiguration().clearStack();
-        val = random.nextFloat();
-        // Note that if we only have one slot left to fill, we don't do
-        // crossover, but fall through to reproduction.
-        // ------------------------------------------------------------
-        if (i < popSize - 1 && val < crossProb) {
-          crossover++;
-          // Actually do the crossover here.
-          // -------------------------------
-          IGPProgram i1 = conf.getSelectionMethod().select(this);
-          IGPProgram i2 = conf.getSelectionMethod().select(this);
-          int tries = 0;
-          do {
-            try {
-              checkErroneousProg(i1,
-                                 " at start of evolution (index " + i +
-                                 "/01)", false);
-              if (i1 != i2) {
-                // Crossing over the a program with itself does not lead anywhere.
-                // ---------------------------------------------------------------
-                checkErroneousProg(i2,
-                                   " at start of evolution (index " + i +
-                                   "/02)", false);
-                IGPProgram[] newIndividuals = conf.getCrossMethod().operate(
-                    i1,
-                    i2);
-                newPopulation.setGPProgram(i, newIndividuals[0]);
-                newPopulation.setGPProgram(i + 1, newIndividuals[1]);
-                try {
-                  checkErroneousProg(newIndividuals[0],
-                                     " at start of evolution (index " + i +
-                                     "/11)", false);
-                } catch (RuntimeException t) {
-                  writeToFile(i1, i2, newIndividuals[0],
-                              "Error in first X-over program");
-                  throw t;
-                }
-                try {
-                  checkErroneousProg(newIndividuals[1],
-                                     " at start of evolution (index " + i +
-                                     "/12)", false);
-                } catch (RuntimeException t) {
-                  writeToFile(i1, i2, newIndividuals[1],
-                              "Error in second X-over program");
-                  throw t;
-                }
-              }
-              else {
-                newPopulation.setGPProgram(i, i1);
-                newPopulation.setGPProgram(i + 1, i2);
-              }
-              i++;
-              break;
-            } catch (IllegalStateException iex) {
-              tries++;
-              if ( (maxTries > 0 && tries >= maxTries) || tries > 40) {
-                if (!getGPConfiguration().isMaxNodeWarningPrinted()) {
-                  LOGGER.error(
-                      "Warning: Maximum number of nodes allowed may be too small");
-                  getGPConfiguration().flagMaxNodeWarningPrinted();
-                }
-                // Try cloning a previously generated valid program.
-                // -------------------------------------------------
-                IGPProgram program = cloneProgram(getGPConfiguration().
-                    getPrototypeProgram());
-                if (program != null) {
-                  newPopulation.setGPProgram(i++, program);
-                  program = cloneProgram(getGPConfiguration().
-                      getPrototypeProgram());
-                  newPopulation.setGPProgram(i, program);
-                  break;
-                }
-                else {
-                  throw new IllegalStateException(iex.getMessage());
-                }
-              }
-            }
-          } while (true)
-          ;
+      // Counts crossovers, reproductions and creations.
+      // -----------------------------------------------
+      int[] counts = new int[3];
+      conf.getCrossoverStatistics().reset();
+      GPPopulation newPopulation;
+      if (conf.isSteadyState()) {
+        newPopulation = getGPPopulation();
+        if (m_fittestToAdd != null) {
+          newPopulation.addFittestProgram(m_fittestToAdd);
+          m_fittestToAdd = null;
+        }
+        breedSteadyState(newPopulation, popSize1, counts);
+      }
+      else {
+        newPopulation = new GPPopulation(getGPPopulation(), false);
+        if (m_fittestToAdd != null) {
+          newPopulation.addFittestProgram(m_fittestToAdd);
+          m_fittestToAdd = null;
+        }
+        if (conf.getBreedingThreads() > 1) {
+          breedParallel(newPopulation, popSize1, counts);
         }
-        else { //if (val < conf.getCrossoverProb() + conf.getReproductionProb()) {
-          // Reproduction only.
-          // ------------------
-          reproduction++;
-          newPopulation.setGPProgram(i, conf.getSelectionMethod().select(this));
+        else {
+          IGPProgram[] programs = newPopulation.getGPPrograms();
+          breed(programs, 0, popSize1, popSize, counts);
+          createPrograms(newPopulation, programs, popSize1, popSize, counts);
+          newPopulation.setChanged(true);
         }
       }
-      // Add new random programs.
-      // ------------------------
-      for (int i = popSize1; i < popSize; i++) {
-        creation++;
-        // Randomly determine depth between minInitDepth and maxInitDepth.
-        // ---------------------------------------------------------------
-        int depth = conf.getMinInitDepth()
-            + random.nextInt(conf.getMaxInitDepth() - conf.getMinInitDepth()
-                             + 1);
+      int crossover = counts[0];
+      int reproduction = counts[1];
+      int creation = counts[2];
+      LOGGER.debug("Did "
+                   + crossover + " x-overs, "
+                   + reproduction + " reproductions, "
+                   + creation + " creations (offsprings "
+                   + conf.getCrossoverStatistics() + ")");
+      // Now set the new population as the active one.
+      // ---------------------------------------------
+      setGPPopulation(newPopulation);
+      // Increase number of generation.
+      // ------------------------------
+      conf.incrementGenerationNr();
+      // Fire an event to indicate we've performed an evolution.
+      // -------------------------------------------------------
+      conf.getEventManager().fireGeneticEvent(
+          new GeneticEvent(GeneticEvent.GPGENOTYPE_EVOLVED_EVENT, this));
+    } catch (InvalidConfigurationException iex) {
+      // This should never happen.
+      // -------------------------
+      throw new IllegalStateException(iex.getMessage());
+    }
+  }
+
+  /**
+   * Breeds the new population in the number of threads set via
+   * GPConfiguration.setBreedingThreads. The slots are split into chunks of
+   * fixed size, each bred with its own random generator seeded from the
+   * generator of the configuration. Thus the result does not depend on the
+   * number of threads or on their scheduling. The first newly created program
+   * is created in the calling thread, as it may be the fittest program to be
+   * added to the population.
+   *
+   * @param a_newPopulation the new population to fill
+   * @param a_popSize1 number of slots filled by crossing over and reproducing,
+   * the remaining slots are filled with newly created programs
+   * @param a_counts number of crossovers [0], reproductions [1] and creations
+   * [2] done, is increased
+   * @throws InvalidConfigurationException
+   */
+  protected void breedParallel(GPPopulation a_newPopulation,
+                               int a_popSize1, int[] a_counts)
+      throws InvalidConfigurationException {
+    GPConfiguration conf = getGPConfiguration();
+    IGPProgram[] programs = a_newPopulation.getGPPrograms();
+    int popSize = programs.length;
+    long seed = conf.getRandomGenerator().nextLong();
+    int created = a_popSize1;
+    if (created < popSize) {
+      createPrograms(a_newPopulation, programs, created, created + 1, a_counts);
+      created++;
+    }
+    List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+    for (int from = 0; from < a_popSize1; from += BREEDING_CHUNK) {
+      tasks.add(newBreedingTask(a_newPopulation, true, from,
+                                Math.min(from + BREEDING_CHUNK, a_popSize1),
+                                seed + tasks.size() * 0x9E3779B97F4A7C15L));
+    }
+    for (int from = created; from < popSize; from += BREEDING_CHUNK) {
+      tasks.add(newBreedingTask(a_newPopulation, false, from,
+                                Math.min(from + BREEDING_CHUNK, popSize),
+                                seed + tasks.size() * 0x9E3779B97F4A7C15L));
+    }
+    m_breedingExecutor = getExecutor(m_breedingExecutor,
+                                     conf.getBreedingThreads(), "breeding");
+    for (int[] counts : invokeAll(m_breedingExecutor, tasks)) {
+      for (int i = 0; i < counts.length; i++) {
+        a_counts[i] += counts[i];
+      }
+    }
+    a_newPopulation.setChanged(true);
+  }
+
+  /**
+   * Breeds one generation steady state, see GPConfiguration.setSteadyState.
+   * Each offspring is evaluated and replaces the program chosen by
+   * selectReplaced, keeping the fitness column of the population up to date
+   * for selecting the next parents.
+   *
+   * @param a_pop the population to breed into, evaluated on return
+   * @param a_popSize1 number of offsprings bred by crossing over and
+   * reproducing, the remaining ones are newly created programs
+   * @param a_counts number of crossovers [0], reproductions [1] and creations
+   * [2] done, is increased
+   * @throws InvalidConfigurationException
+   */
+  protected void breedSteadyState(GPPopulation a_pop, int a_popSize1,
+                                  int[] a_counts)
+      throws InvalidConfigurationException {
+    GPConfiguration conf = getGPConfiguration();
+    if (a_pop.getFitnessColumn() == null) {
+      // The initial population has not been evaluated yet.
+      // --------------------------------------------------
+      calcFitness();
+    }
+    int popSize = conf.getPopulationSize();
+    double bound = getFitnessBound();
+    IGPProgram[] offsprings = m_offsprings;
+    if (offsprings == null) {
+      offsprings = new IGPProgram[2];
+      m_offsprings = offsprings;
+    }
+    int done = 0;
+    while (done < popSize) {
+      int count = 1;
+      if (done < a_popSize1) {
+        // Crossing over fills two slots, unless only one is left.
+        // --------------------------------------------------------
+        int crossovers = a_counts[0];
+        breed(offsprings, 0, 1, Math.min(2, a_popSize1 - done), a_counts);
+        if (a_counts[0] > crossovers) {
+          count = 2;
+        }
+        // Reproducing, or crossing over a program with itself, returns the
+        // selected parent. Copy it, as it still takes its own slot.
+        // -----------------------------------------------------------------
+        if (count == 1 || offsprings[0] == offsprings[1]) {
+          for (int i = 0; i < count; i++) {
+            offsprings[i] = copyParent(offsprings[i]);
+          }
+        }
+      }
+      else {
+        // The slot decides on the grow mode, see createPrograms.
+        // -------------------------------------------------------
+        int slot = done % 2;
+        createPrograms(a_pop, offsprings, slot, slot + 1, a_counts);
+        offsprings[0] = offsprings[slot];
+      }
+      for (int i = 0; i < count; i++) {
+        IGPProgram offspring = offsprings[i];
+        offsprings[i] = null;
+        if (conf.isSimplifyPrograms() && ! (offspring instanceof GPProgramBase
+            && ( (GPProgramBase) offspring).getFitnessValueDirectly() >= 0)) {
+          for (int j = 0; j < offspring.size(); j++) {
+            conf.getProgramSimplifier().simplify(offspring.getChromosome(j));
+          }
+        }
+        try {
+          calcFitnessValue(offspring, bound);
+        } catch (IllegalStateException iex) {
+          // Stored as NaN in the fitness column, replaced first.
+          // ----------------------------------------------------
+        }
+        a_pop.replaceGPProgram(selectReplaced(a_pop), offspring);
+      }
+      done += count;
+    }
+  }
+
+  /**
+   * @param a_pop the evaluated population
+   * @return index of the program to replace by an offspring, according to
+   * GPConfiguration.getReplacementPolicy
+   */
+  protected int selectReplaced(GPPopulation a_pop) {
+    GPConfiguration conf = getGPConfiguration();
+    IGPFitnessEvaluator evaluator = conf.getGPFitnessEvaluator();
+    double[] column = a_pop.getFitnessColumn();
+    int size = a_pop.size();
+    boolean worst = conf.getReplacementPolicy() == ReplacementPolicy.WORST;
+    int draws;
+    if (worst) {
+      draws = size;
+    }
+    else {
+      draws = conf.getReplacementTournamentSize();
+    }
+    RandomGenerator random = conf.getRandomGenerator();
+    int loser = -1;
+    for (int i = 0; i < draws; i++) {
+      int index;
+      if (worst) {
+        index = i;
+      }
+      else {
+        index = random.nextInt(size);
+      }
+      if (a_pop.getGPProgram(index) == null || Double.isNaN(column[index])) {
+        return index;
+      }
+      if (loser < 0 || evaluator.isFitter(column[loser], column[index])) {
+        loser = index;
+      }
+    }
+    return loser;
+  }
+
+  /**
+   * @param a_newPopulation the new population to fill
+   * @param a_cross true: cross over and reproduce, false: create new programs
+   * @param a_from the first slot to fill
+   * @param a_to the slot after the last one to fill
+   * @param a_seed seed of the random generator used by the task
+   * @return task filling the given slots, returning the counts as described
+   * with breedParallel
+   */
+  private Callable<int[]> newBreedingTask(final GPPopulation a_newPopulation,
+      final boolean a_cross, final int a_from, final int a_to,
+      final long a_seed) {
+    return new Callable<int[]>() {
+      public int[] call()
+          throws Exception {
+        GPConfiguration conf = getGPConfiguration();
+        StockRandomGenerator random = new StockRandomGenerator();
+        random.setSeed(a_seed);
+        conf.setThreadRandomGenerator(random);
+        try {
+          int[] counts = new int[3];
+          IGPProgram[] programs = a_newPopulation.getGPPrograms();
+          if (a_cross) {
+            breed(programs, a_from, a_to, a_to, counts);
+          }
+          else {
+            createPrograms(a_newPopulation, programs, a_from, a_to, counts);
+          }
+          return counts;
+        } finally {
+          conf.setThreadRandomGenerator(null);
+        }
+      }
+    };
+  }
+
+  /**
+   * Fills the given slots of the new population by crossing over and
+   * reproducing programs of the current population.
+   *
+   * @param a_programs the programs of the new population
+   * @param a_from the first slot to fill
+   * @param a_to the slot after the last one to fill
+   * @param a_end crossing over may write its second program up to slot
+   * a_end - 1
+   * @param a_counts number of crossovers [0] and reproductions [1] done, is
+   * increased
+   */
+  protected void breed(IGPProgram[] a_programs, int a_from, int a_to,
+                       int a_end, int[] a_counts) {
+    GPConfiguration conf = getGPConfiguration();
+    RandomGenerator random = conf.getRandomGenerator();
+    double crossProb = conf.getCrossoverProb()
+        / (conf.getCrossoverProb() + conf.getReproductionProb());
+    final int maxTries = conf.getProgramCreationMaxtries();
+    float val;
+    for (int i = a_from; i < a_to; i++) {
+      // Clear the stack for each GP program.
+      // ------------------------------------
+      getGPConfiguration().clearStack();
+      val = random.nextFloat();
+      // Note that if we only have one slot left to fill, we don't do
+      // crossover, but fall through to reproduction.
+      // ------------------------------------------------------------
+      if (i < a_end - 1 && val < crossProb) {
+        a_counts[0]++;
+        // Actually do the crossover here.
+        // -------------------------------
+        IGPProgram i1 = conf.getSelectionMethod().select(this);
+        IGPProgram i2 = conf.getSelectionMethod().select(this);
         int tries = 0;
-        int nogc = 0;
         do {
           try {
-            // Randomize grow option as growing produces a valid program
-            // more likely than the full mode.
-            // ---------------------------------------------------------
-            boolean grow;
-            if (i % 2 == 0 || random.nextInt(8) > 6) {
-              grow = true;
+            checkErroneousProg(i1, " at start of evolution (index ", i,
+                               "/01)", false);
+            if (i1 != i2) {
+              // Crossing over the a program with itself does not lead anywhere.
+              // ---------------------------------------------------------------
+              checkErroneousProg(i2, " at start of evolution (index ", i,
+                                 "/02)", false);
+              IGPProgram[] newIndividuals = conf.getCrossMethod().operate(
+                  i1,
+                  i2);
+              a_programs[i] = newIndividuals[0];
+              a_programs[i + 1] = newIndividuals[1];
+              try {
+                checkErroneousProg(newIndividuals[0],
+                                   " at start of evolution (index ", i,
+                                   "/11)", false);
+              } catch (RuntimeException t) {
+                writeToFile(i1, i2, newIndividuals[0],
+                            "Error in first X-over program");
+                throw t;
+              }
+              try {
+                checkErroneousProg(newIndividuals[1],
+                                   " at start of evolution (index ", i,
+                                   "/12)", false);
+              } catch (RuntimeException t) {
+                writeToFile(i1, i2, newIndividuals[1],
+                            "Error in second X-over program");
+                throw t;
+              }
             }
             else {
-              grow = false;
+              a_programs[i] = i1;
+              a_programs[i + 1] = i2;
             }
-            /**@todo use program creator in case such is registered and returns
-             * a non-null program
-             */
-            IGPProgram program = newPopulation.create(i, m_types, m_argTypes,
-                m_nodeSets, m_minDepths, m_maxDepths, depth, grow,
-                m_maxNodes, m_fullModeAllowed, tries);
-            newPopulation.setGPProgram(i, program);
-            checkErroneousProg(program,
-                               " when adding a program, evolution (index " + i +
-                               ")", true);
-            LOGGER.debug("Added new GP program (depth parameter: "
-                         + depth
-                         + ", "
-                         + tries
-                         + " tries)");
+            i++;
             break;
           } catch (IllegalStateException iex) {
+            conf.getCrossoverStatistics().record(CrossoverResult.FAILED);
             tries++;
-            nogc++;
-            /**@todo instead of re-using prototype, create a program anyway
-             * (ignoring the validator) in case it is the last try.
-             * Or even better: Make the validator return a defect rate!
-             */
-            if ( (maxTries > 0 && tries > maxTries) || tries > 40) {
-              LOGGER.debug(
-                  "Creating random GP program failed (depth "
-                  + depth
-                  + ", "
-                  + tries
-                  + " tries), will use prototype");
+            if ( (maxTries > 0 && tries >= maxTries) || tries > 40) {
+              if (!getGPConfiguration().isMaxNodeWarningPrinted()) {
+                LOGGER.error(
+                    "Warning: Maximum number of nodes allowed may be too small");
+                getGPConfiguration().flagMaxNodeWarningPrinted();
+              }
               // Try cloning a previously generated valid program.
               // -------------------------------------------------
               IGPProgram program = cloneProgram(getGPConfiguration().
                   getPrototypeProgram());
               if (program != null) {
-                // Cloning worked.
-                // ---------------
-                newPopulation.setGPProgram(i, program);
+                a_programs[i++] = program;
+                program = cloneProgram(getGPConfiguration().
+                    getPrototypeProgram());
+                a_programs[i] = program;
                 break;
               }
               else {
-                if (getGPConfiguration().getPrototypeProgram() == null) {
-                  throw new IllegalStateException(
-                      "Cloning: Prototype program was null");
-                }
-                else {
-                  throw new IllegalStateException(
-                      "Cloning of prototype program failed, " +
-                      iex.getMessage());
-                }
+                throw new IllegalStateException(iex.getMessage());
               }
             }
-            if (nogc > 5) {
-              nogc = 0;
-              System.gc();
-            }
           }
         } while (true)
         ;
       }
-      LOGGER.debug("Did "
-                   + crossover + " x-overs, "
-                   + reproduction + " reproductions, "
-                   + creation + " creations");
-      // Now set the new population as the active one.
-      // ---------------------------------------------
-      setGPPopulation(newPopulation);
-      // Increase number of generation.
-      // ------------------------------
-      conf.incrementGenerationNr();
-      // Fire an event to indicate we've performed an evolution.
-      // -------------------------------------------------------
-      conf.getEventManager().fireGeneticEvent(
-          new GeneticEvent(GeneticEvent.GPGENOTYPE_EVOLVED_EVENT, this));
-    } catch (InvalidConfigurationException iex) {
-      // This should never happen.
-      // -------------------------
-      throw new IllegalStateException(iex.getMessage());
+      else { //if (val < conf.getCrossoverProb() + conf.getReproductionProb()) {
+        // Reproduction only.
+        // ------------------
+        a_counts[1]++;
+        a_programs[i] = conf.getSelectionMethod().select(this);
+      }
+    }
+  }
+
+  /**
+   * Fills the given slots of the new population with newly created programs.
+   *
+   * @param a_newPopulation the new population
+   * @param a_programs the programs of the new population
+   * @param a_from the first slot to fill
+   * @param a_to the slot after the last one to fill
+   * @param a_counts number of creations [2] done, is increased
+   * @throws InvalidConfigurationException
+   */
+  protected void createPrograms(GPPopulation a_newPopulation,
+                                IGPProgram[] a_programs, int a_from, int a_to,
+                                int[] a_counts)
+      throws InvalidConfigurationException {
+    GPConfiguration conf = getGPConfiguration();
+    RandomGenerator random = conf.getRandomGenerator();
+    final int maxTries = conf.getProgramCreationMaxtries();
+    for (int i = a_from; i < a_to; i++) {
+      a_counts[2]++;
+      // Randomly determine depth between minInitDepth and maxInitDepth.
+      // ---------------------------------------------------------------
+      int depth = conf.getMinInitDepth()
+          + random.nextInt(conf.getMaxInitDepth() - conf.getMinInitDepth()
+                           + 1);
+      int tries = 0;
+      do {
+        try {
+          // Randomize grow option as growing produces a valid program
+          // more likely than the full mode.
+          // ---------------------------------------------------------
+          boolean grow;
+          if (i % 2 == 0 || random.nextInt(8) > 6) {
+            grow = true;
+          }
+          else {
+            grow = false;
+          }
+          /**@todo use program creator in case such is registered and returns
+           * a non-null program
+           */
+          IGPProgram program = a_newPopulation.create(i, m_types, m_argTypes,
+              m_nodeSets, m_minDepths, m_maxDepths, depth, grow,
+              m_maxNodes, m_fullModeAllowed, tries);
+          a_programs[i] = program;
+          checkErroneousProg(program,
+                             " when adding a program, evolution (index ", i,
+                             ")", true);
+          LOGGER.debug("Added new GP program (depth parameter: "
+                       + depth
+                       + ", "
+                       + tries
+                       + " tries)");
+          break;
+        } catch (IllegalStateException iex) {
+          tries++;
+          /**@todo instead of re-using prototype, create a program anyway
+           * (ignoring the validator) in case it is the last try.
+           * Or even better: Make the validator return a defect rate!
+           */
+          if ( (maxTries > 0 && tries > maxTries) || tries > 40) {
+            LOGGER.debug(
+                "Creating random GP program failed (depth "
+                + depth
+                + ", "
+                + tries
+                + " tries), will use prototype");
+            // Try cloning a previously generated valid program.
+            // -------------------------------------------------
+            IGPProgram program = cloneProgram(getGPConfiguration().
+                getPrototypeProgram());
+            if (program != null) {
+              // Cloning worked.
+              // ---------------
+              a_programs[i] = program;
+              getGPConfiguration().getProgramCreationStatistics().
+                  recordPrototypeCloned();
+              break;
+            }
+            else {
+              if (getGPConfiguration().getPrototypeProgram() == null) {
+                throw new IllegalStateException(
+                    "Cloning: Prototype program was null");
+              }
+              else {
+                throw new IllegalStateException(
+                    "Cloning of prototype program failed, " +
+                    iex.getMessage());
+              }
+            }
+          }
+        }
+      } while (true)
+      ;
     }
   }
 
@@ -916,7 +1487,9 @@ public class GPGenotype
   }
 
   /**
-   * @return the total fitness, that is the fitness over all chromosomes
+   * @return the total fitness, that is the fitness over all chromosomes. With
+   * bounded evaluation, programs with bounded fitness value are left out, see
+   * GPConfiguration.setBoundedEvaluation
    *
    * @author Klaus Meffert
    * @since 3.0
@@ -1128,6 +1701,19 @@ public class GPGenotype
     m_verbose = a_verbose;
   }
 
+  /**
+   * @param a_parent a program of the population
+   * @return a copy of the program, including its fitness value
+   */
+  private IGPProgram copyParent(IGPProgram a_parent) {
+    IGPProgram copy = cloneProgram(a_parent);
+    if (copy == null) {
+      throw new IllegalStateException("Cloning: Reproduced program could not"
+                                      + " be cloned");
+    }
+    return copy;
+  }
+
   private IGPProgram cloneProgram(IGPProgram a_original) {
     IGPProgram validProgram = a_original;
     ICloneHandler cloner = getGPConfiguration().getJGAPFactory().
@@ -1183,6 +1769,104 @@ public class GPGenotype
     }
   }
 
+  /**
+   * Replaces the least fit programs of the population by the given programs,
+   * e.g. programs migrating from another island, see GPIslandModel. The
+   * population must have been evaluated. At most as many programs as the
+   * population holds are taken, the first ones given replace the least fit
+   * programs.
+   *
+   * @param a_migrants the programs to add, created via adoptProgram
+   */
+  public void addMigrants(IGPProgram[] a_migrants) {
+    GPPopulation pop = getGPPopulation();
+    int[] order = pop.getIndexesByFitness();
+    int count = Math.min(a_migrants.length, order.length);
+    for (int i = 0; i < count; i++) {
+      pop.setGPProgram(order[order.length - 1 - i], a_migrants[i]);
+    }
+    pop.updateFitnessColumn();
+    updateFitnessBound(pop);
+  }
+
+  /**
+   * Copies a program of another genotype with the same types and node sets,
+   * e.g. of another island, into the configuration of this genotype. Nodes
+   * of the node sets of the program are replaced by the nodes at the same
+   * position in the node sets of this genotype, other nodes like mutated
+   * terminals are shared, as nodes are not changed once in a program. The
+   * fitness value is taken over.<p>
+   * Only reads this genotype, so it may be called by another thread while this
+   * genotype evolves.
+   *
+   * @param a_program the program to copy, must not be changed while copying
+   * @return the copy, belonging to the configuration of this genotype
+   * @throws InvalidConfigurationException
+   */
+  public IGPProgram adoptProgram(IGPProgram a_program)
+      throws InvalidConfigurationException {
+    if (a_program.size() != m_types.length) {
+      throw new IllegalArgumentException("Program has " + a_program.size()
+                                         + " chromosomes instead of "
+                                         + m_types.length);
+    }
+    GPConfiguration conf = getGPConfiguration();
+    GPProgram result = new GPProgram(conf, m_types, m_argTypes, m_nodeSets,
+                                     m_minDepths, m_maxDepths, m_maxNodes);
+    CommandGene[][] nodeSets = a_program.getNodeSets();
+    for (int i = 0; i < m_types.length; i++) {
+      ProgramChromosome chrom = a_program.getChromosome(i);
+      CommandGene[] functionSet = chrom.getFunctionSet();
+      if (functionSet != null) {
+        functionSet = adoptNodes(functionSet, nodeSets[i], m_nodeSets[i]);
+      }
+      CommandGene[] genes = adoptNodes(chrom.getFunctions(), nodeSets[i],
+                                       m_nodeSets[i]);
+      ProgramChromosome copy = new ProgramChromosome(conf, genes.length,
+          functionSet, m_argTypes[i], result);
+      for (int j = 0; j < genes.length && genes[j] != null; j++) {
+        copy.setGene(j, genes[j]);
+      }
+      copy.redepth();
+      result.setChromosome(i, copy);
+    }
+    if (a_program instanceof GPProgramBase) {
+      GPProgramBase program = (GPProgramBase) a_program;
+      result.setFitnessValue(program.getFitnessValueDirectly(),
+                             program.isFitnessBounded());
+    }
+    else {
+      result.setFitnessValue(a_program.getFitnessValue());
+    }
+    return result;
+  }
+
+  /**
+   * @param a_nodes the nodes to map, may contain null
+   * @param a_from node set of the other genotype
+   * @param a_to node set of this genotype, same length as a_from
+   * @return copy of a_nodes with each node of a_from replaced by the node of
+   * a_to at the same position
+   */
+  private static CommandGene[] adoptNodes(CommandGene[] a_nodes,
+                                          CommandGene[] a_from,
+                                          CommandGene[] a_to) {
+    if (a_from.length != a_to.length) {
+      throw new IllegalArgumentException("Node sets differ in length");
+    }
+    CommandGene[] result = new CommandGene[a_nodes.length];
+    for (int i = 0; i < a_nodes.length; i++) {
+      result[i] = a_nodes[i];
+      for (int j = 0; j < a_from.length; j++) {
+        if (a_from[j] == a_nodes[i]) {
+          result[i] = a_to[j];
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
   /**
    * Fills up the population with random programs if necessary.
    *
@@ -1252,13 +1936,29 @@ public class GPGenotype
     checkErroneousPop(pop, s, false);
   }
 
+  /**
+   * Validates the programs of a population according to the validation
+   * policy of its configuration, see GPConfiguration.setValidationPolicy.
+   *
+   * @param a_pop the population to validate
+   * @param a_s label added to the message if a program is invalid
+   * @param a_clearFitness true: compute the fitness again
+   */
   public static void checkErroneousPop(GPPopulation a_pop, String a_s,
                                        boolean a_clearFitness) {
     if (a_pop == null) {
       return;
     }
-    checkErroneousPop(a_pop, a_s, a_clearFitness,
-                      a_pop.getGPConfiguration().isVerifyPrograms());
+    GPConfiguration conf = a_pop.getGPConfiguration();
+    if (conf.getValidationPolicy() == ValidationPolicy.OFF) {
+      return;
+    }
+    int popSize1 = a_pop.size();
+    for (int i = 0; i < popSize1; i++) {
+      if (conf.isValidating()) {
+        checkErroneousProg(a_pop.getGPProgram(i), a_s, a_clearFitness, true);
+      }
+    }
   }
 
   public static void checkErroneousPop(GPPopulation a_pop, String a_s,
@@ -1283,13 +1983,43 @@ public class GPGenotype
     checkErroneousProg(prog, s, false);
   }
 
+  /**
+   * Validates a program if the validation policy of its configuration says
+   * so, see GPConfiguration.isValidating.
+   *
+   * @param a_prog the program to validate
+   * @param a_s label added to the message if the program is invalid
+   * @param a_clearFitness true: compute the fitness again
+   */
   public static void checkErroneousProg(IGPProgram a_prog, String a_s,
                                         boolean a_clearFitness) {
     if (a_prog == null) {
       return;
     }
     checkErroneousProg(a_prog, a_s, a_clearFitness,
-                       a_prog.getGPConfiguration().isVerifyPrograms());
+                       a_prog.getGPConfiguration().isValidating());
+  }
+
+  /**
+   * Like checkErroneousProg(IGPProgram, String, boolean), but the label is
+   * only built if the program is invalid.
+   *
+   * @param a_prog the program to validate
+   * @param a_label start of the label added to the message
+   * @param a_index index of the program, appended to a_label
+   * @param a_suffix end of the label
+   * @param a_clearFitness true: compute the fitness again
+   */
+  public static void checkErroneousProg(IGPProgram a_prog, String a_label,
+                                        int a_index, String a_suffix,
+                                        boolean a_clearFitness) {
+    if (a_prog == null || !a_prog.getGPConfiguration().isValidating()) {
+      return;
+    }
+    Throwable error = validate(a_prog, a_clearFitness);
+    if (error != null) {
+      throw invalidProgram(a_label + a_index + a_suffix, error);
+    }
   }
 
   public static void checkErroneousProg(IGPProgram a_prog, String s,
@@ -1303,6 +2033,17 @@ public class GPGenotype
       // ---------------------------
       return;
     }
+    Throwable error = validate(a_prog, a_clearFitness);
+    if (error != null) {
+      throw invalidProgram(s, error);
+    }
+  }
+
+  /**
+   * @return the error computing the fitness of the program, null if none
+   */
+  private static Throwable validate(IGPProgram a_prog,
+                                    boolean a_clearFitness) {
     // Has program already been verified?
     // ----------------------------------
     /**@todo impl. cache*/
@@ -1314,13 +2055,19 @@ public class GPGenotype
     }
     try {
       a_prog.getFitnessValue();
+      return null;
     } catch (Throwable ex) {
-      String msg = "Invalid program detected" + s + "!";
-      LOGGER.fatal(msg);
-      throw new RuntimeException(msg, ex);
+      return ex;
     }
   }
 
+  private static RuntimeException invalidProgram(String a_s,
+      Throwable a_cause) {
+    String msg = "Invalid program detected" + a_s + "!";
+    LOGGER.fatal(msg);
+    return new RuntimeException(msg, a_cause);
+  }
+
   /**
    * Write three GP programs being involved in crossover as a string to a file
    * for debug purposes.
@@ -0,0 +1,393 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jgap.*;
+import org.jgap.gp.*;
+import org.jgap.impl.*;
+
+/**
+ * Evolves several GPGenotypes, called islands, at once, each in its own
+ * thread. Every few generations the fittest programs of each island migrate
+ * to other islands, where they replace the least fit programs. Islands
+ * evolve independently in between, which keeps the populations diverse.<p>
+ * Each island needs its own configuration, see forkConfigurations. Migrating
+ * programs are posted into mailboxes without locking. An island only reads
+ * its mailbox after all islands have posted, and takes the programs in the
+ * order of the sending islands, so results do not depend on the scheduling
+ * of the threads. The random topology draws from the generator of the
+ * sending island.
+ */
+public class GPIslandModel {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final GPGenotype[] m_islands;
+
+  /**
+   * Random generator of each island, also returned by the configurations of
+   * other islands while the island evolves, see
+   * GPConfiguration.setThreadRandomGenerator.
+   */
+  private final RandomGenerator[] m_randoms;
+
+  /**
+   * Two mailboxes per island: programs sent after one run of generations are
+   * read before the next run, while the other mailbox takes the programs sent
+   * after it.
+   */
+  private final List<List<Queue<Migrant>>> m_mailboxes;
+
+  private int m_migrationInterval = 10;
+
+  private int m_migrationSize = 1;
+
+  private MigrationTopology m_topology = MigrationTopology.RING;
+
+  /**
+   * Number of generations evolved.
+   */
+  private int m_generation;
+
+  /**
+   * Number of runs of generations evolved, selects the mailboxes.
+   */
+  private int m_run;
+
+  private ExecutorService m_executor;
+
+  /**
+   * @param a_islands the islands to evolve, each with its own configuration,
+   * all with the same types and node sets, see GPGenotype.adoptProgram
+   */
+  public GPIslandModel(GPGenotype[] a_islands) {
+    if (a_islands == null || a_islands.length == 0) {
+      throw new IllegalArgumentException("At least one island required");
+    }
+    m_islands = a_islands.clone();
+    m_randoms = new RandomGenerator[m_islands.length];
+    Set<GPConfiguration> configurations = Collections.newSetFromMap(
+        new IdentityHashMap<GPConfiguration, Boolean>());
+    for (int i = 0; i < m_islands.length; i++) {
+      GPConfiguration conf = m_islands[i].getGPConfiguration();
+      if (!configurations.add(conf)) {
+        throw new IllegalArgumentException("Island " + i + " shares its"
+                                           + " configuration with another"
+                                           + " island");
+      }
+      m_randoms[i] = conf.getRandomGenerator();
+    }
+    m_mailboxes = new ArrayList<List<Queue<Migrant>>>(2);
+    for (int i = 0; i < 2; i++) {
+      List<Queue<Migrant>> mailboxes = new ArrayList<Queue<Migrant>>(
+          m_islands.length);
+      for (int j = 0; j < m_islands.length; j++) {
+        mailboxes.add(new ConcurrentLinkedQueue<Migrant>());
+      }
+      m_mailboxes.add(mailboxes);
+    }
+  }
+
+  /**
+   * Creates a configuration per island as a copy of the given one. Each copy
+   * gets its own random generator, seeded from the generator of the given
+   * configuration, so that a run can be repeated.
+   *
+   * @param a_conf the configuration to copy
+   * @param a_islands the number of islands
+   * @return the configurations
+   * @throws InvalidConfigurationException
+   */
+  public static GPConfiguration[] forkConfigurations(GPConfiguration a_conf,
+      int a_islands)
+      throws InvalidConfigurationException {
+    if (a_islands < 1) {
+      throw new IllegalArgumentException("At least one island required");
+    }
+    GPConfiguration[] result = new GPConfiguration[a_islands];
+    for (int i = 0; i < a_islands; i++) {
+      result[i] = a_conf.newInstanceGP(a_conf.getId() + "_island" + i,
+                                       a_conf.getName());
+      StockRandomGenerator random = new StockRandomGenerator();
+      random.setSeed(a_conf.getRandomGenerator().nextLong());
+      result[i].setRandomGenerator(random);
+    }
+    return result;
+  }
+
+  /**
+   * @param a_generations number of generations between two migrations,
+   * counted over all calls of evolve
+   */
+  public void setMigrationInterval(int a_generations) {
+    if (a_generations < 1) {
+      throw new IllegalArgumentException("Migration interval must be at least"
+                                         + " one");
+    }
+    m_migrationInterval = a_generations;
+  }
+
+  public int getMigrationInterval() {
+    return m_migrationInterval;
+  }
+
+  /**
+   * @param a_programs number of fittest programs each island sends to each of
+   * its destinations, zero for no migration
+   */
+  public void setMigrationSize(int a_programs) {
+    if (a_programs < 0) {
+      throw new IllegalArgumentException("Migration size must not be"
+                                         + " negative");
+    }
+    m_migrationSize = a_programs;
+  }
+
+  public int getMigrationSize() {
+    return m_migrationSize;
+  }
+
+  public void setMigrationTopology(MigrationTopology a_topology) {
+    if (a_topology == null) {
+      throw new IllegalArgumentException("Topology must not be null");
+    }
+    m_topology = a_topology;
+  }
+
+  public MigrationTopology getMigrationTopology() {
+    return m_topology;
+  }
+
+  /**
+   * Evolves all islands for the given number of generations, migrating
+   * programs every migration interval.
+   *
+   * @param a_generations number of generations
+   */
+  public void evolve(int a_generations) {
+    int done = 0;
+    while (done < a_generations) {
+      int generations = Math.min(a_generations - done, m_migrationInterval
+                                 - m_generation % m_migrationInterval);
+      boolean migrate = (m_generation + generations) % m_migrationInterval
+          == 0 && m_islands.length > 1 && m_migrationSize > 0;
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (int i = 0; i < m_islands.length; i++) {
+        tasks.add(newIslandTask(i, generations, migrate, m_run));
+      }
+      m_executor = GPGenotype.getExecutor(m_executor, m_islands.length,
+                                          "island");
+      GPGenotype.invokeAll(m_executor, tasks);
+      m_generation += generations;
+      m_run++;
+      done += generations;
+    }
+  }
+
+  /**
+   * @param a_island index of the island
+   * @param a_generations number of generations to evolve
+   * @param a_migrate true: send the fittest programs afterwards
+   * @param a_run number of the run, selects the mailboxes
+   * @return task evolving the island
+   */
+  private Callable<Object> newIslandTask(final int a_island,
+      final int a_generations, final boolean a_migrate, final int a_run) {
+    return new Callable<Object>() {
+      public Object call()
+          throws Exception {
+        GPGenotype island = m_islands[a_island];
+        GPConfiguration conf = island.getGPConfiguration();
+        conf.setThreadRandomGenerator(m_randoms[a_island]);
+        try {
+          receive(a_island, m_mailboxes.get(a_run % 2).get(a_island));
+          island.evolve(a_generations);
+          if (a_migrate) {
+            send(a_island, m_mailboxes.get( (a_run + 1) % 2));
+          }
+          return null;
+        } finally {
+          conf.setThreadRandomGenerator(null);
+        }
+      }
+    };
+  }
+
+  /**
+   * Adds the programs in the mailbox of an island to its population.
+   *
+   * @param a_island index of the island
+   * @param a_mailbox the mailbox of the island, is emptied
+   */
+  private void receive(int a_island, Queue<Migrant> a_mailbox) {
+    List<Migrant> migrants = new ArrayList<Migrant>();
+    Migrant migrant;
+    while ( (migrant = a_mailbox.poll()) != null) {
+      migrants.add(migrant);
+    }
+    if (migrants.isEmpty()) {
+      return;
+    }
+    Collections.sort(migrants);
+    IGPProgram[] programs = new IGPProgram[migrants.size()];
+    for (int i = 0; i < programs.length; i++) {
+      programs[i] = migrants.get(i).m_program;
+    }
+    m_islands[a_island].addMigrants(programs);
+  }
+
+  /**
+   * Posts copies of the fittest programs of an island to the mailboxes of its
+   * destinations.
+   *
+   * @param a_island index of the island
+   * @param a_mailboxes the mailboxes read before the next run
+   * @throws InvalidConfigurationException
+   */
+  private void send(int a_island, List<Queue<Migrant>> a_mailboxes)
+      throws InvalidConfigurationException {
+    GPPopulation pop = m_islands[a_island].getGPPopulation();
+    int[] order = pop.getIndexesByFitness();
+    double[] fitness = pop.getFitnessColumn();
+    List<IGPProgram> fittest = new ArrayList<IGPProgram>();
+    for (int i = 0; i < order.length && fittest.size() < m_migrationSize; i++) {
+      IGPProgram program = pop.getGPProgram(order[i]);
+      if (program == null || Double.isNaN(fitness[order[i]])) {
+        break;
+      }
+      if (!GPGenotype.isBounded(program)) {
+        fittest.add(program);
+      }
+    }
+    for (int destination : getDestinations(a_island)) {
+      for (int rank = 0; rank < fittest.size(); rank++) {
+        IGPProgram copy = m_islands[destination].adoptProgram(fittest.get(
+            rank));
+        a_mailboxes.get(destination).offer(new Migrant(a_island, rank, copy));
+      }
+    }
+  }
+
+  /**
+   * @param a_island index of the sending island
+   * @return indexes of the islands to send to
+   */
+  private int[] getDestinations(int a_island) {
+    int islands = m_islands.length;
+    switch (m_topology) {
+      case RING:
+        return new int[] { (a_island + 1) % islands};
+      case RANDOM:
+        int destination = m_randoms[a_island].nextInt(islands - 1);
+        if (destination >= a_island) {
+          destination++;
+        }
+        return new int[] {destination};
+      default:
+        int[] result = new int[islands - 1];
+        for (int i = 0; i < result.length; i++) {
+          result[i] = i < a_island ? i : i + 1;
+        }
+        return result;
+    }
+  }
+
+  /**
+   * @return the fittest program found by any island so far
+   */
+  public IGPProgram getAllTimeBest() {
+    IGPFitnessEvaluator evaluator = m_islands[0].getGPConfiguration().
+        getGPFitnessEvaluator();
+    IGPProgram best = null;
+    for (int i = 0; i < m_islands.length; i++) {
+      IGPProgram program = m_islands[i].getAllTimeBest();
+      if (program != null
+          && (best == null || evaluator.isFitter(program, best))) {
+        best = program;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return the fittest program of the current populations of all islands
+   */
+  public IGPProgram getFittestProgram() {
+    IGPFitnessEvaluator evaluator = m_islands[0].getGPConfiguration().
+        getGPFitnessEvaluator();
+    IGPProgram best = null;
+    for (int i = 0; i < m_islands.length; i++) {
+      IGPProgram program = m_islands[i].getFittestProgram();
+      if (program != null
+          && (best == null || evaluator.isFitter(program, best))) {
+        best = program;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return index of the island that found the fittest program so far, -1 if
+   * none has been found yet
+   */
+  public int getBestIsland() {
+    IGPProgram best = getAllTimeBest();
+    for (int i = 0; i < m_islands.length; i++) {
+      if (best != null && m_islands[i].getAllTimeBest() == best) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public GPGenotype getIsland(int a_index) {
+    return m_islands[a_index];
+  }
+
+  public int getIslandCount() {
+    return m_islands.length;
+  }
+
+  /**
+   * @return number of generations evolved
+   */
+  public int getGeneration() {
+    return m_generation;
+  }
+
+  /**
+   * A program posted to the mailbox of an island, ordered by the sending
+   * island and its rank there.
+   */
+  private static class Migrant
+      implements Comparable<Migrant> {
+    private final int m_island;
+
+    private final int m_rank;
+
+    private final IGPProgram m_program;
+
+    Migrant(int a_island, int a_rank, IGPProgram a_program) {
+      m_island = a_island;
+      m_rank = a_rank;
+      m_program = a_program;
+    }
+
+    public int compareTo(Migrant a_other) {
+      if (m_island != a_other.m_island) {
+        return m_island < a_other.m_island ? -1 : 1;
+      }
+      return m_rank < a_other.m_rank ? -1 : m_rank == a_other.m_rank ? 0 : 1;
+    }
+  }
+}
@@ -67,6 +67,22 @@ public class GPPopulation
 
   private IGPProgram m_fittestToAdd;
 
+  /**
+   * Fitness value per program, null if not up to date, see
+   * updateFitnessColumn.
+   */
+  private transient double[] m_fitness;
+
+  /**
+   * Number of nodes per program, built on demand from m_fitness's programs.
+   */
+  private transient int[] m_sizes;
+
+  /**
+   * Depth per program, built on demand like m_sizes.
+   */
+  private transient int[] m_depths;
+
   /**
    * Default constructor, only for dynamic instantiation.
    *
@@ -167,6 +183,7 @@ public class GPPopulation
    * @since 3.0
    */
   public void sort(Comparator c) {
+    invalidateColumns();
     Arrays.sort(m_programs, c);
     float f = 0;
     for (int i = 0; i < m_programs.length; i++) {
@@ -360,6 +377,8 @@ public class GPPopulation
               if (cloner != null) {
                 try {
                   program = (IGPProgram) cloner.perform(prototype, null, null);
+                  getGPConfiguration().getProgramCreationStatistics().
+                      recordPrototypeCloned();
                   if (warningPrototypeReused > 0) {
                     // Only output once.
                     // -----------------
@@ -515,12 +534,21 @@ public class GPPopulation
     else {
       // Create new GP program.
       // ----------------------
+      ProgramCreationStatistics stats = getGPConfiguration().
+          getProgramCreationStatistics();
+      long start = System.nanoTime();
       IGPProgram program;
-      program = a_programCreator.create(getGPConfiguration(), a_programIndex,
-                                        a_types, a_argTypes, a_nodeSets,
-                                        a_minDepths, a_maxDepths, a_maxNodes,
-                                        a_depth, a_grow, a_tries,
-                                        a_fullModeAllowed);
+      try {
+        program = a_programCreator.create(getGPConfiguration(), a_programIndex,
+                                          a_types, a_argTypes, a_nodeSets,
+                                          a_minDepths, a_maxDepths, a_maxNodes,
+                                          a_depth, a_grow, a_tries,
+                                          a_fullModeAllowed);
+      } catch (IllegalStateException iex) {
+        stats.recordCreation(false, System.nanoTime() - start);
+        throw iex;
+      }
+      stats.recordCreation(program != null, System.nanoTime() - start);
       return program;
     }
   }
@@ -560,6 +588,40 @@ public class GPPopulation
     synchronized (m_programs) {
       m_programs[a_index] = a_program;
     }
+    invalidateColumns();
+    setChanged(true);
+  }
+
+  /**
+   * Replaces a program of an evaluated population in place, e.g. when
+   * breeding steady state. Unlike setGPProgram, the fitness, size and depth
+   * columns stay valid: only the entries of the given slot are updated. The
+   * fitness value of the new program is computed if necessary.
+   *
+   * @param a_index the index to set the GPProgram in
+   * @param a_program the GPProgram to be set
+   */
+  public void replaceGPProgram(final int a_index, final IGPProgram a_program) {
+    synchronized (m_programs) {
+      m_programs[a_index] = a_program;
+    }
+    if (m_fitness != null) {
+      m_fitness[a_index] = getFitness(a_program);
+    }
+    if (m_sizes != null) {
+      int size = 0;
+      for (int j = 0; j < a_program.size(); j++) {
+        size += a_program.getChromosome(j).getSize(0);
+      }
+      m_sizes[a_index] = size;
+    }
+    if (m_depths != null) {
+      int depth = 0;
+      for (int j = 0; j < a_program.size(); j++) {
+        depth = Math.max(depth, a_program.getChromosome(j).getDepth(0));
+      }
+      m_depths[a_index] = depth;
+    }
     setChanged(true);
   }
 
@@ -580,6 +642,7 @@ public class GPPopulation
       m_programs = a_pop.m_programs;
       m_popSize = m_programs.length;
     }
+    invalidateColumns();
     setChanged(true);
   }
 
@@ -596,6 +659,7 @@ public class GPPopulation
       m_programs = a_progs;
       m_popSize = m_programs.length;
     }
+    invalidateColumns();
     setChanged(true);
   }
 
@@ -614,6 +678,7 @@ public class GPPopulation
         m_programs[i] = a_pop.getGPProgram(i);
       }
     }
+    invalidateColumns();
     setChanged(true);
   }
 
@@ -633,6 +698,7 @@ public class GPPopulation
         m_programs[i] = (IGPProgram) a_pop.get(i);
       }
     }
+    invalidateColumns();
     setChanged(true);
   }
 
@@ -660,13 +726,15 @@ public class GPPopulation
     }
     double bestFitness = -1.0d;
     IGPFitnessEvaluator evaluator = getGPConfiguration().getGPFitnessEvaluator();
+    double[] column = m_fitness;
     double fitness;
     for (int i = 0; i < m_programs.length && m_programs[i] != null; i++) {
       IGPProgram program = m_programs[i];
-      try {
-        fitness = program.getFitnessValue();
-      } catch (IllegalStateException iex) {
-        fitness = Double.NaN;
+      if (column != null) {
+        fitness = column[i];
+      }
+      else {
+        fitness = getFitness(program);
       }
       if (!Double.isNaN(fitness) &&
           Math.abs(GPFitnessFunction.NO_FITNESS_VALUE - fitness) > DELTA) {
@@ -762,16 +830,193 @@ public class GPPopulation
    * @since 3.0
    */
   public void sortByFitness() {
-    // The following construction could be cached but wrt that the
-    // evaluator registered with the configuration could change
-    // --> Don't cache it!
-    sort(new GPProgramFitnessComparator(getGPConfiguration().
-                                        getGPFitnessEvaluator()));
+    // Sort the indexes over the fitness column, then rearrange the programs
+    // in the same order as sorting them via GPProgramFitnessComparator.
+    // ---------------------------------------------------------------------
+    int[] order = getIndexesByFitness();
+    double[] column = m_fitness;
+    IGPProgram[] programs = new IGPProgram[m_programs.length];
+    double[] sortedColumn = new double[column.length];
+    float f = 0;
+    for (int i = 0; i < order.length; i++) {
+      programs[i] = m_programs[order[i]];
+      sortedColumn[i] = column[order[i]];
+      if (m_fitnessRank.length > i) {
+        m_fitnessRank[i] = f;
+      }
+      if (programs[i] != null) {
+        f += sortedColumn[i];
+      }
+    }
+    synchronized (m_programs) {
+      System.arraycopy(programs, 0, m_programs, 0, programs.length);
+    }
+    m_fitness = sortedColumn;
+    m_sizes = null;
+    m_depths = null;
     setChanged(false);
     setSorted(true);
     m_fittestProgram = m_programs[0];
   }
 
+  /**
+   * Stores the fitness value of each program in a column of primitive
+   * values. Called by GPGenotype.calcFitness after all programs have been
+   * evaluated. The column stays valid until programs are set, sorted via a
+   * Comparator or cleared.<p>
+   * Fitness values of programs throwing an IllegalStateException are stored
+   * as NaN, bounded fitness values as they are, see
+   * GPProgramBase.isFitnessBounded.
+   */
+  public void updateFitnessColumn() {
+    double[] column = new double[m_programs.length];
+    for (int i = 0; i < column.length; i++) {
+      if (m_programs[i] == null) {
+        column[i] = Double.NaN;
+      }
+      else {
+        column[i] = getFitness(m_programs[i]);
+      }
+    }
+    m_sizes = null;
+    m_depths = null;
+    m_fitness = column;
+  }
+
+  /**
+   * @return fitness value per program, or null if not up to date. Must not
+   * be modified
+   */
+  public double[] getFitnessColumn() {
+    return m_fitness;
+  }
+
+  /**
+   * @return number of nodes per program, over all chromosomes, or null if the
+   * fitness column is not up to date. Must not be modified
+   */
+  public int[] getSizeColumn() {
+    if (m_fitness == null) {
+      return null;
+    }
+    int[] sizes = m_sizes;
+    if (sizes == null) {
+      sizes = new int[m_programs.length];
+      for (int i = 0; i < sizes.length && m_programs[i] != null; i++) {
+        IGPProgram program = m_programs[i];
+        for (int j = 0; j < program.size(); j++) {
+          sizes[i] += program.getChromosome(j).getSize(0);
+        }
+      }
+      m_sizes = sizes;
+    }
+    return sizes;
+  }
+
+  /**
+   * @return maximum depth of the chromosomes per program, or null if the
+   * fitness column is not up to date. Must not be modified
+   */
+  public int[] getDepthColumn() {
+    if (m_fitness == null) {
+      return null;
+    }
+    int[] depths = m_depths;
+    if (depths == null) {
+      depths = new int[m_programs.length];
+      for (int i = 0; i < depths.length && m_programs[i] != null; i++) {
+        IGPProgram program = m_programs[i];
+        for (int j = 0; j < program.size(); j++) {
+          depths[i] = Math.max(depths[i], program.getChromosome(j).getDepth(0));
+        }
+      }
+      m_depths = depths;
+    }
+    return depths;
+  }
+
+  /**
+   * Sorts the indexes of the programs by the fitness column, fittest first.
+   * Programs of equal fitness keep their order. NaN values and empty slots
+   * come last. The fitness column is updated first if necessary.
+   *
+   * @return the indexes of the programs, fittest first
+   */
+  public int[] getIndexesByFitness() {
+    if (m_fitness == null) {
+      updateFitnessColumn();
+    }
+    double[] column = m_fitness;
+    // Keys ascending from fittest to least fit.
+    // -----------------------------------------
+    boolean deltaMode = !getGPConfiguration().getGPFitnessEvaluator().isFitter(
+        2.0d, 1.0d);
+    double[] keys = new double[column.length];
+    for (int i = 0; i < keys.length; i++) {
+      if (Double.isNaN(column[i])) {
+        keys[i] = Double.NaN;
+      }
+      else {
+        keys[i] = deltaMode ? column[i] : -column[i];
+      }
+    }
+    int[] order = new int[keys.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    mergeSort(keys, order, new int[order.length], 0, order.length);
+    return order;
+  }
+
+  /**
+   * Stable sort of a_order[a_from..a_to - 1] by ascending key, NaN last.
+   */
+  private static void mergeSort(double[] a_keys, int[] a_order, int[] a_temp,
+                                int a_from, int a_to) {
+    if (a_to - a_from < 2) {
+      return;
+    }
+    int middle = (a_from + a_to) >>> 1;
+    mergeSort(a_keys, a_order, a_temp, a_from, middle);
+    mergeSort(a_keys, a_order, a_temp, middle, a_to);
+    if (!isLess(a_keys[a_order[middle]], a_keys[a_order[middle - 1]])) {
+      return;
+    }
+    System.arraycopy(a_order, a_from, a_temp, a_from, a_to - a_from);
+    int left = a_from;
+    int right = middle;
+    for (int i = a_from; i < a_to; i++) {
+      if (right >= a_to || left < middle
+          && !isLess(a_keys[a_temp[right]], a_keys[a_temp[left]])) {
+        a_order[i] = a_temp[left++];
+      }
+      else {
+        a_order[i] = a_temp[right++];
+      }
+    }
+  }
+
+  private static boolean isLess(double a_key1, double a_key2) {
+    if (Double.isNaN(a_key1)) {
+      return false;
+    }
+    return Double.isNaN(a_key2) || a_key1 < a_key2;
+  }
+
+  private static double getFitness(IGPProgram a_program) {
+    try {
+      return a_program.getFitnessValue();
+    } catch (IllegalStateException iex) {
+      return Double.NaN;
+    }
+  }
+
+  private void invalidateColumns() {
+    m_fitness = null;
+    m_sizes = null;
+    m_depths = null;
+  }
+
   public float[] getFitnessRanks() {
     return m_fitnessRank;
   }
@@ -922,6 +1167,7 @@ public class GPPopulation
     for (int i = 0; i < m_programs.length; i++) {
       m_programs[i] = null;
     }
+    invalidateColumns();
     m_changed = true;
     m_sorted = true;
     m_fittestProgram = null;
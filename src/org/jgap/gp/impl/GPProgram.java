@@ -214,14 +214,12 @@ public class GPProgram
       }
     }
     if (getGPConfiguration().isUseProgramCache()) {
-      // Cache fitness value by checking if a program with same
-      // representation was computed before.
-      // ------------------------------------------------------
+      // Take over the fitness value if a program with the same structure was
+      // computed before. Otherwise the program is put to the cache as soon as
+      // its fitness value is computed, see calcFitnessValue.
+      // ----------------------------------------------------------------------
       GPProgramInfo pcInfo = getGPConfiguration().readProgramCache(this);
-      if (pcInfo == null) {
-        pcInfo = putToCache(this);
-      }
-      else {
+      if (pcInfo != null) {
         setFitnessValue(pcInfo.getFitnessValue());
       }
     }
@@ -286,13 +284,12 @@ public class GPProgram
       chrom.redepth();
     }
     if (getGPConfiguration().isUseProgramCache()) {
-      // Cache fitness value by checking if a program with same
-      // representation was computed before.
+      // Take over the fitness value if a program with the same structure was
+      // computed before. Otherwise the program is put to the cache as soon as
+      // its fitness value is computed, see calcFitnessValue.
+      // ----------------------------------------------------------------------
       GPProgramInfo pcInfo = getGPConfiguration().readProgramCache(this);
-      if (pcInfo == null) {
-        pcInfo = putToCache(this);
-      }
-      else {
+      if (pcInfo != null) {
         setFitnessValue(pcInfo.getFitnessValue());
       }
     }
@@ -436,6 +433,31 @@ public class GPProgram
     return m_chromosomes[a_chromosomeNum].execute_boolean(a_args);
   }
 
+  /**
+   * Executes the given chromosome for all rows of a dataset.
+   *
+   * @param a_chromosomeNum the index of the chromosome to execute
+   * @param a_data the dataset
+   * @return the output for each row
+   */
+  public double[] execute_batch(int a_chromosomeNum, BatchData a_data) {
+    return m_chromosomes[a_chromosomeNum].execute_batch(a_data, this);
+  }
+
+  /**
+   * Sets the context holding the variable values for all chromosomes.
+   *
+   * @param a_context the context to use, null to use the values set via
+   * Variable.set
+   */
+  public void setEvaluationContext(EvaluationContext a_context) {
+    for (int i = 0; i < m_chromosomes.length; i++) {
+      if (m_chromosomes[i] != null) {
+        m_chromosomes[i].setEvaluationContext(a_context);
+      }
+    }
+  }
+
   /**
    * Executes the given chromosome as an object function.
    *
@@ -560,7 +582,7 @@ public class GPProgram
                                        minDepthsClone,
                                        maxDepthsClone,
                                        getMaxNodes());
-      result.setFitnessValue(getFitnessValueDirectly());
+      result.setFitnessValue(getFitnessValueDirectly(), isFitnessBounded());
       // Try to clone application data.
       // ------------------------------
       Object appData = getApplicationData();
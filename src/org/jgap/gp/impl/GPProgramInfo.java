@@ -32,6 +32,18 @@ public class GPProgramInfo {
     m_found = a_found;
   }
 
+  /**
+   * Used by ProgramCache, which identifies programs without building their
+   * string representation. getToStringNorm returns null then.
+   *
+   * @param a_fitnessValue the fitness value of the program
+   * @param a_found true: the program was found in the cache
+   */
+  public GPProgramInfo(double a_fitnessValue, boolean a_found) {
+    m_fitnessValue = a_fitnessValue;
+    m_found = a_found;
+  }
+
   public String getToStringNorm() {
     return m_toStringNorm;
   }
@@ -65,6 +77,10 @@ public class GPProgramInfo {
       if (other.m_toStringNorm == null) {
         return 0;
       }
+      return -1;
+    }
+    if (other.m_toStringNorm == null) {
+      return 1;
     }
     return m_toStringNorm.compareTo(other.m_toStringNorm);
   }
@@ -0,0 +1,29 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+/**
+ * Determines which islands the fittest programs of an island migrate to, see
+ * GPIslandModel.setMigrationTopology.
+ */
+public enum MigrationTopology {
+  /**
+   * Island i sends to island i + 1, the last one to the first one.
+   */
+  RING,
+  /**
+   * Each island sends to another island chosen at random each time.
+   */
+  RANDOM,
+  /**
+   * Each island sends to all other islands.
+   */
+  FULLY_CONNECTED
+}
@@ -0,0 +1,464 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import org.jgap.*;
+import org.jgap.gp.*;
+
+/**
+ * Lookup table of the nodes of a function set by return type, sub return type
+ * and whether they are terminals or functions, see
+ * GPConfiguration.getNodeTable. Used by ProgramChromosome to select nodes when
+ * growing a program without filtering the whole function set each time.<p>
+ * Positions refer to the function set of a chromosome: the node set given
+ * followed by one Argument per argument type. The nodes of a group keep the
+ * order of the function set, so a node is picked with the same random number
+ * as when filtering the function set.<p>
+ * Nodes whose arity may change (CommandDynamicArity, ADF or any node
+ * overriding getArity or dynamizeArity) are checked when selecting.<p>
+ * For each node, the table knows the minimum number of nodes and the minimum
+ * depth of a subtree starting with it. When given the remaining depth and
+ * number of nodes, select only picks nodes whose subtree can be completed
+ * within these limits, so growing a chromosome does not fail for lack of
+ * depth or nodes. Nodes with changing arity are assumed to need no more than
+ * themselves.
+ */
+public class NodeTable {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final Class<?>[] m_argTypes;
+
+  private final int m_size;
+
+  /**
+   * Used for subtrees which cannot be completed at all.
+   */
+  private final static int IMPOSSIBLE = Integer.MAX_VALUE / 4;
+
+  /**
+   * Minimum number of nodes of a subtree starting with the node at a position.
+   */
+  private final int[] m_minSize;
+
+  /**
+   * Minimum depth of a subtree starting with the node at a position, 0 for
+   * terminals.
+   */
+  private final int[] m_minDepth;
+
+  /**
+   * Child types of the nodes with fixed arity, null for all others.
+   */
+  private final Class<?>[][] m_childTypes;
+
+  private final int[][] m_subChildTypes;
+
+  /**
+   * Groups by return type. Sub return type 0 holds all nodes of the return
+   * type.
+   */
+  private final Map<Class<?>, Map<Integer, Group>> m_groups = new
+      HashMap<Class<?>, Map<Integer, Group>>();
+
+  /**
+   * @param a_nodeSet the nodes available
+   * @param a_argTypes the argument types of the chromosome, each adding an
+   * Argument terminal behind the nodes
+   */
+  public NodeTable(CommandGene[] a_nodeSet, Class<?>[] a_argTypes) {
+    m_argTypes = a_argTypes.clone();
+    m_size = a_nodeSet.length + a_argTypes.length;
+    Map<Class<?>, Map<Integer, List<Integer>>> members = new
+        LinkedHashMap<Class<?>, Map<Integer, List<Integer>>>();
+    boolean[] fixed = new boolean[m_size];
+    boolean[] terminal = new boolean[m_size];
+    m_minSize = new int[m_size];
+    m_minDepth = new int[m_size];
+    m_childTypes = new Class<?>[m_size][];
+    m_subChildTypes = new int[m_size][];
+    for (int i = 0; i < m_size; i++) {
+      Class<?> type;
+      int subType;
+      if (i < a_nodeSet.length) {
+        CommandGene node = a_nodeSet[i];
+        type = node.getReturnType();
+        subType = node.getSubReturnType();
+        fixed[i] = hasFixedArity(node);
+        terminal[i] = node.getArity(null) == 0;
+        if (fixed[i] && !terminal[i]) {
+          int arity = node.getArity(null);
+          m_childTypes[i] = new Class<?>[arity];
+          m_subChildTypes[i] = new int[arity];
+          for (int k = 0; k < arity; k++) {
+            m_childTypes[i][k] = node.getChildType(null, k);
+            m_subChildTypes[i][k] = node.getSubChildType(k);
+          }
+          m_minSize[i] = IMPOSSIBLE;
+          m_minDepth[i] = IMPOSSIBLE;
+        }
+        else {
+          m_minSize[i] = 1;
+        }
+      }
+      else {
+        // Argument terminals are created per chromosome.
+        // ----------------------------------------------
+        type = a_argTypes[i - a_nodeSet.length];
+        subType = 0;
+        fixed[i] = true;
+        terminal[i] = true;
+        m_minSize[i] = 1;
+      }
+      Map<Integer, List<Integer>> bySubType = members.get(type);
+      if (bySubType == null) {
+        bySubType = new LinkedHashMap<Integer, List<Integer>>();
+        bySubType.put(0, new ArrayList<Integer>());
+        members.put(type, bySubType);
+      }
+      bySubType.get(0).add(i);
+      if (subType != 0) {
+        List<Integer> list = bySubType.get(subType);
+        if (list == null) {
+          list = new ArrayList<Integer>();
+          bySubType.put(subType, list);
+        }
+        list.add(i);
+      }
+    }
+    for (Map.Entry<Class<?>, Map<Integer, List<Integer>>> entry : members.
+         entrySet()) {
+      Map<Integer, Group> groups = new HashMap<Integer, Group>();
+      for (Map.Entry<Integer, List<Integer>> sub : entry.getValue().entrySet()) {
+        groups.put(sub.getKey(), new Group(sub.getValue(), fixed, terminal));
+      }
+      m_groups.put(entry.getKey(), groups);
+    }
+    computeMinima();
+  }
+
+  /**
+   * Determines the minimum size and depth of the subtrees of functions with
+   * fixed arity by iterating until no value decreases anymore. Functions
+   * whose children cannot be completed keep the value IMPOSSIBLE.
+   */
+  private void computeMinima() {
+    boolean changed;
+    do {
+      changed = false;
+      for (Map<Integer, Group> groups : m_groups.values()) {
+        for (Group group : groups.values()) {
+          group.updateMinima(m_minSize, m_minDepth);
+        }
+      }
+      for (int i = 0; i < m_size; i++) {
+        if (m_childTypes[i] == null) {
+          continue;
+        }
+        int size = 1;
+        int depth = 0;
+        for (int k = 0; k < m_childTypes[i].length; k++) {
+          Group child = getGroup(m_childTypes[i][k], m_subChildTypes[i][k]);
+          int childSize;
+          int childDepth;
+          if (child != null) {
+            childSize = child.m_minSize;
+            childDepth = child.m_minDepth;
+          }
+          else if (isVoid(m_childTypes[i][k])) {
+            // A NOP is inserted when growing.
+            // -------------------------------
+            childSize = 1;
+            childDepth = 0;
+          }
+          else {
+            childSize = IMPOSSIBLE;
+            childDepth = IMPOSSIBLE;
+          }
+          size = Math.min(IMPOSSIBLE, size + childSize);
+          depth = Math.min(IMPOSSIBLE, Math.max(depth, childDepth + 1));
+        }
+        if (size < m_minSize[i] || depth < m_minDepth[i]) {
+          m_minSize[i] = Math.min(size, m_minSize[i]);
+          m_minDepth[i] = Math.min(depth, m_minDepth[i]);
+          changed = true;
+        }
+      }
+    } while (changed);
+  }
+
+  private Group getGroup(Class<?> a_returnType, int a_subReturnType) {
+    Map<Integer, Group> groups = m_groups.get(a_returnType);
+    if (groups == null) {
+      return null;
+    }
+    return groups.get(a_subReturnType);
+  }
+
+  private static boolean isVoid(Class<?> a_type) {
+    return a_type == CommandGene.VoidClass || a_type == Void.class;
+  }
+
+  /**
+   * @param a_returnType return type of a subtree
+   * @param a_subReturnType sub return type of the subtree, 0 for any
+   * @return minimum number of nodes of a subtree with the given return type
+   */
+  public int getMinSize(Class<?> a_returnType, int a_subReturnType) {
+    Group group = getGroup(a_returnType, a_subReturnType);
+    if (group == null) {
+      return isVoid(a_returnType) ? 1 : IMPOSSIBLE;
+    }
+    return group.m_minSize;
+  }
+
+  /**
+   * @param a_argTypes argument types of a chromosome
+   * @return true: the table fits chromosomes with the given argument types
+   */
+  public boolean isFor(Class<?>[] a_argTypes) {
+    return Arrays.equals(m_argTypes, a_argTypes);
+  }
+
+  /**
+   * @return number of nodes in the function sets the table is for
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * Randomly chooses a node like ProgramChromosome.selectNode.
+   *
+   * @param a_functionSet the function set of the chromosome
+   * @param a_ind the program the chromosome belongs to
+   * @param a_returnType the return type of node to choose
+   * @param a_subReturnType the sub return type to look for, 0 for any
+   * @param a_function true to choose a function, false to choose a terminal
+   * @param a_growing true to also choose terminals when choosing a function
+   * @param a_rejected positions not to choose, null for none
+   * @param a_random the random generator to use
+   * @return position of the node chosen, or -1 if there is no such node
+   */
+  public int select(CommandGene[] a_functionSet, IGPProgram a_ind,
+                    Class<?> a_returnType, int a_subReturnType,
+                    boolean a_function, boolean a_growing, long[] a_rejected,
+                    RandomGenerator a_random) {
+    return select(a_functionSet, a_ind, a_returnType, a_subReturnType,
+                  a_function, a_growing, a_rejected, a_random,
+                  Integer.MAX_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Randomly chooses a node like ProgramChromosome.selectNode, leaving out
+   * nodes whose subtree cannot be completed within the given depth and
+   * number of nodes. If none of the functions required can be completed, a
+   * terminal is chosen instead.
+   *
+   * @param a_functionSet the function set of the chromosome
+   * @param a_ind the program the chromosome belongs to
+   * @param a_returnType the return type of node to choose
+   * @param a_subReturnType the sub return type to look for, 0 for any
+   * @param a_function true to choose a function, false to choose a terminal
+   * @param a_growing true to also choose terminals when choosing a function
+   * @param a_rejected positions not to choose, null for none
+   * @param a_random the random generator to use
+   * @param a_depth the depth available for the subtree
+   * @param a_maxNodes the number of nodes available for the subtree
+   * @return position of the node chosen, or -1 if there is no such node
+   */
+  public int select(CommandGene[] a_functionSet, IGPProgram a_ind,
+                    Class<?> a_returnType, int a_subReturnType,
+                    boolean a_function, boolean a_growing, long[] a_rejected,
+                    RandomGenerator a_random, int a_depth, int a_maxNodes) {
+    Group group = getGroup(a_returnType, a_subReturnType);
+    if (group == null) {
+      return -1;
+    }
+    int position = select(group, a_functionSet, a_ind, a_function, a_growing,
+                          a_rejected, a_random, a_depth, a_maxNodes);
+    if (position < 0 && a_function && !a_growing) {
+      // Full mode, but no function fits: complete the subtree with a
+      // terminal.
+      // -------------------------------------------------------------
+      position = select(group, a_functionSet, a_ind, false, false, a_rejected,
+                        a_random, a_depth, a_maxNodes);
+    }
+    return position;
+  }
+
+  private int select(Group group, CommandGene[] a_functionSet,
+                     IGPProgram a_ind, boolean a_function, boolean a_growing,
+                     long[] a_rejected, RandomGenerator a_random, int a_depth,
+                     int a_maxNodes) {
+    int[] candidates;
+    if (a_function && a_growing) {
+      candidates = group.m_all;
+    }
+    else if (a_function) {
+      candidates = group.m_functions;
+    }
+    else {
+      candidates = group.m_terminals;
+    }
+    if (!group.m_dynamic && a_rejected == null
+        && fitsAll(candidates, a_depth, a_maxNodes)) {
+      if (candidates.length == 0) {
+        return -1;
+      }
+      return candidates[a_random.nextInt(candidates.length)];
+    }
+    if (group.m_dynamic) {
+      // Arity known at selection time only.
+      // -----------------------------------
+      candidates = group.m_all;
+    }
+    int count = 0;
+    for (int i = 0; i < candidates.length; i++) {
+      if (isCandidate(a_functionSet, a_ind, candidates[i], a_function,
+                      a_growing, a_rejected, a_depth, a_maxNodes)) {
+        count++;
+      }
+    }
+    if (count == 0) {
+      return -1;
+    }
+    int index = a_random.nextInt(count);
+    for (int i = 0; i < candidates.length; i++) {
+      if (isCandidate(a_functionSet, a_ind, candidates[i], a_function,
+                      a_growing, a_rejected, a_depth, a_maxNodes)) {
+        if (index-- == 0) {
+          return candidates[i];
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Marks a position as rejected.
+   *
+   * @param a_rejected the rejected positions so far, null for none
+   * @param a_position the position to reject
+   * @return the rejected positions including a_position
+   */
+  public long[] reject(long[] a_rejected, int a_position) {
+    if (a_rejected == null) {
+      a_rejected = new long[ (m_size + 63) >>> 6];
+    }
+    a_rejected[a_position >>> 6] |= 1L << a_position;
+    return a_rejected;
+  }
+
+  /**
+   * @return true: the subtrees of all candidates can be completed within the
+   * given depth and number of nodes
+   */
+  private boolean fitsAll(int[] a_candidates, int a_depth, int a_maxNodes) {
+    for (int i = 0; i < a_candidates.length; i++) {
+      if (m_minDepth[a_candidates[i]] > a_depth
+          || m_minSize[a_candidates[i]] > a_maxNodes) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isCandidate(CommandGene[] a_functionSet, IGPProgram a_ind,
+                              int a_position, boolean a_function,
+                              boolean a_growing, long[] a_rejected,
+                              int a_depth, int a_maxNodes) {
+    if (a_rejected != null
+        && (a_rejected[a_position >>> 6] & 1L << a_position) != 0) {
+      return false;
+    }
+    if (m_minDepth[a_position] > a_depth || m_minSize[a_position] > a_maxNodes) {
+      return false;
+    }
+    if (a_functionSet[a_position].getArity(a_ind) == 0) {
+      return !a_function || a_growing;
+    }
+    return a_function;
+  }
+
+  /**
+   * @param a_node the node to check
+   * @return true: the arity of the node never changes
+   */
+  private static boolean hasFixedArity(CommandGene a_node) {
+    if (a_node instanceof CommandDynamicArity) {
+      return false;
+    }
+    try {
+      Class<?> clazz = a_node.getClass();
+      return clazz.getMethod("getArity", new Class<?>[] {IGPProgram.class}).
+          getDeclaringClass() == CommandGene.class
+          && clazz.getMethod("dynamizeArity", new Class<?>[0]).
+          getDeclaringClass() == CommandGene.class;
+    } catch (NoSuchMethodException nex) {
+      return false;
+    }
+  }
+
+  /**
+   * Positions of the nodes of one return type and sub return type.
+   */
+  private static class Group {
+    final int[] m_all;
+
+    final int[] m_terminals;
+
+    final int[] m_functions;
+
+    /**
+     * True: at least one node may change its arity.
+     */
+    final boolean m_dynamic;
+
+    int m_minSize = IMPOSSIBLE;
+
+    int m_minDepth = IMPOSSIBLE;
+
+    Group(List<Integer> a_positions, boolean[] a_fixed, boolean[] a_terminal) {
+      m_all = new int[a_positions.size()];
+      int terminals = 0;
+      boolean dynamic = false;
+      for (int i = 0; i < m_all.length; i++) {
+        m_all[i] = a_positions.get(i);
+        if (a_terminal[m_all[i]]) {
+          terminals++;
+        }
+        dynamic |= !a_fixed[m_all[i]];
+      }
+      m_dynamic = dynamic;
+      m_terminals = new int[terminals];
+      m_functions = new int[m_all.length - terminals];
+      int t = 0;
+      int f = 0;
+      for (int i = 0; i < m_all.length; i++) {
+        if (a_terminal[m_all[i]]) {
+          m_terminals[t++] = m_all[i];
+        }
+        else {
+          m_functions[f++] = m_all[i];
+        }
+      }
+    }
+
+    void updateMinima(int[] a_minSize, int[] a_minDepth) {
+      for (int i = 0; i < m_all.length; i++) {
+        m_minSize = Math.min(m_minSize, a_minSize[m_all[i]]);
+        m_minDepth = Math.min(m_minDepth, a_minDepth[m_all[i]]);
+      }
+    }
+  }
+}
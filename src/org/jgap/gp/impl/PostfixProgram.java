@@ -0,0 +1,377 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.io.*;
+import java.util.*;
+
+import org.jgap.gp.*;
+
+/**
+ * A program translated into postfix code for a stack machine, see
+ * ProgramCompiler.compilePostfix. The code is an int array of operations, each
+ * taking its operands from and pushing its result onto a double stack;
+ * variables refer to their slot and constants to an entry of a constant pool.
+ * Evaluation runs a single loop over the code without calling any nodes.<p>
+ * The translation starts from the intermediate code of ProgramCompiler, so the
+ * same programs are supported and the results are exactly those of the
+ * interpreter. Unlike a generated class, a postfix program needs no class
+ * loading and is serializable.<p>
+ * Instances are immutable and may be used by several threads at once.
+ */
+public class PostfixProgram
+    implements ICompiledProgram, Serializable {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static long serialVersionUID = 1L;
+
+  // Operations, with ProgramCompiler.FLOAT_FLAG where the result is rounded
+  // to float precision. Add3, Add4 and Multiply3 are translated into binary
+  // operations.
+  // -----------------------------------------------------------------------
+  private final static int VAR = ProgramCompiler.OP_VAR;
+
+  private final static int VAR_F = ProgramCompiler.OP_VAR
+      | ProgramCompiler.FLOAT_FLAG;
+
+  private final static int CONST = ProgramCompiler.OP_CONST;
+
+  private final static int ADD = ProgramCompiler.OP_ADD;
+
+  private final static int ADD_F = ProgramCompiler.OP_ADD
+      | ProgramCompiler.FLOAT_FLAG;
+
+  private final static int SUB = ProgramCompiler.OP_SUB;
+
+  private final static int SUB_F = ProgramCompiler.OP_SUB
+      | ProgramCompiler.FLOAT_FLAG;
+
+  private final static int MUL = ProgramCompiler.OP_MUL;
+
+  private final static int MUL_F = ProgramCompiler.OP_MUL
+      | ProgramCompiler.FLOAT_FLAG;
+
+  private final static int DIV = ProgramCompiler.OP_DIV;
+
+  private final static int DIV_F = ProgramCompiler.OP_DIV
+      | ProgramCompiler.FLOAT_FLAG;
+
+  private final static int ABS = ProgramCompiler.OP_ABS;
+
+  private final static int MAX = ProgramCompiler.OP_MAX;
+
+  private final static int MIN = ProgramCompiler.OP_MIN;
+
+  private final static int IF = ProgramCompiler.OP_IF;
+
+  private final static int GT = ProgramCompiler.OP_GT;
+
+  private final static int LT = ProgramCompiler.OP_LT;
+
+  private final static int EQ = ProgramCompiler.OP_EQ;
+
+  private final static int EQ_F = ProgramCompiler.OP_EQ
+      | ProgramCompiler.FLOAT_FLAG;
+
+  private final int[] m_code;
+
+  private final double[] m_constants;
+
+  private final int m_maxStack;
+
+  /**
+   * Translates the intermediate code of ProgramCompiler into postfix code.
+   *
+   * @param a_program intermediate code, see ProgramCompiler.translate
+   */
+  PostfixProgram(long[] a_program) {
+    Translator translator = new Translator(a_program);
+    if (a_program[0] == ProgramCompiler.MODE_BOOLEAN) {
+      translator.condition();
+    }
+    else {
+      translator.expression();
+    }
+    m_code = translator.m_code.toArray();
+    m_constants = new double[translator.m_constants.size()];
+    for (int i = 0; i < m_constants.length; i++) {
+      m_constants[i] = Double.longBitsToDouble(translator.m_constants.get(i));
+    }
+    m_maxStack = translator.m_maxStack;
+  }
+
+  public double eval(double[] a_vars) {
+    return run(a_vars, null, 0, new double[m_maxStack]);
+  }
+
+  public void eval(double[][] a_columns, int a_rows, double[] a_result) {
+    double[] stack = new double[m_maxStack];
+    for (int r = 0; r < a_rows; r++) {
+      a_result[r] = run(null, a_columns, r, stack);
+    }
+  }
+
+  /**
+   * Runs the machine for one set of variable values.
+   *
+   * @param a_vars the values of the variables, or null to read them from
+   * a_columns
+   * @param a_columns the values of the variables for all rows
+   * @param a_row the row of a_columns to read
+   * @param a_stack the stack to use
+   * @return the result of the program
+   */
+  private double run(double[] a_vars, double[][] a_columns, int a_row,
+                     double[] a_stack) {
+    int[] code = m_code;
+    double[] stack = a_stack;
+    int sp = 0;
+    int pc = 0;
+    while (pc < code.length) {
+      switch (code[pc++]) {
+        case VAR:
+          stack[sp++] = a_vars != null ? a_vars[code[pc++]]
+              : a_columns[code[pc++]][a_row];
+          break;
+        case VAR_F:
+          stack[sp++] = (float) (a_vars != null ? a_vars[code[pc++]]
+                                 : a_columns[code[pc++]][a_row]);
+          break;
+        case CONST:
+          stack[sp++] = m_constants[code[pc++]];
+          break;
+        case ADD:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] + stack[sp];
+          break;
+        case ADD_F:
+          sp--;
+          stack[sp - 1] = (float) (stack[sp - 1] + stack[sp]);
+          break;
+        case SUB:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] - stack[sp];
+          break;
+        case SUB_F:
+          sp--;
+          stack[sp - 1] = (float) (stack[sp - 1] - stack[sp]);
+          break;
+        case MUL:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] * stack[sp];
+          break;
+        case MUL_F:
+          sp--;
+          stack[sp - 1] = (float) (stack[sp - 1] * stack[sp]);
+          break;
+        case DIV:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] / stack[sp];
+          break;
+        case DIV_F:
+          sp--;
+          stack[sp - 1] = (float) (stack[sp - 1] / stack[sp]);
+          break;
+        case ABS:
+          stack[sp - 1] = Math.abs(stack[sp - 1]);
+          break;
+        case MAX:
+          sp--;
+          stack[sp - 1] = Math.max(stack[sp - 1], stack[sp]);
+          break;
+        case MIN:
+          sp--;
+          stack[sp - 1] = Math.min(stack[sp - 1], stack[sp]);
+          break;
+        case IF:
+          // Both children are free of side effects, so the second one was
+          // evaluated regardless of the condition.
+          // -------------------------------------------------------------
+          sp--;
+          stack[sp - 1] = stack[sp - 1] >= 0 ? stack[sp] : 0;
+          break;
+        case GT:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0;
+          break;
+        case LT:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0;
+          break;
+        case EQ:
+          sp--;
+          stack[sp - 1] = Math.abs(stack[sp - 1] - stack[sp])
+              < CommandGene.DELTA ? 1 : 0;
+          break;
+        case EQ_F:
+          sp--;
+          stack[sp - 1] = Math.abs( (float) (stack[sp - 1] - stack[sp]))
+              < CommandGene.DELTA ? 1 : 0;
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation "
+                                          + code[pc - 1]);
+      }
+    }
+    return stack[0];
+  }
+
+  /**
+   * @return number of operations of the program
+   */
+  public int getLength() {
+    int length = 0;
+    for (int pc = 0; pc < m_code.length; pc++) {
+      int op = m_code[pc] & ~ProgramCompiler.FLOAT_FLAG;
+      if (op == VAR || op == CONST) {
+        pc++;
+      }
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * @return maximum number of values on the stack during evaluation
+   */
+  public int getMaxStack() {
+    return m_maxStack;
+  }
+
+  /**
+   * Walks the prefix intermediate code and emits the postfix code.
+   */
+  private static class Translator {
+    private final long[] m_program;
+
+    private int m_pos = 1;
+
+    private final IntArray m_code = new IntArray();
+
+    private final List<Long> m_constants = new ArrayList<Long>();
+
+    private int m_stack;
+
+    private int m_maxStack;
+
+    Translator(long[] a_program) {
+      m_program = a_program;
+    }
+
+    void expression() {
+      int op = (int) m_program[m_pos++];
+      int round = op & ProgramCompiler.FLOAT_FLAG;
+      switch (op & 0xff) {
+        case ProgramCompiler.OP_VAR:
+          m_code.add(VAR | round);
+          m_code.add( (int) m_program[m_pos++]);
+          push();
+          break;
+        case ProgramCompiler.OP_CONST:
+          Long bits = Long.valueOf(m_program[m_pos++]);
+          int index = m_constants.indexOf(bits);
+          if (index < 0) {
+            index = m_constants.size();
+            m_constants.add(bits);
+          }
+          m_code.add(CONST);
+          m_code.add(index);
+          push();
+          break;
+        case ProgramCompiler.OP_ADD:
+        case ProgramCompiler.OP_SUB:
+        case ProgramCompiler.OP_MUL:
+        case ProgramCompiler.OP_DIV:
+        case ProgramCompiler.OP_MAX:
+        case ProgramCompiler.OP_MIN:
+        case ProgramCompiler.OP_IF:
+          expression();
+          expression();
+          binary(op);
+          break;
+        case ProgramCompiler.OP_ADD3:
+          nary(ADD | round, 3);
+          break;
+        case ProgramCompiler.OP_ADD4:
+          nary(ADD | round, 4);
+          break;
+        case ProgramCompiler.OP_MUL3:
+          nary(MUL | round, 3);
+          break;
+        case ProgramCompiler.OP_ABS:
+          expression();
+          m_code.add(ABS);
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation " + op);
+      }
+    }
+
+    void condition() {
+      int op = (int) m_program[m_pos++];
+      expression();
+      expression();
+      if ( (op & 0xff) == ProgramCompiler.OP_EQ) {
+        binary(op);
+      }
+      else {
+        // Only equality depends on the precision.
+        // ---------------------------------------
+        binary(op & 0xff);
+      }
+    }
+
+    private void nary(int a_op, int a_arity) {
+      expression();
+      for (int i = 1; i < a_arity; i++) {
+        expression();
+        binary(a_op);
+      }
+    }
+
+    private void binary(int a_op) {
+      int op = a_op & 0xff;
+      if (op == ProgramCompiler.OP_MAX || op == ProgramCompiler.OP_MIN
+          || op == ProgramCompiler.OP_IF) {
+        a_op = op;
+      }
+      m_code.add(a_op);
+      m_stack--;
+    }
+
+    private void push() {
+      m_stack++;
+      if (m_stack > m_maxStack) {
+        m_maxStack = m_stack;
+      }
+    }
+  }
+
+  /**
+   * Growable int array.
+   */
+  private static class IntArray {
+    private int[] m_values = new int[32];
+
+    private int m_size;
+
+    void add(int a_value) {
+      if (m_size == m_values.length) {
+        m_values = Arrays.copyOf(m_values, m_size * 2);
+      }
+      m_values[m_size++] = a_value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(m_values, m_size);
+    }
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jgap.gp.*;
+
+/**
+ * Caches the fitness values of programs, see GPConfiguration.setUseProgramCache.
+ * <p>
+ * Programs are identified by a structural key built from their nodes: class,
+ * types and arity of each node plus the value returned by
+ * CommandGene.getCacheValue. The key carries a 64-bit hash for the lookup
+ * and is compared completely on a hash match, so colliding programs are never
+ * mixed up. No string representation of the program is built.<p>
+ * The number of entries is bounded. When full, the least recently used entry
+ * is evicted. The cache may be used by several threads at once.
+ */
+public class ProgramCache {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final Map<Key, GPProgramInfo> m_entries;
+
+  /**
+   * Ids of node classes and return types, used for building keys.
+   */
+  private final ConcurrentMap<Class<?>, Integer> m_classIds = new
+      ConcurrentHashMap<Class<?>, Integer>();
+
+  private volatile int m_maxSize;
+
+  private long m_hits;
+
+  private long m_misses;
+
+  private long m_evictions;
+
+  /**
+   * @param a_maxSize maximum number of programs to hold
+   */
+  public ProgramCache(int a_maxSize) {
+    setMaxSize(a_maxSize);
+    m_entries = new LinkedHashMap<Key, GPProgramInfo>(64, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Key, GPProgramInfo>
+                                          a_eldest) {
+        if (size() > m_maxSize) {
+          m_evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @param a_prog the program to look up
+   * @return info holding the fitness value of an equal program, or null if no
+   * such program is cached
+   */
+  public GPProgramInfo get(IGPProgram a_prog) {
+    Key key = createKey(a_prog);
+    synchronized (m_entries) {
+      GPProgramInfo result = m_entries.get(key);
+      if (result == null) {
+        m_misses++;
+      }
+      else {
+        m_hits++;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Stores the fitness value of a program.
+   *
+   * @param a_prog the program to store
+   * @param a_fitnessValue the fitness value of the program
+   * @return info previously stored for an equal program, or null
+   */
+  public GPProgramInfo put(IGPProgram a_prog, double a_fitnessValue) {
+    Key key = createKey(a_prog);
+    GPProgramInfo info = new GPProgramInfo(a_fitnessValue, true);
+    synchronized (m_entries) {
+      return m_entries.put(key, info);
+    }
+  }
+
+  /**
+   * Removes all programs. The counters are kept.
+   */
+  public void clear() {
+    synchronized (m_entries) {
+      m_entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (m_entries) {
+      return m_entries.size();
+    }
+  }
+
+  /**
+   * @param a_maxSize maximum number of programs to hold, takes effect with
+   * the next program stored
+   */
+  public void setMaxSize(int a_maxSize) {
+    if (a_maxSize < 1) {
+      throw new IllegalArgumentException("Cache size must be at least one");
+    }
+    m_maxSize = a_maxSize;
+  }
+
+  public int getMaxSize() {
+    return m_maxSize;
+  }
+
+  /**
+   * @return number of lookups that found an equal program
+   */
+  public long getHitCount() {
+    synchronized (m_entries) {
+      return m_hits;
+    }
+  }
+
+  /**
+   * @return number of lookups that did not find an equal program
+   */
+  public long getMissCount() {
+    synchronized (m_entries) {
+      return m_misses;
+    }
+  }
+
+  /**
+   * @return number of programs removed because the cache was full
+   */
+  public long getEvictionCount() {
+    synchronized (m_entries) {
+      return m_evictions;
+    }
+  }
+
+  /**
+   * Builds the structural key of a program. Each node contributes one code
+   * word made of the ids of its class and return type, its arity and its sub
+   * return type. Numeric cache values contribute a second word, other non-null
+   * cache values are kept aside and compared via equals.
+   *
+   * @param a_prog the program to build the key for
+   * @return the key
+   */
+  protected Key createKey(IGPProgram a_prog) {
+    int chroms = a_prog.size();
+    int len = 1;
+    for (int i = 0; i < chroms; i++) {
+      len += 1 + 2 * a_prog.getChromosome(i).size();
+    }
+    long[] code = new long[len];
+    List<Object> values = null;
+    int pos = 0;
+    code[pos++] = chroms;
+    for (int i = 0; i < chroms; i++) {
+      ProgramChromosome chrom = a_prog.getChromosome(i);
+      CommandGene[] genes = chrom.getFunctions();
+      int size = chrom.size();
+      code[pos++] = size;
+      for (int j = 0; j < size; j++) {
+        CommandGene node = genes[j];
+        code[pos++] = getClassId(node.getClass())
+            | (long) getClassId(node.getReturnType()) << 20
+            | (long) node.getArity(a_prog) << 32
+            | (long) (node.getSubReturnType() & 0xFFFFF) << 44;
+        Object value = node.getCacheValue();
+        if (value instanceof Double || value instanceof Float) {
+          code[pos++] = Double.doubleToLongBits( ( (Number) value).
+              doubleValue());
+        }
+        else if (value instanceof Number) {
+          code[pos++] = ( (Number) value).longValue();
+        }
+        else if (value != null) {
+          if (values == null) {
+            values = new ArrayList<Object>();
+          }
+          values.add(value);
+        }
+      }
+    }
+    if (pos < len) {
+      code = Arrays.copyOf(code, pos);
+    }
+    return new Key(code, values == null ? null : values.toArray());
+  }
+
+  private int getClassId(Class<?> a_class) {
+    if (a_class == null) {
+      return 0;
+    }
+    Integer id = m_classIds.get(a_class);
+    if (id == null) {
+      synchronized (m_classIds) {
+        id = m_classIds.get(a_class);
+        if (id == null) {
+          id = m_classIds.size() + 1;
+          m_classIds.put(a_class, id);
+        }
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Structural key of a program, see createKey.
+   */
+  protected static class Key {
+    private final long[] m_code;
+
+    private final Object[] m_values;
+
+    private final long m_hash;
+
+    public Key(long[] a_code, Object[] a_values) {
+      m_code = a_code;
+      m_values = a_values;
+      // FNV-1a over the code words and the hash codes of the other values.
+      // ------------------------------------------------------------------
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < a_code.length; i++) {
+        hash ^= a_code[i];
+        hash *= 0x100000001b3L;
+      }
+      if (a_values != null) {
+        for (int i = 0; i < a_values.length; i++) {
+          hash ^= a_values[i].hashCode();
+          hash *= 0x100000001b3L;
+        }
+      }
+      m_hash = hash;
+    }
+
+    public long getHash() {
+      return m_hash;
+    }
+
+    public int hashCode() {
+      return (int) (m_hash ^ (m_hash >>> 32));
+    }
+
+    public boolean equals(Object a_other) {
+      if (! (a_other instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) a_other;
+      return m_hash == other.m_hash && Arrays.equals(m_code, other.m_code)
+          && Arrays.equals(m_values, other.m_values);
+    }
+  }
+}
@@ -58,11 +58,95 @@ public class ProgramChromosome
 
   private transient int m_maxDepth;
 
+  /**
+   * Index of the first node after the subtree of each node. Together with
+   * m_childStart, m_children and m_parent this forms the child lookup index
+   * that is built by redepth().
+   */
+  private transient int[] m_subtreeEnd;
+
+  /**
+   * Depth of the subtree below each node (0 for terminals).
+   */
+  private transient int[] m_subtreeDepth;
+
+  /**
+   * Offset into m_children where the children of each node start. The number
+   * of children of node n is m_childStart[n + 1] - m_childStart[n].
+   */
+  private transient int[] m_childStart;
+
+  /**
+   * Node indices of the children, grouped per parent node.
+   */
+  private transient int[] m_children;
+
+  /**
+   * Index of the parent node of each node (-1 for the root node).
+   */
+  private transient int[] m_parent;
+
+  /**
+   * Number of nodes covered by the child lookup index.
+   */
+  private transient int m_indexedNodes;
+
+  /**
+   * Number of child slots used in m_children during redepth().
+   */
+  private transient int m_childSlots;
+
+  /**
+   * True: the child lookup index reflects the current genes. False: it has to
+   * be rebuilt via redepth() and the linear scans over m_depth are used.
+   */
+  private transient boolean m_indexValid;
+
+  /**
+   * Compiled form of this chromosome, see compile(Variable[]).
+   */
+  private transient ICompiledProgram m_compiled;
+
+  /**
+   * The variables m_compiled was compiled for.
+   */
+  private transient Variable[] m_compiledVars;
+
+  /**
+   * Holds the variable values set via setEvaluationContext, null to use the
+   * values set via Variable.set.
+   */
+  private transient EvaluationContext m_context;
+
+  /**
+   * Lookup table for selecting nodes from m_functionSet, see
+   * GPConfiguration.getNodeTable.
+   */
+  private transient NodeTable m_nodeTable;
+
+  /**
+   * Minimum number of nodes needed by the siblings still to grow while
+   * creating the chromosome.
+   */
+  private transient int m_reservedNodes;
+
+  /**
+   * The superinstructions of this chromosome, see
+   * GPConfiguration.setFuseNodes. Built on first use.
+   */
+  private transient FusedNodes m_fusedNodes;
+
   /**
    * The array of genes contained in this chromosome.
    */
   private CommandGene[] m_genes;
 
+  /**
+   * true: m_genes and m_depth may be shared with clones and have to be copied
+   * before changing them, see ensureOwnGenes.
+   */
+  private boolean m_sharedGenes;
+
   /**
    * Application-specific data that is attached to this Chromosome.
    * This data may assist the application in evaluating this Chromosome
@@ -123,6 +207,47 @@ public class ProgramChromosome
     init(a_size);
   }
 
+  /**
+   * Creates a chromosome sharing the genes and depths of the given one, see
+   * clone.
+   *
+   * @param a_original the chromosome to share the genes with
+   * @throws InvalidConfigurationException
+   */
+  private ProgramChromosome(ProgramChromosome a_original)
+      throws InvalidConfigurationException {
+    super(a_original.getGPConfiguration());
+    m_genes = a_original.m_genes;
+    m_depth = a_original.m_depth;
+    m_sharedGenes = true;
+    a_original.m_sharedGenes = true;
+  }
+
+  /**
+   * Creates a view executing the genes of the given chromosome for the given
+   * program and variable values, see execute_batch and evaluate. Offsprings
+   * may share a chromosome with their parent and be evaluated in several
+   * threads at once, so the state of an execution is kept in a view per call.
+   * The view never changes the genes of the original.
+   *
+   * @param a_original the chromosome to execute
+   * @param a_ind the program executed
+   * @param a_context the variable values to execute with
+   * @throws InvalidConfigurationException
+   */
+  private ProgramChromosome(ProgramChromosome a_original, IGPProgram a_ind,
+                            EvaluationContext a_context)
+      throws InvalidConfigurationException {
+    super(a_original.getGPConfiguration(), a_ind);
+    m_genes = a_original.m_genes;
+    m_depth = a_original.m_depth;
+    m_sharedGenes = true;
+    argTypes = a_original.argTypes;
+    m_functionSet = a_original.m_functionSet;
+    m_context = a_context;
+    a_original.shareIndex(this);
+  }
+
   public ProgramChromosome(GPConfiguration a_conf, CommandGene[] a_initialGenes)
       throws InvalidConfigurationException {
     super(a_conf);
@@ -170,34 +295,25 @@ public class ProgramChromosome
     argTypes = a_argTypes;
   }
 
+  /**
+   * Clones the chromosome copy-on-write: the clone shares the genes and depths
+   * with this chromosome until one of them is changed, see ensureOwnGenes.
+   * Nodes are shared as well; they must not be changed in place but replaced
+   * via setGene, see BranchTypingCross.copyNode.
+   *
+   * @return the clone
+   *
+   * @author Klaus Meffert
+   * @since 3.0
+   */
   public synchronized Object clone() {
     try {
-      int size = m_genes.length;
-      CommandGene[] genes = new CommandGene[size];
-      for (int i = 0; i < size; i++) {
-        if (m_genes[i] == null) {
-          break;
-        }
-        // Try deep clone of genes.
-        // ------------------------
-        if (ICloneable.class.isAssignableFrom(m_genes[i].getClass())) {
-          genes[i] = (CommandGene) ( (ICloneable) m_genes[i]).clone();
-        }
-        else {
-          // No deep clone possible.
-          // -----------------------
-          genes[i] = m_genes[i];
-        }
-      }
-      ProgramChromosome chrom = new ProgramChromosome( (GPConfiguration)
-          getGPConfiguration(), (CommandGene[]) genes);
-      chrom.argTypes = (Class[]) argTypes.clone();
+      ProgramChromosome chrom = new ProgramChromosome(this);
+      chrom.argTypes = argTypes.clone();
       if (getFunctionSet() != null) {
-        chrom.setFunctionSet( (CommandGene[]) getFunctionSet().clone());
-      }
-      if (m_depth != null) {
-        chrom.m_depth = (int[]) m_depth.clone();
+        chrom.setFunctionSet(getFunctionSet().clone());
       }
+      shareIndex(chrom);
       chrom.setIndividual(getIndividual());
       return chrom;
     } catch (Exception cex) {
@@ -207,6 +323,55 @@ public class ProgramChromosome
     }
   }
 
+  /**
+   * Lets a chromosome with the same structure use the child lookup index of
+   * this chromosome. The index is shared read-only until the other chromosome
+   * is redepthed.
+   *
+   * @param a_chrom the chromosome with the same genes
+   */
+  private void shareIndex(ProgramChromosome a_chrom) {
+    if (m_indexValid) {
+      a_chrom.m_subtreeEnd = m_subtreeEnd;
+      a_chrom.m_subtreeDepth = m_subtreeDepth;
+      a_chrom.m_childStart = m_childStart;
+      a_chrom.m_children = m_children;
+      a_chrom.m_parent = m_parent;
+      a_chrom.m_indexedNodes = m_indexedNodes;
+      a_chrom.m_childSlots = m_childSlots;
+      a_chrom.m_indexValid = true;
+    }
+  }
+
+  /**
+   * @param a_ind the program executed
+   * @param a_context the variable values to execute with
+   * @return a view executing this chromosome for the given program and values
+   */
+  private ProgramChromosome view(IGPProgram a_ind,
+                                 EvaluationContext a_context) {
+    try {
+      return new ProgramChromosome(this, a_ind, a_context);
+    } catch (InvalidConfigurationException iex) {
+      throw new IllegalStateException(iex);
+    }
+  }
+
+  /**
+   * Gives this chromosome its own copy of genes and depths if they are shared
+   * with a clone. Called by the methods of this class changing them.
+   */
+  protected synchronized void ensureOwnGenes() {
+    if (!m_sharedGenes) {
+      return;
+    }
+    m_genes = m_genes.clone();
+    if (m_depth != null) {
+      m_depth = m_depth.clone();
+    }
+    m_sharedGenes = false;
+  }
+
   /**
    * Clean up the chromosome.
    *
@@ -242,6 +407,7 @@ public class ProgramChromosome
                          final CommandGene[] a_functionSet, boolean a_grow,
                          int a_tries) {
     try {
+      ensureOwnGenes();
       argTypes = a_argTypes;
       setFunctionSet(new CommandGene[a_functionSet.length + a_argTypes.length]);
       System.arraycopy(a_functionSet, 0, getFunctionSet(), 0,
@@ -250,6 +416,8 @@ public class ProgramChromosome
         m_functionSet[a_functionSet.length + i]
             = new Argument(getGPConfiguration(), i, a_argTypes[i]);
       }
+      m_nodeTable = getGPConfiguration().getNodeTable(a_functionSet,
+          a_argTypes);
       // Initialization of genotype according to specific problem requirements.
       // ----------------------------------------------------------------------
       CommandGene n;
@@ -267,7 +435,11 @@ public class ProgramChromosome
       // Build the (rest of the) GP program.
       // -----------------------------------
       int localDepth = a_depth;
+      m_indexValid = false;
+      m_compiled = null;
+      m_fusedNodes = null;
       m_index = 0;
+      m_reservedNodes = 0;
       m_maxDepth = localDepth;
       growOrFullNode(a_num, localDepth, a_type, 0, m_functionSet, n, 0, a_grow,
                      -1, false);
@@ -525,38 +697,8 @@ public class ProgramChromosome
     // Error handing in case no valid function found.
     // ----------------------------------------------
     if (possibleFunctions.isEmpty()) {
-      if (a_growing && (a_returnType == CommandGene.VoidClass
-                        || a_returnType == Void.class)) {
-        // We simply return a NOP, it does nothing :-)
-        // -------------------------------------------
-        try {
-          return new NOP(getGPConfiguration(), a_subReturnType);
-        } catch (InvalidConfigurationException iex) {
-          // Should never happen.
-          // --------------------
-          throw new RuntimeException(iex);
-        }
-      }
-      final String errormsg = "Chromosome (depth "
-          + getDepth(0)
-          + ", index " + a_chromIndex
-          + ") requires a " +
-          (a_function ?
-           ("function" + (a_growing ? " or terminal" : ""))
-           : "terminal") + " of return type " +
-          a_returnType
-          + " (sub return type " + a_subReturnType + ")"
-          + " but there is no such node available";
-      if (!getGPConfiguration().isStrictProgramCreation()) {
-        // Allow another try in case it is allowed.
-        // ----------------------------------------
-        throw new IllegalStateException(errormsg);
-      }
-      else {
-        // Interrupt the whole evolution process.
-        // --------------------------------------
-        throw new RuntimeException(errormsg);
-      }
+      return noNodeAvailable(a_chromIndex, a_returnType, a_subReturnType,
+                             a_function, a_growing);
     }
     // Select a function randomly.
     // ---------------------------
@@ -566,6 +708,53 @@ public class ProgramChromosome
     return n;
   }
 
+  /**
+   * Handles the case that there is no node to select.
+   *
+   * @param a_chromIndex index of the chromosome in the individual (0..n-1)
+   * @param a_returnType the return type of node to choose
+   * @param a_subReturnType the sub return type to look for
+   * @param a_function true to choose a function, false to choose a terminal
+   * @param a_growing true to ignore the function parameter, false otherwise
+   * @return a NOP node in case of a void return type when growing
+   */
+  private CommandGene noNodeAvailable(int a_chromIndex, Class a_returnType,
+                                      int a_subReturnType, boolean a_function,
+                                      boolean a_growing) {
+    if (a_growing && (a_returnType == CommandGene.VoidClass
+                      || a_returnType == Void.class)) {
+      // We simply return a NOP, it does nothing :-)
+      // -------------------------------------------
+      try {
+        return new NOP(getGPConfiguration(), a_subReturnType);
+      } catch (InvalidConfigurationException iex) {
+        // Should never happen.
+        // --------------------
+        throw new RuntimeException(iex);
+      }
+    }
+    final String errormsg = "Chromosome (depth "
+        + getDepth(0)
+        + ", index " + a_chromIndex
+        + ") requires a " +
+        (a_function ?
+         ("function" + (a_growing ? " or terminal" : ""))
+         : "terminal") + " of return type " +
+        a_returnType
+        + " (sub return type " + a_subReturnType + ")"
+        + " but there is no such node available";
+    if (!getGPConfiguration().isStrictProgramCreation()) {
+      // Allow another try in case it is allowed.
+      // ----------------------------------------
+      throw new IllegalStateException(errormsg);
+    }
+    else {
+      // Interrupt the whole evolution process.
+      // --------------------------------------
+      throw new RuntimeException(errormsg);
+    }
+  }
+
   /**
    * Create a tree of nodes using the grow or the full method.
    *
@@ -600,13 +789,42 @@ public class ProgramChromosome
       int tries = 0;
       int evolutionRound = getGPConfiguration().getGenerationNr();
       boolean aFunction = a_depth >= 1;
-      // Clone the array, not the content of the array.
-      // ----------------------------------------------
-      CommandGene[] localFunctionSet = (CommandGene[]) a_functionSet.clone();
+      // As long as the function set is the one of this chromosome, select
+      // from the lookup table and keep track of rejected nodes in a bitset.
+      // Otherwise, e.g. after removing a unique command, filter the set.
+      // The local function set is copied only when removing a node.
+      // -------------------------------------------------------------------
+      NodeTable table = null;
+      if (a_functionSet == m_functionSet && m_nodeTable != null
+          && m_nodeTable.size() == a_functionSet.length
+          && conf.getSingleNodeValidator() == null) {
+        table = m_nodeTable;
+      }
+      long[] rejected = null;
+      CommandGene[] localFunctionSet = a_functionSet;
       int len = a_functionSet.length;
       do {
-        CommandGene node = selectNode(a_num, a_returnType, a_subReturnType,
-                                      localFunctionSet, aFunction, a_grow);
+        CommandGene node;
+        int position = -1;
+        if (table != null) {
+          // Only pick nodes that can be completed with the nodes left.
+          // ---------------------------------------------------------
+          position = table.select(a_functionSet, getIndividual(), a_returnType,
+                                  a_subReturnType, aFunction, a_grow, rejected,
+                                  random, a_depth,
+                                  m_genes.length - m_index - m_reservedNodes);
+          if (position < 0) {
+            node = noNodeAvailable(a_num, a_returnType, a_subReturnType,
+                                   aFunction, a_grow);
+          }
+          else {
+            node = a_functionSet[position];
+          }
+        }
+        else {
+          node = selectNode(a_num, a_returnType, a_subReturnType,
+                            localFunctionSet, aFunction, a_grow);
+        }
         if (!conf.validateNode(this, node, a_rootNode, tries++, a_num,
                                a_recurseLevel, a_returnType, localFunctionSet,
                                a_depth, a_grow, a_childNum, false)) {
@@ -617,6 +835,9 @@ public class ProgramChromosome
             // Remove invalid node from local function set.
             // --------------------------------------------
             localFunctionSet = remove(localFunctionSet, node);
+            if (position >= 0) {
+              rejected = table.reject(rejected, position);
+            }
             if (localFunctionSet.length == 0) {
               throw new IllegalStateException("No appropriate function found"
                   + " during program creation!");
@@ -630,13 +851,21 @@ public class ProgramChromosome
         if (random.nextDouble() <= conf.getMutationProb()) {
           if (IMutateable.class.isAssignableFrom(node.getClass())) {
             try {
+              CommandGene original = node;
+              if (conf.getBreedingThreads() > 1 && node instanceof ICloneable
+                  && ! (node instanceof IImmutableCommand)) {
+                // Other threads breeding in parallel use the same node of the
+                // function set, so mutate a copy of it.
+                // -----------------------------------------------------------
+                node = (CommandGene) ( (ICloneable) node).clone();
+              }
               CommandGene node2 = ( (IMutateable) node).applyMutation(0,
                   random.nextDouble());
               // Check if mutant's function is allowed.
               // --------------------------------------
               if (getCommandOfClass(0, node2.getClass()) >= 0) {
                 mutated = true;
-                if (node2 != node) {
+                if (node2 != original) {
                   node = node2;
                   uncloned = false;
                 }
@@ -666,12 +895,19 @@ public class ProgramChromosome
     // -------------------------------------------------------------------
     boolean dynamize = random.nextDouble() <= conf.getDynamizeArityProb();
     if (dynamize) {
+      if (uncloned && conf.getBreedingThreads() > 1
+          && a_rootNode instanceof ICloneable) {
+        a_rootNode = (CommandGene) ( (ICloneable) a_rootNode).clone();
+        uncloned = false;
+      }
       a_rootNode.dynamizeArity();
     }
-    // Clone node if possible and not already done via mutation.
-    // ---------------------------------------------------------
+    // Clone node if possible and not already done via mutation. Immutable
+    // commands are shared.
+    // --------------------------------------------------------------------
     if (uncloned && !conf.isNoCommandGeneCloning()
-        && a_rootNode instanceof ICloneable) {
+        && a_rootNode instanceof ICloneable
+        && ! (a_rootNode instanceof IImmutableCommand)) {
         /**@todo we could optionally use the clone handler*/
       a_rootNode = (CommandGene) ( (ICloneable) a_rootNode).clone();
       m_genes[m_index++] = a_rootNode;
@@ -682,7 +918,22 @@ public class ProgramChromosome
     if (a_depth >= 1) {
       IGPProgram ind = getIndividual();
       int arity = a_rootNode.getArity(ind);
+      // Reserve the nodes needed to complete the children, so that earlier
+      // children leave enough nodes for later ones.
+      // -------------------------------------------------------------------
+      int[] childNodes = null;
+      if (m_nodeTable != null) {
+        childNodes = new int[arity];
+        for (int i = 0; i < arity; i++) {
+          childNodes[i] = Math.min(m_genes.length, m_nodeTable.getMinSize(
+              a_rootNode.getChildType(ind, i), a_rootNode.getSubChildType(i)));
+          m_reservedNodes += childNodes[i];
+        }
+      }
       for (int i = 0; i < arity; i++) {
+        if (childNodes != null) {
+          m_reservedNodes -= childNodes[i];
+        }
         // Ensure required depth is cared about.
         // -------------------------------------
         if (m_index < m_depth.length) {
@@ -726,8 +977,174 @@ public class ProgramChromosome
    * @since 3.0
    */
   public void redepth() {
+    ensureOwnGenes();
     m_depth[0] = 0;
-    redepth(0);
+    // Rebuild the child lookup index along with the depths. Fresh arrays are
+    // used as a clone may share the index arrays of this chromosome. They
+    // only cover the nodes present plus one, not the maximum number of nodes.
+    // -----------------------------------------------------------------------
+    int len = 0;
+    while (len < m_genes.length && m_genes[len] != null) {
+      len++;
+    }
+    len = Math.min(len + 1, m_depth.length);
+    m_indexValid = false;
+    m_compiled = null;
+    m_fusedNodes = null;
+    m_subtreeEnd = new int[len];
+    m_subtreeDepth = new int[len];
+    m_childStart = new int[len + 1];
+    m_children = new int[len];
+    m_parent = new int[len];
+    m_parent[0] = -1;
+    m_childSlots = 0;
+    int end = redepth(0);
+    if (end > 0) {
+      m_indexedNodes = end;
+      m_childStart[end] = m_childSlots;
+      m_indexValid = true;
+    }
+  }
+
+  /**
+   * Marks the child lookup index as outdated. Call this after modifying the
+   * structure of the program without calling redepth() afterwards.
+   */
+  public void invalidateIndex() {
+    m_indexValid = false;
+    m_compiled = null;
+    m_fusedNodes = null;
+  }
+
+  /**
+   * @return true if the child lookup index built by redepth() is up to date
+   */
+  public boolean isIndexValid() {
+    return m_indexValid;
+  }
+
+  /**
+   * Sets the nodes of this chromosome to those of a_base with the subtree at
+   * a_index replaced by the subtree at a_donorIndex of a_donor, as done when
+   * crossing over. Depths and the child lookup index are derived from those
+   * of both parents by shifting them; only the subtree depths of the ancestors
+   * of a_index are recomputed. If a parent has no valid index, redepth() is
+   * called instead.
+   *
+   * @param a_base the chromosome receiving the subtree
+   * @param a_index index of the subtree of a_base to replace
+   * @param a_donor the chromosome providing the subtree
+   * @param a_donorIndex index of the subtree of a_donor to insert
+   */
+  public void replaceSubtree(ProgramChromosome a_base, int a_index,
+                             ProgramChromosome a_donor, int a_donorIndex) {
+    int s0 = a_base.getSize(a_index);
+    int s1 = a_donor.getSize(a_donorIndex);
+    int size = a_base.getSize(0);
+    int delta = s1 - s0;
+    if (size + delta > m_genes.length) {
+      throw new IllegalArgumentException("Resulting program has "
+                                         + (size + delta)
+                                         + " nodes, only " + m_genes.length
+                                         + " allowed");
+    }
+    ensureOwnGenes();
+    System.arraycopy(a_base.m_genes, 0, m_genes, 0, a_index);
+    System.arraycopy(a_donor.m_genes, a_donorIndex, m_genes, a_index, s1);
+    System.arraycopy(a_base.m_genes, a_index + s0, m_genes, a_index + s1,
+                     size - a_index - s0);
+    for (int i = size + delta; i < m_genes.length && m_genes[i] != null; i++) {
+      m_genes[i] = null;
+    }
+    if (!a_base.m_indexValid || a_base.m_indexedNodes != size
+        || !a_donor.m_indexValid || a_donorIndex + s1 > a_donor.m_indexedNodes) {
+      redepth();
+      return;
+    }
+    int len = size + delta + 1;
+    m_compiled = null;
+    m_fusedNodes = null;
+    m_subtreeEnd = new int[len];
+    m_subtreeDepth = new int[len];
+    m_childStart = new int[len + 1];
+    m_children = new int[len];
+    m_parent = new int[len];
+    int end0 = a_index + s0;
+    int end1 = a_donorIndex + s1;
+    int slot0 = a_base.m_childStart[a_index];
+    int slotEnd0 = a_base.m_childStart[end0];
+    int slot1 = a_donor.m_childStart[a_donorIndex];
+    int slotEnd1 = a_donor.m_childStart[end1];
+    int slotDelta = slotEnd1 - slot1 - (slotEnd0 - slot0);
+    int slots = a_base.m_childSlots + slotDelta;
+    // Nodes before the subtree keep their position, ancestors of the subtree
+    // end later.
+    // ----------------------------------------------------------------------
+    System.arraycopy(a_base.m_depth, 0, m_depth, 0, a_index);
+    System.arraycopy(a_base.m_parent, 0, m_parent, 0, a_index);
+    System.arraycopy(a_base.m_childStart, 0, m_childStart, 0, a_index);
+    System.arraycopy(a_base.m_subtreeEnd, 0, m_subtreeEnd, 0, a_index);
+    System.arraycopy(a_base.m_subtreeDepth, 0, m_subtreeDepth, 0, a_index);
+    System.arraycopy(a_base.m_children, 0, m_children, 0, slot0);
+    if (delta != 0) {
+      for (int a = a_base.m_parent[a_index]; a >= 0; a = m_parent[a]) {
+        m_subtreeEnd[a] += delta;
+      }
+      for (int k = 0; k < slot0; k++) {
+        if (m_children[k] >= end0) {
+          m_children[k] += delta;
+        }
+      }
+    }
+    // The inserted subtree.
+    // ---------------------
+    int shift = a_index - a_donorIndex;
+    int depthShift = a_base.m_depth[a_index] - a_donor.m_depth[a_donorIndex];
+    int slotShift = slot0 - slot1;
+    System.arraycopy(a_donor.m_subtreeDepth, a_donorIndex, m_subtreeDepth,
+                     a_index, s1);
+    for (int j = a_donorIndex; j < end1; j++) {
+      int i = j + shift;
+      m_depth[i] = a_donor.m_depth[j] + depthShift;
+      m_parent[i] = a_donor.m_parent[j] + shift;
+      m_childStart[i] = a_donor.m_childStart[j] + slotShift;
+      m_subtreeEnd[i] = a_donor.m_subtreeEnd[j] + shift;
+    }
+    m_parent[a_index] = a_base.m_parent[a_index];
+    for (int k = slot1; k < slotEnd1; k++) {
+      m_children[k + slotShift] = a_donor.m_children[k] + shift;
+    }
+    // Nodes after the subtree move by the difference in size.
+    // -------------------------------------------------------
+    int rest = size - end0;
+    System.arraycopy(a_base.m_depth, end0, m_depth, end0 + delta, rest);
+    System.arraycopy(a_base.m_subtreeDepth, end0, m_subtreeDepth,
+                     end0 + delta, rest);
+    for (int i = end0; i < size; i++) {
+      int parent = a_base.m_parent[i];
+      m_parent[i + delta] = parent >= end0 ? parent + delta : parent;
+      m_childStart[i + delta] = a_base.m_childStart[i] + slotDelta;
+      m_subtreeEnd[i + delta] = a_base.m_subtreeEnd[i] + delta;
+    }
+    for (int k = slotEnd0; k < a_base.m_childSlots; k++) {
+      m_children[k + slotDelta] = a_base.m_children[k] + delta;
+    }
+    // The depth of the ancestors' subtrees may have changed.
+    // ------------------------------------------------------
+    for (int a = m_parent[a_index]; a >= 0; a = m_parent[a]) {
+      int depth = 0;
+      for (int k = m_childStart[a]; k < m_childStart[a + 1]; k++) {
+        int child = m_children[k];
+        if (m_subtreeDepth[child] + 1 > depth) {
+          depth = m_subtreeDepth[child] + 1;
+        }
+      }
+      m_subtreeDepth[a] = depth;
+    }
+    m_childSlots = slots;
+    m_indexedNodes = size + delta;
+    m_childStart[m_indexedNodes] = slots;
+    m_indexValid = true;
   }
 
   /**
@@ -755,19 +1172,30 @@ public class ProgramChromosome
     }
     IGPProgram ind = getIndividual();
     int arity = command.getArity(ind);
+    int slot = m_childSlots;
+    m_childStart[a_index] = slot;
+    m_childSlots += arity;
+    int depth = 0;
     for (int i = 0; i < arity; i++) {
-      if (num < m_depth.length) {
+      if (num < m_subtreeEnd.length && slot + i < m_children.length) {
         m_depth[num] = m_depth[a_index] + 1;
-        // children[i][n] = num;
+        m_children[slot + i] = num;
+        m_parent[num] = a_index;
+        int child = num;
         num = redepth(num);
         if (num < 0) {
-          break;
+          return -1;
+        }
+        if (m_subtreeDepth[child] + 1 > depth) {
+          depth = m_subtreeDepth[child] + 1;
         }
       }
       else {
         return -1;
       }
     }
+    m_subtreeEnd[a_index] = num;
+    m_subtreeDepth[a_index] = depth;
     return num;
   }
 
@@ -784,6 +1212,14 @@ public class ProgramChromosome
    * @since 3.01
    */
   public int getChild(int a_index, int a_child) {
+    if (m_indexValid && a_index < m_indexedNodes) {
+      int start = m_childStart[a_index];
+      if (a_child < m_childStart[a_index + 1] - start) {
+        return m_children[start + a_child];
+      }
+      // Missing children are reported by the scan below.
+      // ------------------------------------------------
+    }
     int len = getFunctions().length;
     for (int i = a_index + 1; i < len; i++) {
       if (m_depth[i] <= m_depth[a_index]) {
@@ -813,6 +1249,9 @@ public class ProgramChromosome
     if (index == -1) {
       return -2;
     }
+    if (m_indexValid) {
+      return getChild(index, a_child);
+    }
     for (int i = index + 1; i < len; i++) {
       if (m_depth[i] <= m_depth[index]) {
         return -1;
@@ -841,7 +1280,26 @@ public class ProgramChromosome
 
   public void setFunctions(CommandGene[] a_functions)
       throws InvalidConfigurationException {
+    if (m_sharedGenes && m_depth != null) {
+      m_depth = m_depth.clone();
+    }
+    m_sharedGenes = false;
     m_genes = a_functions;
+    m_indexValid = false;
+    m_compiled = null;
+    m_fusedNodes = null;
+    forgetOutputs();
+  }
+
+  /**
+   * Removes the outputs of this chromosome from the subtree cache as its nodes
+   * changed.
+   */
+  private void forgetOutputs() {
+    GPConfiguration conf = getGPConfiguration();
+    if (conf != null && conf.isUseSubtreeCache()) {
+      conf.getSubtreeCache().remove(this);
+    }
   }
 
   /**
@@ -854,6 +1312,9 @@ public class ProgramChromosome
    * @since 3.0
    */
   public int getSize(int a_index) {
+    if (m_indexValid && a_index < m_indexedNodes) {
+      return m_subtreeEnd[a_index] - a_index;
+    }
     int i;
     // Get the node at which the depth is <= depth[n].
     // -----------------------------------------------
@@ -875,6 +1336,9 @@ public class ProgramChromosome
    * @since 3.0
    */
   public int getDepth(int a_index) {
+    if (m_indexValid && a_index < m_indexedNodes) {
+      return m_subtreeDepth[a_index];
+    }
     int maxdepth = m_depth[a_index];
     for (int i = a_index + 1; i < m_genes.length && m_genes[i] != null; i++) {
       if (m_depth[i] <= m_depth[a_index]) {
@@ -902,6 +1366,9 @@ public class ProgramChromosome
     if (a_child >= m_genes.length || m_genes[a_child] == null) {
       return -1;
     }
+    if (m_indexValid && a_child < m_indexedNodes) {
+      return m_parent[a_child];
+    }
     for (int i = a_child - 1; i >= 0; i--) {
       if (m_depth[i] == m_depth[a_child] - 1) {
         return i;
@@ -962,7 +1429,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public boolean execute_boolean(Object[] args) {
-    boolean rtn = m_genes[0].execute_boolean(this, 0, args);
+    boolean rtn = m_genes[0].execute_boolean(getExecutor(), 0, args);
     cleanup();
     return rtn;
   }
@@ -998,7 +1465,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public void execute_void(Object[] args) {
-    m_genes[0].execute_void(this, 0, args);
+    m_genes[0].execute_void(getExecutor(), 0, args);
     cleanup();
   }
 
@@ -1024,7 +1491,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public int execute_int(Object[] args) {
-    int rtn = m_genes[0].execute_int(this, 0, args);
+    int rtn = m_genes[0].execute_int(getExecutor(), 0, args);
     cleanup();
     return rtn;
   }
@@ -1050,7 +1517,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public long execute_long(Object[] args) {
-    long rtn = m_genes[0].execute_long(this, 0, args);
+    long rtn = m_genes[0].execute_long(getExecutor(), 0, args);
     cleanup();
     return rtn;
   }
@@ -1074,7 +1541,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public float execute_float(Object[] args) {
-    float rtn = m_genes[0].execute_float(this, 0, args);
+    float rtn = m_genes[0].execute_float(getExecutor(), 0, args);
     cleanup();
     return rtn;
   }
@@ -1098,7 +1565,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public double execute_double(Object[] args) {
-    double rtn = m_genes[0].execute_double(this, 0, args);
+    double rtn = m_genes[0].execute_double(getExecutor(), 0, args);
     cleanup();
     return rtn;
   }
@@ -1123,7 +1590,7 @@ public class ProgramChromosome
    * @since 3.0
    */
   public Object execute_object(Object[] args) {
-    Object rtn = m_genes[0].execute_object(this, 0, args);
+    Object rtn = m_genes[0].execute_object(getExecutor(), 0, args);
     cleanup();
     return rtn;
   }
@@ -1147,7 +1614,172 @@ public class ProgramChromosome
    * @since 3.0
    */
   public Object execute(Object[] args) {
-    return m_genes[0].execute_object(this, 0, args);
+    return m_genes[0].execute_object(getExecutor(), 0, args);
+  }
+
+  /**
+   * @return the chromosome to execute the nodes with: this one, or a view
+   * using the context of the calling thread if it has one and no context is
+   * set at this chromosome, see EvaluationContext.setCurrent. Resolving the
+   * context once per execution spares the variables from looking it up.
+   */
+  private ProgramChromosome getExecutor() {
+    if (m_context == null) {
+      EvaluationContext current = EvaluationContext.getCurrent();
+      if (current != null) {
+        return view(getIndividual(), current);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Executes this chromosome for all rows of a dataset. Each node is executed
+   * once for a whole column of values. Float programs are rounded to float
+   * precision after each operation, any other program is executed as a double
+   * program.
+   *
+   * @param a_data the dataset
+   * @return the output for each row; the buffer is reused by the next call with
+   * the same dataset
+   */
+  public double[] execute_batch(BatchData a_data) {
+    return execute_batch(a_data, getIndividual());
+  }
+
+  /**
+   * Executes this chromosome for all rows of a dataset, see
+   * execute_batch(BatchData).
+   *
+   * @param a_data the dataset
+   * @param a_ind the program executed; the chromosome may be shared by other
+   * programs executed at the same time
+   * @return the output for each row; the buffer is reused by the next call with
+   * the same dataset
+   */
+  public double[] execute_batch(BatchData a_data, IGPProgram a_ind) {
+    a_data.setFloat(m_genes[0].getReturnType() == CommandGene.FloatClass);
+    double[] result = a_data.getOutput();
+    GPConfiguration conf = getGPConfiguration();
+    if (conf.isCompilePrograms()) {
+      ICompiledProgram compiled = compile(a_data.getVariables());
+      if (ProgramCompiler.isCompiled(compiled)) {
+        compiled.eval(a_data.getColumns(), a_data.getRows(), result);
+        return result;
+      }
+    }
+    // The nodes are executed with a view, which gives nodes executed row by
+    // row the program and the variables of the dataset. The rest of the
+    // state of this run is passed down with the dataset, which belongs to the
+    // calling thread.
+    // -----------------------------------------------------------------------
+    ProgramChromosome view = view(a_ind, a_data.getContext());
+    BatchRun run = new BatchRun(view);
+    BatchRun outer = a_data.getRun();
+    SubtreeOutputCache cache = null;
+    if (conf.isUseSubtreeCache()) {
+      cache = conf.getSubtreeCache();
+      run.m_outputs = cache.prepare(this, a_data);
+    }
+    if (conf.isFuseNodes() && run.m_outputs == null) {
+      run.m_fusing = getFusedNodes();
+    }
+    a_data.setRun(run);
+    try {
+      view.execute_batch(0, a_data, result);
+      if (run.m_outputs != null) {
+        cache.put(this, a_data, run.m_outputs, run.m_reused, run.m_executed);
+      }
+    } finally {
+      a_data.setRun(outer);
+    }
+    cleanup();
+    return result;
+  }
+
+  /**
+   * Executes this chromosome once with the variable values of the given
+   * context. Unlike with setEvaluationContext, the context is only used by
+   * the calling thread.
+   *
+   * @param a_context the variable values
+   * @return the result; 1 for true and 0 for false with boolean programs
+   */
+  double evaluate(EvaluationContext a_context) {
+    ProgramChromosome view = view(getIndividual(), a_context);
+    Class<?> type = m_genes[0].getReturnType();
+    if (type == CommandGene.FloatClass) {
+      return view.execute_float(null);
+    }
+    else if (type == CommandGene.IntegerClass) {
+      return view.execute_int(null);
+    }
+    else if (type == CommandGene.LongClass) {
+      return view.execute_long(null);
+    }
+    else if (type == CommandGene.BooleanClass) {
+      return view.execute_boolean(null) ? 1 : 0;
+    }
+    else {
+      return view.execute_double(null);
+    }
+  }
+
+  private synchronized FusedNodes getFusedNodes() {
+    if (m_fusedNodes == null) {
+      m_fusedNodes = new FusedNodes(this);
+    }
+    return m_fusedNodes;
+  }
+
+  public void execute_batch(int n, int child, BatchData a_data,
+                            double[] a_result) {
+    int other;
+    if (child == 0) {
+      other = n + 1;
+    }
+    else {
+      other = getChild(n, child);
+    }
+    execute_batch(other, a_data, a_result);
+  }
+
+  /**
+   * Executes a node for a dataset, taking its output from the subtree cache if
+   * possible.
+   *
+   * @param a_index index of the node
+   * @param a_data the dataset
+   * @param a_result receives the output of the node
+   */
+  private void execute_batch(int a_index, BatchData a_data,
+                             double[] a_result) {
+    BatchRun run = a_data.getRun();
+    if (run != null && run.m_chrom != this) {
+      // Executed for a dataset from outside of execute_batch(BatchData).
+      // ----------------------------------------------------------------
+      run = null;
+    }
+    double[][] outputs = run == null ? null : run.m_outputs;
+    if (outputs == null || m_genes[a_index].getArity(getIndividual()) == 0) {
+      // Terminals are cheaper to execute than to cache.
+      // -----------------------------------------------
+      if (run == null || run.m_fusing == null
+          || !run.m_fusing.execute(this, a_index, a_data, a_result)) {
+        m_genes[a_index].execute_batch(this, a_index, a_data, a_result);
+      }
+      return;
+    }
+    int rows = a_data.getRows();
+    double[] output = outputs[a_index];
+    if (output != null) {
+      System.arraycopy(output, 0, a_result, 0, rows);
+      run.m_reused++;
+      return;
+    }
+    m_genes[a_index].execute_batch(this, a_index, a_data, a_result);
+    run.m_executed++;
+    outputs[a_index] = Arrays.copyOf(a_result, rows);
   }
 
   public Object execute(int n, int child, Object[] args) {
@@ -1158,13 +1790,64 @@ public class ProgramChromosome
     if (a_gene == null) {
       throw new IllegalArgumentException("Gene must not be null!");
     }
+    ensureOwnGenes();
+    // Replacing a node by one of another arity changes the structure.
+    // ---------------------------------------------------------------
+    if (m_indexValid && (m_genes[index] == null
+                         || m_genes[index].getArity(getIndividual())
+                         != a_gene.getArity(getIndividual()))) {
+      m_indexValid = false;
+    }
     m_genes[index] = a_gene;
+    m_compiled = null;
+    m_fusedNodes = null;
+    forgetOutputs();
+  }
+
+  /**
+   * Compiles this chromosome into a JVM class or postfix code via the
+   * ProgramCompiler of the configuration. The result is kept until the
+   * chromosome is changed, e.g. by crossing over.
+   *
+   * @param a_vars the variables whose values are passed to
+   * ICompiledProgram.eval, in that order
+   * @return the compiled program; if the chromosome contains nodes the compiler
+   * does not support, an adapter running the interpreter
+   */
+  public synchronized ICompiledProgram compile(Variable[] a_vars) {
+    if (m_compiled == null || !Arrays.equals(m_compiledVars, a_vars)) {
+      m_compiled = getGPConfiguration().getProgramCompiler().compile(this,
+          a_vars);
+      m_compiledVars = a_vars;
+    }
+    return m_compiled;
   }
 
   public Class[] getArgTypes() {
     return argTypes;
   }
 
+  /**
+   * Sets the context holding the variable values for executing this
+   * chromosome. The chromosome may be shared by several programs, see
+   * IGPProgram.setEvaluationContext.
+   *
+   * @param a_context the context to use, null to use the values set via
+   * Variable.set
+   */
+  public void setEvaluationContext(EvaluationContext a_context) {
+    m_context = a_context;
+  }
+
+  /**
+   * @return the context holding the variable values, see
+   * setEvaluationContext; while executing for a dataset the one of the
+   * dataset
+   */
+  public EvaluationContext getEvaluationContext() {
+    return m_context;
+  }
+
   public int getArity() {
     return argTypes.length;
   }
@@ -1415,6 +2098,13 @@ public class ProgramChromosome
           genes.add(gene);
         }
         m_genes = (CommandGene[]) genes.toArray(new CommandGene[0]);
+        if (m_sharedGenes && m_depth != null) {
+          m_depth = m_depth.clone();
+        }
+        m_sharedGenes = false;
+        m_indexValid = false;
+        m_compiled = null;
+        m_fusedNodes = null;
       } catch (Exception ex) {
         throw new UnsupportedRepresentationException(ex.toString());
       }
@@ -1547,4 +2237,35 @@ public class ProgramChromosome
     }
     return found;
   }
+
+  /**
+   * State of executing a chromosome for a dataset, see execute_batch. Created
+   * per call and passed down with the dataset, so one chromosome may be
+   * executed by several threads at once.
+   */
+  static final class BatchRun {
+    /**
+     * The view executing the nodes.
+     */
+    final ProgramChromosome m_chrom;
+
+    /**
+     * With the subtree cache: the output of each node, null where not known
+     * yet, see GPConfiguration.setUseSubtreeCache.
+     */
+    double[][] m_outputs;
+
+    int m_reused;
+
+    int m_executed;
+
+    /**
+     * The superinstructions to use, see GPConfiguration.setFuseNodes.
+     */
+    FusedNodes m_fusing;
+
+    BatchRun(ProgramChromosome a_chrom) {
+      m_chrom = a_chrom;
+    }
+  }
 }
@@ -0,0 +1,969 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+import org.apache.log4j.*;
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+
+/**
+ * Compiles a ProgramChromosome into a JVM hidden class implementing
+ * ICompiledProgram, so that evaluating the program no longer goes through the
+ * CommandGene tree interpreter.<p>
+ * Supported are programs with return type float, double or boolean that consist
+ * of Add, Add3, Add4, Subtract, Multiply, Multiply3, Divide, Abs, Max, Min, If,
+ * GreaterThan, LesserThan, Equals, Terminal, Constant and Variable nodes.
+ * Float programs are evaluated with the same rounding as the interpreter, so
+ * the compiled program returns exactly the interpreted result. For any other
+ * program an adapter calling the interpreter is returned.<p>
+ * Programs too large for the JIT, or all programs if generating bytecode is
+ * switched off (see setGenerateBytecode), are translated into postfix code for
+ * a stack machine instead, see PostfixProgram.<p>
+ * Compiled classes are cached by the structure and constants of the program,
+ * so equal programs share one class.<p>
+ * The classes are defined as hidden classes, see
+ * MethodHandles.Lookup.defineHiddenClass, so this class requires Java 15 or
+ * later.
+ */
+public class ProgramCompiler {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private transient static Logger LOGGER = Logger.getLogger(ProgramCompiler.class);
+
+  /**
+   * Maximum length of generated methods in bytes. The JIT does not compile
+   * larger methods, so such programs are left to the interpreter.
+   */
+  public final static int MAX_CODE_LENGTH = 8000;
+
+  /**
+   * Name of the generated classes, must reside in the package of this class.
+   */
+  private final static String CLASS_NAME = "org/jgap/gp/impl/CompiledProgram";
+
+  final static int MODE_FLOAT = 1;
+
+  final static int MODE_DOUBLE = 2;
+
+  final static int MODE_BOOLEAN = 3;
+
+  // Opcodes of the intermediate prefix code a program is translated to before
+  // generating bytecode. The intermediate code serves as the cache key.
+  // -------------------------------------------------------------------------
+  final static int OP_VAR = 1;
+
+  final static int OP_CONST = 2;
+
+  final static int OP_ADD = 3;
+
+  final static int OP_SUB = 4;
+
+  final static int OP_MUL = 5;
+
+  final static int OP_DIV = 6;
+
+  final static int OP_ADD3 = 7;
+
+  final static int OP_ADD4 = 8;
+
+  final static int OP_MUL3 = 9;
+
+  final static int OP_ABS = 10;
+
+  final static int OP_MAX = 11;
+
+  final static int OP_MIN = 12;
+
+  final static int OP_IF = 13;
+
+  final static int OP_GT = 14;
+
+  final static int OP_LT = 15;
+
+  final static int OP_EQ = 16;
+
+  /**
+   * Marks an operation whose result has to be rounded to float precision.
+   */
+  final static int FLOAT_FLAG = 0x100;
+
+  private final Map<CodeKey, ICompiledProgram> m_cache;
+
+  private int m_compiled;
+
+  private int m_cacheHits;
+
+  private int m_interpreted;
+
+  private int m_postfix;
+
+  private boolean m_generateBytecode = true;
+
+  /**
+   * Constructor, caching up to 10000 compiled programs.
+   */
+  public ProgramCompiler() {
+    this(10000);
+  }
+
+  /**
+   * @param a_maxCacheSize maximum number of compiled programs to cache, the
+   * least recently used programs are evicted first
+   */
+  public ProgramCompiler(final int a_maxCacheSize) {
+    m_cache = new LinkedHashMap<CodeKey, ICompiledProgram>(64, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<CodeKey,
+                                          ICompiledProgram> a_eldest) {
+        return size() > a_maxCacheSize;
+      }
+    };
+  }
+
+  /**
+   * Compiles the given chromosome. The chromosome must have been redepthed.
+   *
+   * @param a_chrom the chromosome to compile
+   * @param a_vars the variables the values passed to ICompiledProgram.eval
+   * belong to
+   * @return compiled program, or an adapter to the interpreter if the
+   * chromosome contains unsupported nodes
+   */
+  public ICompiledProgram compile(ProgramChromosome a_chrom, Variable[] a_vars) {
+    long[] code = translate(a_chrom, a_vars);
+    if (code == null) {
+      synchronized (this) {
+        m_interpreted++;
+      }
+      return new InterpretedProgram(a_chrom, a_vars);
+    }
+    CodeKey key = new CodeKey(code);
+    synchronized (this) {
+      ICompiledProgram result = m_cache.get(key);
+      if (result != null) {
+        m_cacheHits++;
+        return result;
+      }
+      if (m_generateBytecode) {
+        try {
+          byte[] bytes = new ClassWriter().write(code);
+          if (bytes != null) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClass(bytes, true);
+            result = (ICompiledProgram) lookup.findConstructor(lookup.
+                lookupClass(), MethodType.methodType(void.class)).invoke();
+            m_cache.put(key, result);
+            m_compiled++;
+            return result;
+          }
+        } catch (Throwable t) {
+          // Ignore but log.
+          // ---------------
+          LOGGER.warn("Compiling program failed, using postfix code", t);
+        }
+      }
+      result = new PostfixProgram(code);
+      m_cache.put(key, result);
+      m_postfix++;
+      return result;
+    }
+  }
+
+  /**
+   * Translates the given chromosome into postfix code, regardless of
+   * setGenerateBytecode. The chromosome must have been redepthed.
+   *
+   * @param a_chrom the chromosome to translate
+   * @param a_vars the variables the values passed to ICompiledProgram.eval
+   * belong to
+   * @return postfix program, or null if the chromosome contains unsupported
+   * nodes
+   */
+  public PostfixProgram compilePostfix(ProgramChromosome a_chrom,
+                                       Variable[] a_vars) {
+    long[] code = translate(a_chrom, a_vars);
+    if (code == null) {
+      return null;
+    }
+    synchronized (this) {
+      m_postfix++;
+    }
+    return new PostfixProgram(code);
+  }
+
+  /**
+   * @param a_program a program returned by compile
+   * @return false: the program is an adapter running the interpreter, as the
+   * chromosome contains nodes the compiler does not support
+   */
+  public static boolean isCompiled(ICompiledProgram a_program) {
+    return ! (a_program instanceof InterpretedProgram);
+  }
+
+  /**
+   * @param a_generate true: generate JVM classes for programs; false: use
+   * postfix code only, e.g. where defining classes at runtime is not allowed
+   */
+  public synchronized void setGenerateBytecode(boolean a_generate) {
+    m_generateBytecode = a_generate;
+  }
+
+  public synchronized boolean isGenerateBytecode() {
+    return m_generateBytecode;
+  }
+
+  /**
+   * @return number of classes generated so far
+   */
+  public synchronized int getCompiledCount() {
+    return m_compiled;
+  }
+
+  /**
+   * @return number of compilations served from the cache
+   */
+  public synchronized int getCacheHitCount() {
+    return m_cacheHits;
+  }
+
+  /**
+   * @return number of programs that had to fall back to the interpreter
+   */
+  public synchronized int getInterpretedCount() {
+    return m_interpreted;
+  }
+
+  /**
+   * @return number of programs translated into postfix code
+   */
+  public synchronized int getPostfixCount() {
+    return m_postfix;
+  }
+
+  /**
+   * @return number of compiled programs currently cached
+   */
+  public synchronized int getCacheSize() {
+    return m_cache.size();
+  }
+
+  /**
+   * Translates a chromosome into the intermediate prefix code. The first
+   * element holds the mode of the program.
+   *
+   * @param a_chrom the chromosome to translate
+   * @param a_vars the variables in slot order
+   * @return the code, or null if the chromosome cannot be compiled
+   */
+  protected long[] translate(ProgramChromosome a_chrom, Variable[] a_vars) {
+    CommandGene root = a_chrom.getGene(0);
+    if (root == null) {
+      return null;
+    }
+    Class<?> type = root.getReturnType();
+    Code code = new Code();
+    try {
+      if (type == CommandGene.FloatClass) {
+        code.add(MODE_FLOAT);
+        if (!translate(a_chrom, 0, true, a_vars, code)) {
+          return null;
+        }
+      }
+      else if (type == CommandGene.DoubleClass) {
+        code.add(MODE_DOUBLE);
+        if (!translate(a_chrom, 0, false, a_vars, code)) {
+          return null;
+        }
+      }
+      else if (type == CommandGene.BooleanClass) {
+        code.add(MODE_BOOLEAN);
+        if (!translateCondition(a_chrom, 0, a_vars, code)) {
+          return null;
+        }
+      }
+      else {
+        return null;
+      }
+    } catch (RuntimeException rex) {
+      // E.g. a Constant holding a value of another type. Let the interpreter
+      // report this.
+      // --------------------------------------------------------------------
+      return null;
+    }
+    return code.toArray();
+  }
+
+  private boolean translate(ProgramChromosome a_chrom, int a_index,
+                            boolean a_float, Variable[] a_vars, Code a_code) {
+    if (a_index < 0) {
+      return false;
+    }
+    CommandGene node = a_chrom.getGene(a_index);
+    Class<?> clazz = node.getClass();
+    int flag = a_float ? FLOAT_FLAG : 0;
+    if (clazz == Variable.class) {
+      for (int i = 0; i < a_vars.length; i++) {
+        if (a_vars[i] == node) {
+          a_code.add(OP_VAR | flag);
+          a_code.add(i);
+          return true;
+        }
+      }
+      return false;
+    }
+    if (clazz == Terminal.class || clazz == Constant.class) {
+      double value;
+      if (a_float) {
+        value = node.execute_float(a_chrom, a_index, null);
+      }
+      else {
+        value = node.execute_double(a_chrom, a_index, null);
+      }
+      a_code.add(OP_CONST);
+      a_code.add(Double.doubleToRawLongBits(value));
+      return true;
+    }
+    int op;
+    int arity;
+    if (clazz == Add.class) {
+      op = OP_ADD;
+      arity = 2;
+    }
+    else if (clazz == Subtract.class) {
+      op = OP_SUB;
+      arity = 2;
+    }
+    else if (clazz == Multiply.class) {
+      op = OP_MUL;
+      arity = 2;
+    }
+    else if (clazz == Divide.class) {
+      op = OP_DIV;
+      arity = 2;
+    }
+    else if (clazz == Add3.class) {
+      op = OP_ADD3;
+      arity = 3;
+    }
+    else if (clazz == Add4.class) {
+      op = OP_ADD4;
+      arity = 4;
+    }
+    else if (clazz == Multiply3.class) {
+      op = OP_MUL3;
+      arity = 3;
+    }
+    else if (clazz == Abs.class) {
+      op = OP_ABS;
+      arity = 1;
+    }
+    else if (clazz == Max.class) {
+      op = OP_MAX;
+      arity = 2;
+    }
+    else if (clazz == Min.class) {
+      op = OP_MIN;
+      arity = 2;
+    }
+    else if (clazz == If.class) {
+      op = OP_IF;
+      arity = 2;
+    }
+    else {
+      return false;
+    }
+    if (node.getArity(a_chrom.getIndividual()) != arity) {
+      return false;
+    }
+    a_code.add(op | flag);
+    for (int i = 0; i < arity; i++) {
+      if (!translate(a_chrom, a_chrom.getChild(a_index, i), a_float, a_vars,
+                     a_code)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean translateCondition(ProgramChromosome a_chrom, int a_index,
+                                     Variable[] a_vars, Code a_code) {
+    if (a_index < 0) {
+      return false;
+    }
+    CommandGene node = a_chrom.getGene(a_index);
+    Class<?> clazz = node.getClass();
+    int op;
+    if (clazz == GreaterThan.class) {
+      op = OP_GT;
+    }
+    else if (clazz == LesserThan.class) {
+      op = OP_LT;
+    }
+    else if (clazz == Equals.class) {
+      op = OP_EQ;
+    }
+    else {
+      return false;
+    }
+    Class<?> childType = node.getChildType(a_chrom.getIndividual(), 0);
+    boolean isFloat;
+    if (childType == CommandGene.FloatClass) {
+      isFloat = true;
+    }
+    else if (childType == CommandGene.DoubleClass) {
+      isFloat = false;
+    }
+    else {
+      return false;
+    }
+    a_code.add(op | (isFloat ? FLOAT_FLAG : 0));
+    return translate(a_chrom, a_chrom.getChild(a_index, 0), isFloat, a_vars,
+                     a_code)
+        && translate(a_chrom, a_chrom.getChild(a_index, 1), isFloat, a_vars,
+                     a_code);
+  }
+
+  /**
+   * Growable array holding intermediate code.
+   */
+  private static class Code {
+    private long[] m_code = new long[32];
+
+    private int m_size;
+
+    public void add(long a_value) {
+      if (m_size == m_code.length) {
+        m_code = Arrays.copyOf(m_code, m_size * 2);
+      }
+      m_code[m_size++] = a_value;
+    }
+
+    public long[] toArray() {
+      return Arrays.copyOf(m_code, m_size);
+    }
+  }
+
+  /**
+   * Cache key: the intermediate code together with its 64 bit FNV-1a hash.
+   * Equal hashes are verified by comparing the code.
+   */
+  private static class CodeKey {
+    private final long[] m_code;
+
+    private final long m_hash;
+
+    public CodeKey(long[] a_code) {
+      m_code = a_code;
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < a_code.length; i++) {
+        hash ^= a_code[i];
+        hash *= 0x100000001b3L;
+      }
+      m_hash = hash;
+    }
+
+    public int hashCode() {
+      return (int) (m_hash ^ (m_hash >>> 32));
+    }
+
+    public boolean equals(Object a_other) {
+      if (! (a_other instanceof CodeKey)) {
+        return false;
+      }
+      CodeKey other = (CodeKey) a_other;
+      return m_hash == other.m_hash && Arrays.equals(m_code, other.m_code);
+    }
+  }
+
+  /**
+   * Fallback for programs that cannot be compiled: puts the variables into an
+   * EvaluationContext of the calling thread and runs the interpreter. May be
+   * called by several threads at once.
+   */
+  private static class InterpretedProgram
+      implements ICompiledProgram {
+    private final static ThreadLocal<EvaluationContext> CONTEXT = new
+        ThreadLocal<EvaluationContext>();
+
+    private final ProgramChromosome m_chrom;
+
+    private final Variable[] m_vars;
+
+    public InterpretedProgram(ProgramChromosome a_chrom, Variable[] a_vars) {
+      m_chrom = a_chrom;
+      m_vars = a_vars;
+    }
+
+    public double eval(double[] a_vars) {
+      EvaluationContext context = CONTEXT.get();
+      if (context == null) {
+        context = new EvaluationContext();
+        CONTEXT.set(context);
+      }
+      for (int i = 0; i < m_vars.length; i++) {
+        context.set(m_vars[i], a_vars[i]);
+      }
+      return m_chrom.evaluate(context);
+    }
+
+    public void eval(double[][] a_columns, int a_rows, double[] a_result) {
+      double[] row = new double[m_vars.length];
+      for (int r = 0; r < a_rows; r++) {
+        for (int i = 0; i < row.length; i++) {
+          row[i] = a_columns[i][r];
+        }
+        a_result[r] = eval(row);
+      }
+    }
+  }
+
+  /**
+   * Writes a class file (version 49, thus without stack map frames) containing
+   * a default constructor and the two eval methods.
+   */
+  private static class ClassWriter {
+    private ByteArrayOutputStream m_pool = new ByteArrayOutputStream();
+
+    private DataOutputStream m_poolOut = new DataOutputStream(m_pool);
+
+    private Map<Object, Integer> m_poolEntries = new HashMap<Object, Integer>();
+
+    private int m_poolCount = 1;
+
+    private byte[] m_code = new byte[256];
+
+    private int m_codeLength;
+
+    private int m_stack;
+
+    private int m_maxStack;
+
+    private long[] m_program;
+
+    private int m_pos;
+
+    /**
+     * True: variables are read from columns at the row in local 4, see
+     * ICompiledProgram.eval(double[][], int, double[]).
+     */
+    private boolean m_batch;
+
+    /**
+     * @param a_program intermediate code of the program
+     * @return the class file, or null if a generated method is too large
+     * @throws IOException never
+     */
+    public byte[] write(long[] a_program)
+        throws IOException {
+      m_program = a_program;
+      // eval(double[]).
+      // ---------------
+      program();
+      emit(0xaf); // dreturn
+      if (m_codeLength > MAX_CODE_LENGTH) {
+        return null;
+      }
+      byte[] rowCode = Arrays.copyOf(m_code, m_codeLength);
+      int rowStack = m_maxStack;
+      // eval(double[][], int, double[]): the program in a loop over the rows,
+      // with the index of the row in local 4.
+      // ---------------------------------------------------------------------
+      m_batch = true;
+      m_codeLength = 0;
+      m_stack = 0;
+      m_maxStack = 0;
+      emit(0x03); // iconst_0
+      emit(0x36); // istore
+      emit(4);
+      int loop = m_codeLength;
+      emit(0x15); // iload
+      emit(4);
+      emit(0x1c); // iload_2
+      int exitJump = jump(0xa2); // if_icmpge
+      emit(0x2d); // aload_3
+      emit(0x15); // iload
+      emit(4);
+      m_stack = 2;
+      program();
+      emit(0x52); // dastore
+      emit(0x84); // iinc
+      emit(4);
+      emit(1);
+      int offset = loop - m_codeLength;
+      emit(0xa7); // goto
+      emit(offset >> 8);
+      emit(offset);
+      patch(exitJump);
+      emit(0xb1); // return
+      if (m_codeLength > MAX_CODE_LENGTH) {
+        return null;
+      }
+      int thisClass = classRef(CLASS_NAME);
+      int superClass = classRef("java/lang/Object");
+      int iface = classRef("org/jgap/gp/ICompiledProgram");
+      int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+      int initName = utf8("<init>");
+      int initDesc = utf8("()V");
+      int evalName = utf8("eval");
+      int evalDesc = utf8("([D)D");
+      int batchDesc = utf8("([[DI[D)V");
+      int codeName = utf8("Code");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(49);
+      out.writeShort(m_poolCount);
+      m_pool.writeTo(out);
+      out.writeShort(0x0031); // public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(iface);
+      out.writeShort(0);
+      out.writeShort(3);
+      // Constructor.
+      // ------------
+      byte[] init = new byte[] {
+          0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit,
+          (byte) 0xb1};
+      writeMethod(out, initName, initDesc, codeName, 1, 1, init, init.length);
+      // The eval methods.
+      // -----------------
+      writeMethod(out, evalName, evalDesc, codeName, rowStack, 2, rowCode,
+                  rowCode.length);
+      writeMethod(out, evalName, batchDesc, codeName, m_maxStack, 5, m_code,
+                  m_codeLength);
+      out.writeShort(0);
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    private void writeMethod(DataOutputStream a_out, int a_name, int a_desc,
+                             int a_codeName, int a_maxStack, int a_maxLocals,
+                             byte[] a_code, int a_length)
+        throws IOException {
+      a_out.writeShort(0x0001); // public
+      a_out.writeShort(a_name);
+      a_out.writeShort(a_desc);
+      a_out.writeShort(1);
+      a_out.writeShort(a_codeName);
+      a_out.writeInt(12 + a_length);
+      a_out.writeShort(a_maxStack);
+      a_out.writeShort(a_maxLocals);
+      a_out.writeInt(a_length);
+      a_out.write(a_code, 0, a_length);
+      a_out.writeShort(0);
+      a_out.writeShort(0);
+    }
+
+    /**
+     * Emits the code for the whole program, leaving its double value on the
+     * stack.
+     */
+    private void program()
+        throws IOException {
+      m_pos = 1;
+      if (m_program[0] == MODE_BOOLEAN) {
+        int falseJump = condition();
+        emit(0x0f); // dconst_1
+        push();
+        int endJump = jump(0xa7); // goto
+        m_stack -= 2;
+        patch(falseJump);
+        emit(0x0e); // dconst_0
+        push();
+        patch(endJump);
+      }
+      else {
+        expression();
+      }
+    }
+
+    /**
+     * Emits the code for the numeric expression at the current position,
+     * leaving its double value on the stack.
+     */
+    private void expression()
+        throws IOException {
+      int op = (int) m_program[m_pos++];
+      boolean round = (op & FLOAT_FLAG) != 0;
+      switch (op & 0xff) {
+        case OP_VAR:
+          int slot = (int) m_program[m_pos++];
+          emit(0x2b); // aload_1
+          push();
+          if (slot <= 5) {
+            emit(0x03 + slot); // iconst_<n>
+          }
+          else {
+            emit(0x11); // sipush
+            emit(slot >> 8);
+            emit(slot);
+          }
+          if (m_batch) {
+            emit(0x32); // aaload
+            emit(0x15); // iload
+            emit(4);
+          }
+          emit(0x31); // daload
+          round(round);
+          break;
+        case OP_CONST:
+          long bits = m_program[m_pos++];
+          if (bits == 0L) {
+            emit(0x0e); // dconst_0
+          }
+          else if (bits == Double.doubleToRawLongBits(1.0d)) {
+            emit(0x0f); // dconst_1
+          }
+          else {
+            int index = doubleConst(bits);
+            emit(0x14); // ldc2_w
+            emit(index >> 8);
+            emit(index);
+          }
+          push();
+          break;
+        case OP_ADD:
+          binary(0x63, round); // dadd
+          break;
+        case OP_SUB:
+          binary(0x67, round); // dsub
+          break;
+        case OP_MUL:
+          binary(0x6b, round); // dmul
+          break;
+        case OP_DIV:
+          binary(0x6f, round); // ddiv
+          break;
+        case OP_ADD3:
+          binary(0x63, round);
+          next(0x63, round);
+          break;
+        case OP_ADD4:
+          binary(0x63, round);
+          next(0x63, round);
+          next(0x63, round);
+          break;
+        case OP_MUL3:
+          binary(0x6b, round);
+          next(0x6b, round);
+          break;
+        case OP_ABS:
+          expression();
+          invokeMath("abs", "(D)D");
+          break;
+        case OP_MAX:
+          expression();
+          expression();
+          invokeMath("max", "(DD)D");
+          m_stack -= 2;
+          break;
+        case OP_MIN:
+          expression();
+          expression();
+          invokeMath("min", "(DD)D");
+          m_stack -= 2;
+          break;
+        case OP_IF:
+          // x >= 0 ? second child : 0
+          // --------------------------
+          expression();
+          emit(0x0e); // dconst_0
+          push();
+          emit(0x97); // dcmpl
+          m_stack -= 4;
+          int elseJump = jump(0x9b); // iflt
+          expression();
+          int endJump = jump(0xa7); // goto
+          m_stack -= 2;
+          patch(elseJump);
+          emit(0x0e); // dconst_0
+          push();
+          patch(endJump);
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation " + op);
+      }
+    }
+
+    /**
+     * Emits the code for the condition at the current position.
+     *
+     * @return position of the jump to patch with the target for false
+     */
+    private int condition()
+        throws IOException {
+      int op = (int) m_program[m_pos++];
+      boolean round = (op & FLOAT_FLAG) != 0;
+      expression();
+      expression();
+      int result;
+      switch (op & 0xff) {
+        case OP_GT:
+          emit(0x97); // dcmpl
+          m_stack -= 4;
+          result = jump(0x9e); // ifle
+          break;
+        case OP_LT:
+          emit(0x98); // dcmpg
+          m_stack -= 4;
+          result = jump(0x9c); // ifge
+          break;
+        case OP_EQ:
+          emit(0x67); // dsub
+          m_stack -= 2;
+          round(round);
+          invokeMath("abs", "(D)D");
+          int index = doubleConst(Double.doubleToRawLongBits(CommandGene.DELTA));
+          emit(0x14); // ldc2_w
+          emit(index >> 8);
+          emit(index);
+          push();
+          emit(0x98); // dcmpg
+          m_stack -= 4;
+          result = jump(0x9c); // ifge
+          break;
+        default:
+          throw new IllegalStateException("Unknown condition " + op);
+      }
+      return result;
+    }
+
+    private void binary(int a_opcode, boolean a_round)
+        throws IOException {
+      expression();
+      next(a_opcode, a_round);
+    }
+
+    private void next(int a_opcode, boolean a_round)
+        throws IOException {
+      expression();
+      emit(a_opcode);
+      m_stack -= 2;
+      round(a_round);
+    }
+
+    private void round(boolean a_round) {
+      if (a_round) {
+        emit(0x90); // d2f
+        emit(0x8d); // f2d
+      }
+    }
+
+    private void invokeMath(String a_name, String a_desc)
+        throws IOException {
+      int index = methodRef("java/lang/Math", a_name, a_desc);
+      emit(0xb8); // invokestatic
+      emit(index >> 8);
+      emit(index);
+    }
+
+    /**
+     * Records a double value pushed onto the operand stack.
+     */
+    private void push() {
+      m_stack += 2;
+      if (m_stack > m_maxStack) {
+        m_maxStack = m_stack;
+      }
+    }
+
+    private int jump(int a_opcode) {
+      int pos = m_codeLength;
+      emit(a_opcode);
+      emit(0);
+      emit(0);
+      return pos;
+    }
+
+    private void patch(int a_jump) {
+      int offset = m_codeLength - a_jump;
+      m_code[a_jump + 1] = (byte) (offset >> 8);
+      m_code[a_jump + 2] = (byte) offset;
+    }
+
+    private void emit(int a_byte) {
+      if (m_codeLength == m_code.length) {
+        m_code = Arrays.copyOf(m_code, m_codeLength * 2);
+      }
+      m_code[m_codeLength++] = (byte) a_byte;
+    }
+
+    private int utf8(String a_value)
+        throws IOException {
+      Integer index = m_poolEntries.get(a_value);
+      if (index == null) {
+        m_poolOut.writeByte(1);
+        m_poolOut.writeUTF(a_value);
+        index = m_poolCount++;
+        m_poolEntries.put(a_value, index);
+      }
+      return index;
+    }
+
+    private int classRef(String a_name)
+        throws IOException {
+      String key = "Class:" + a_name;
+      Integer index = m_poolEntries.get(key);
+      if (index == null) {
+        int name = utf8(a_name);
+        m_poolOut.writeByte(7);
+        m_poolOut.writeShort(name);
+        index = m_poolCount++;
+        m_poolEntries.put(key, index);
+      }
+      return index;
+    }
+
+    private int methodRef(String a_owner, String a_name, String a_desc)
+        throws IOException {
+      String key = "Method:" + a_owner + "." + a_name + a_desc;
+      Integer index = m_poolEntries.get(key);
+      if (index == null) {
+        int owner = classRef(a_owner);
+        int name = utf8(a_name);
+        int desc = utf8(a_desc);
+        m_poolOut.writeByte(12);
+        m_poolOut.writeShort(name);
+        m_poolOut.writeShort(desc);
+        int nameAndType = m_poolCount++;
+        m_poolOut.writeByte(10);
+        m_poolOut.writeShort(owner);
+        m_poolOut.writeShort(nameAndType);
+        index = m_poolCount++;
+        m_poolEntries.put(key, index);
+      }
+      return index;
+    }
+
+    private int doubleConst(long a_bits)
+        throws IOException {
+      Long key = Long.valueOf(a_bits);
+      Integer index = m_poolEntries.get(key);
+      if (index == null) {
+        m_poolOut.writeByte(6);
+        m_poolOut.writeLong(a_bits);
+        index = m_poolCount;
+        // Double constants take two entries.
+        // ----------------------------------
+        m_poolCount += 2;
+        m_poolEntries.put(key, index);
+      }
+      return index;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts the random programs created, see
+ * GPConfiguration.getProgramCreationStatistics. Programs are counted by
+ * GPPopulation.create, prototype programs cloned in place of a random program
+ * by GPPopulation and GPGenotype. May be updated by several threads at once.
+ */
+public class ProgramCreationStatistics {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final AtomicLong m_created = new AtomicLong();
+
+  private final AtomicLong m_failed = new AtomicLong();
+
+  private final AtomicLong m_prototypesCloned = new AtomicLong();
+
+  private final AtomicLong m_nanos = new AtomicLong();
+
+  /**
+   * Records an attempt to create a program.
+   *
+   * @param a_success true: a valid program was created
+   * @param a_nanos time spent in nanoseconds
+   */
+  public void recordCreation(boolean a_success, long a_nanos) {
+    if (a_success) {
+      m_created.incrementAndGet();
+    }
+    else {
+      m_failed.incrementAndGet();
+    }
+    m_nanos.addAndGet(a_nanos);
+  }
+
+  public void recordPrototypeCloned() {
+    m_prototypesCloned.incrementAndGet();
+  }
+
+  /**
+   * @return number of programs created successfully
+   */
+  public long getCreatedCount() {
+    return m_created.get();
+  }
+
+  /**
+   * @return number of attempts that did not result in a valid program
+   */
+  public long getFailedCount() {
+    return m_failed.get();
+  }
+
+  /**
+   * @return number of times the prototype program was cloned because no valid
+   * program could be created
+   */
+  public long getPrototypesClonedCount() {
+    return m_prototypesCloned.get();
+  }
+
+  /**
+   * @return time spent creating programs in nanoseconds, including failed
+   * attempts
+   */
+  public long getCreationNanos() {
+    return m_nanos.get();
+  }
+
+  /**
+   * @return programs created per second of creation time, 0 if none
+   */
+  public double getThroughput() {
+    long nanos = m_nanos.get();
+    if (nanos <= 0) {
+      return 0.0d;
+    }
+    return m_created.get() * 1.0e9d / nanos;
+  }
+
+  public void reset() {
+    m_created.set(0);
+    m_failed.set(0);
+    m_prototypesCloned.set(0);
+    m_nanos.set(0);
+  }
+
+  public String toString() {
+    return "created: " + getCreatedCount() + ", failed: " + getFailedCount()
+        + ", prototypes cloned: " + getPrototypesClonedCount()
+        + ", programs per second: " + Math.round(getThroughput());
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import org.jgap.*;
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+
+/**
+ * Rewrites a ProgramChromosome into an equivalent tree with fewer nodes, see
+ * GPConfiguration.setSimplifyPrograms.<p>
+ * Subtrees of Add, Subtract, Multiply and Divide over Terminal and Constant
+ * nodes are folded into a single Constant, computed with the same precision
+ * and division semantics as the interpreter. Besides, the following
+ * identities are applied: x - 0, x * 1, 1 * x and x / 1 become x.<p>
+ * Identities that only hold for finite values are applied to integer types
+ * only: x + 0 and 0 + x become x, x * 0, 0 * x and x - x become 0. For the
+ * latter, x must consist of Add, Subtract, Multiply, Terminal, Constant and
+ * Variable nodes only. Call setAssumeFinite(true) to apply these identities
+ * to floating point types as well, if the variables never hold infinite or
+ * NaN values and the sign of zero results does not matter.
+ */
+public class ProgramSimplifier {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int NONE = 0;
+
+  private final static int ADD = 1;
+
+  private final static int SUBTRACT = 2;
+
+  private final static int MULTIPLY = 3;
+
+  private final static int DIVIDE = 4;
+
+  private boolean m_assumeFinite;
+
+  private long m_simplifiedCount;
+
+  private long m_removedNodes;
+
+  /**
+   * @param a_assumeFinite true: apply identities which only hold for finite
+   * values to floating point types, too
+   */
+  public void setAssumeFinite(boolean a_assumeFinite) {
+    m_assumeFinite = a_assumeFinite;
+  }
+
+  public boolean isAssumeFinite() {
+    return m_assumeFinite;
+  }
+
+  /**
+   * Simplifies the given chromosome in place.
+   *
+   * @param a_chrom the chromosome to simplify
+   * @return number of nodes removed
+   */
+  public int simplify(ProgramChromosome a_chrom) {
+    synchronized (a_chrom) {
+      CommandGene[] genes = a_chrom.getFunctions();
+      if (genes.length == 0 || genes[0] == null) {
+        return 0;
+      }
+      int size = a_chrom.getSize(0);
+      List<CommandGene> out = new ArrayList<CommandGene>(size);
+      rebuild(a_chrom, 0, out);
+      int removed = size - out.size();
+      if (removed > 0) {
+        // Keep the capacity of the chromosome as crossing over relies on it.
+        // ------------------------------------------------------------------
+        CommandGene[] newGenes = new CommandGene[genes.length];
+        for (int i = 0; i < out.size(); i++) {
+          newGenes[i] = out.get(i);
+        }
+        try {
+          a_chrom.setFunctions(newGenes);
+        } catch (InvalidConfigurationException iex) {
+          throw new IllegalStateException(iex.getMessage());
+        }
+        a_chrom.redepth();
+        synchronized (this) {
+          m_simplifiedCount++;
+          m_removedNodes += removed;
+        }
+      }
+      return removed;
+    }
+  }
+
+  /**
+   * @return number of chromosomes that became smaller
+   */
+  public synchronized long getSimplifiedCount() {
+    return m_simplifiedCount;
+  }
+
+  /**
+   * @return number of nodes removed from all chromosomes
+   */
+  public synchronized long getRemovedNodeCount() {
+    return m_removedNodes;
+  }
+
+  /**
+   * Appends the simplified subtree starting at the given node.
+   *
+   * @param a_chrom the chromosome to simplify
+   * @param a_node index of the node in the chromosome
+   * @param a_out receives the nodes of the simplified tree in prefix order
+   * @return true: the simplified subtree is a single Terminal or Constant
+   */
+  private boolean rebuild(ProgramChromosome a_chrom, int a_node,
+                          List<CommandGene> a_out) {
+    CommandGene node = a_chrom.getFunctions()[a_node];
+    int start = a_out.size();
+    a_out.add(node);
+    if (isConstant(node)) {
+      return true;
+    }
+    int op = getOperator(node);
+    int arity = node.getArity(a_chrom.getIndividual());
+    if (op == NONE || arity != 2) {
+      for (int i = 0; i < arity; i++) {
+        rebuild(a_chrom, a_chrom.getChild(a_node, i), a_out);
+      }
+      return false;
+    }
+    int left = a_out.size();
+    boolean leftConst = rebuild(a_chrom, a_chrom.getChild(a_node, 0), a_out);
+    int right = a_out.size();
+    boolean rightConst = rebuild(a_chrom, a_chrom.getChild(a_node, 1), a_out);
+    int end = a_out.size();
+    Class<?> type = node.getReturnType();
+    boolean integral = type == CommandGene.IntegerClass
+        || type == CommandGene.LongClass;
+    boolean exact = integral || m_assumeFinite;
+    if (leftConst && rightConst) {
+      Object value = fold(op, type, a_out.get(left), a_out.get(right));
+      if (value != null) {
+        replace(a_out, start, end, newConstant(node, value));
+        return true;
+      }
+      return false;
+    }
+    // Identities keeping one operand.
+    // -------------------------------
+    if (rightConst && (op == SUBTRACT || op == ADD && exact)
+        && isValue(a_out.get(right), 0)
+        || rightConst && (op == MULTIPLY || op == DIVIDE)
+        && isValue(a_out.get(right), 1)) {
+      a_out.subList(right, end).clear();
+      a_out.remove(start);
+      return false;
+    }
+    if (leftConst && (op == ADD && exact && isValue(a_out.get(left), 0)
+                      || op == MULTIPLY && isValue(a_out.get(left), 1))) {
+      a_out.subList(start, right).clear();
+      return false;
+    }
+    // Identities resulting in zero.
+    // -----------------------------
+    if (exact
+        && (op == MULTIPLY
+            && (leftConst && isValue(a_out.get(left), 0)
+                && isPure(a_out, right, end)
+                || rightConst && isValue(a_out.get(right), 0)
+                && isPure(a_out, left, right))
+            || op == SUBTRACT && isPure(a_out, left, right)
+            && isSame(a_out, left, right, end))) {
+      replace(a_out, start, end, newConstant(node, box(type, 0)));
+      return true;
+    }
+    return false;
+  }
+
+  private int getOperator(CommandGene a_node) {
+    Class<?> clazz = a_node.getClass();
+    if (clazz == Add.class) {
+      return ADD;
+    }
+    if (clazz == Subtract.class) {
+      return SUBTRACT;
+    }
+    if (clazz == Multiply.class) {
+      return MULTIPLY;
+    }
+    if (clazz == Divide.class) {
+      return DIVIDE;
+    }
+    return NONE;
+  }
+
+  private boolean isConstant(CommandGene a_node) {
+    Class<?> clazz = a_node.getClass();
+    return (clazz == Terminal.class || clazz == Constant.class)
+        && a_node.getCacheValue() instanceof Number;
+  }
+
+  private boolean isValue(CommandGene a_node, double a_value) {
+    return ( (Number) a_node.getCacheValue()).doubleValue() == a_value;
+  }
+
+  /**
+   * @return true: the nodes from a_from to a_to - 1 always compute a finite
+   * value without throwing an exception, given finite variable values
+   */
+  private boolean isPure(List<CommandGene> a_out, int a_from, int a_to) {
+    for (int i = a_from; i < a_to; i++) {
+      Class<?> clazz = a_out.get(i).getClass();
+      if (clazz != Add.class && clazz != Subtract.class
+          && clazz != Multiply.class && clazz != Terminal.class
+          && clazz != Constant.class && clazz != Variable.class) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true: the subtrees a_left to a_right - 1 and a_right to a_end - 1
+   * are equal
+   */
+  private boolean isSame(List<CommandGene> a_out, int a_left, int a_right,
+                         int a_end) {
+    if (a_right - a_left != a_end - a_right) {
+      return false;
+    }
+    for (int i = 0; i < a_right - a_left; i++) {
+      CommandGene n1 = a_out.get(a_left + i);
+      CommandGene n2 = a_out.get(a_right + i);
+      if (n1 != n2) {
+        if (n1.getClass() != n2.getClass()
+            || n1.getReturnType() != n2.getReturnType()) {
+          return false;
+        }
+        Object v1 = n1.getCacheValue();
+        Object v2 = n2.getCacheValue();
+        if (v1 == null ? v2 != null : !v1.equals(v2)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Computes the operation like the execute methods of the operator classes
+   * do.
+   *
+   * @return the result, or null if it cannot be computed at this point
+   */
+  private Object fold(int a_op, Class<?> a_type, CommandGene a_left,
+                      CommandGene a_right) {
+    Number v1 = (Number) a_left.getCacheValue();
+    Number v2 = (Number) a_right.getCacheValue();
+    if (a_type == CommandGene.DoubleClass) {
+      double d1 = v1.doubleValue();
+      double d2 = v2.doubleValue();
+      switch (a_op) {
+        case ADD:
+          return Double.valueOf(d1 + d2);
+        case SUBTRACT:
+          return Double.valueOf(d1 - d2);
+        case MULTIPLY:
+          return Double.valueOf(d1 * d2);
+        default:
+          return Double.valueOf(d1 / d2);
+      }
+    }
+    if (a_type == CommandGene.FloatClass) {
+      float f1 = v1.floatValue();
+      float f2 = v2.floatValue();
+      switch (a_op) {
+        case ADD:
+          return Float.valueOf(f1 + f2);
+        case SUBTRACT:
+          return Float.valueOf(f1 - f2);
+        case MULTIPLY:
+          return Float.valueOf(f1 * f2);
+        default:
+          return Float.valueOf(f1 / f2);
+      }
+    }
+    if (a_type == CommandGene.IntegerClass) {
+      int i1 = v1.intValue();
+      int i2 = v2.intValue();
+      switch (a_op) {
+        case ADD:
+          return Integer.valueOf(i1 + i2);
+        case SUBTRACT:
+          return Integer.valueOf(i1 - i2);
+        case MULTIPLY:
+          return Integer.valueOf(i1 * i2);
+        default:
+          if (i1 == 0) {
+            return Integer.valueOf(0);
+          }
+          if (i2 == 0) {
+            // Leave it to the interpreter to throw the exception.
+            // ---------------------------------------------------
+            return null;
+          }
+          return Integer.valueOf(i1 / i2);
+      }
+    }
+    if (a_type == CommandGene.LongClass) {
+      long l1 = v1.longValue();
+      long l2 = v2.longValue();
+      switch (a_op) {
+        case ADD:
+          return Long.valueOf(l1 + l2);
+        case SUBTRACT:
+          return Long.valueOf(l1 - l2);
+        case MULTIPLY:
+          return Long.valueOf(l1 * l2);
+        default:
+          if (l2 == 0) {
+            return null;
+          }
+          return Long.valueOf(l1 / l2);
+      }
+    }
+    return null;
+  }
+
+  private Object box(Class<?> a_type, int a_value) {
+    if (a_type == CommandGene.DoubleClass) {
+      return Double.valueOf(a_value);
+    }
+    if (a_type == CommandGene.FloatClass) {
+      return Float.valueOf(a_value);
+    }
+    if (a_type == CommandGene.LongClass) {
+      return Long.valueOf(a_value);
+    }
+    return Integer.valueOf(a_value);
+  }
+
+  private CommandGene newConstant(CommandGene a_node, Object a_value) {
+    try {
+      return new Constant(a_node.getGPConfiguration(), a_node.getReturnType(),
+                          a_value, a_node.getSubReturnType());
+    } catch (InvalidConfigurationException iex) {
+      throw new IllegalStateException(iex.getMessage());
+    }
+  }
+
+  private void replace(List<CommandGene> a_out, int a_from, int a_to,
+                       CommandGene a_node) {
+    a_out.subList(a_from + 1, a_to).clear();
+    a_out.set(a_from, a_node);
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+/**
+ * Which program an offspring replaces when evolving steady state, see
+ * GPConfiguration.setSteadyState. Programs whose fitness cannot be computed
+ * are replaced first.
+ */
+public enum ReplacementPolicy {
+  /**
+   * The least fit program of the population.
+   */
+  WORST,
+  /**
+   * The least fit of programs drawn at random, see
+   * GPConfiguration.setReplacementTournamentSize.
+   */
+  INVERSE_TOURNAMENT
+}
@@ -0,0 +1,375 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.lang.ref.*;
+import java.util.*;
+
+import org.jgap.gp.*;
+
+/**
+ * Keeps the output of each node of evaluated chromosomes on a dataset, see
+ * GPConfiguration.setUseSubtreeCache and ProgramChromosome.execute_batch.<p>
+ * When crossing over (see BranchTypingCross) the offspring takes over the
+ * outputs of the parts it was given by its parents, so only the nodes on the
+ * path from the crossover point to the root are executed again when the
+ * offspring is evaluated. Outputs of terminals are not kept.<p>
+ * Only chromosomes whose nodes all implement a batch kernel, i.e. override
+ * CommandGene.execute_batch, are cached: their output depends on their
+ * subtree only. Outputs are stored by BatchData.getKey, so copies of a
+ * dataset used by different threads share them. Chromosomes are referenced
+ * weakly, their entries are dropped once they are garbage collected.<p>
+ * The number of values held is bounded; when exceeded, the least recently
+ * used chromosomes are evicted. An output taken over by an offspring is
+ * counted for the parent and for the offspring, so the memory actually used
+ * stays below the bound. The cache may be used by several threads at once.
+ */
+public class SubtreeOutputCache {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  /**
+   * Values accounted for each entry, in addition to the outputs it holds.
+   */
+  private final static int ENTRY_VALUES = 16;
+
+  private final Map<Key, Entry> m_entries = new LinkedHashMap<Key, Entry>(64,
+      0.75f, true);
+
+  /**
+   * Receives the keys of chromosomes garbage collected.
+   */
+  private final ReferenceQueue<ProgramChromosome> m_collected = new
+      ReferenceQueue<ProgramChromosome>();
+
+  private volatile long m_maxValues;
+
+  private long m_values;
+
+  private long m_reused;
+
+  private long m_computed;
+
+  private long m_evictions;
+
+  /**
+   * @param a_megabytes maximum memory used for outputs
+   */
+  public SubtreeOutputCache(int a_megabytes) {
+    setMaxMemory(a_megabytes);
+  }
+
+  /**
+   * @param a_megabytes maximum memory used for outputs, takes effect with
+   * the next outputs stored
+   */
+  public void setMaxMemory(int a_megabytes) {
+    if (a_megabytes < 1) {
+      throw new IllegalArgumentException("Cache memory must be at least one"
+                                         + " megabyte");
+    }
+    m_maxValues = a_megabytes * (1024L * 1024L / 8);
+  }
+
+  /**
+   * Records that a chromosome was created by replacing a subtree of a parent
+   * by a subtree of a donor: for each dataset the parent was evaluated on, the
+   * chromosome takes over the outputs of the nodes below the crossover point
+   * from the donor and of the others from the parent.
+   *
+   * @param a_child the chromosome created
+   * @param a_parent the chromosome the subtree was replaced in
+   * @param a_point index of the subtree in a_parent and a_child
+   * @param a_removed number of nodes of the subtree removed from a_parent
+   * @param a_donor the chromosome the inserted subtree was taken from
+   * @param a_donorPoint index of the subtree in a_donor
+   * @param a_inserted number of nodes of the subtree inserted
+   */
+  public void recordCross(ProgramChromosome a_child, ProgramChromosome a_parent,
+                          int a_point, int a_removed, ProgramChromosome a_donor,
+                          int a_donorPoint, int a_inserted) {
+    int size = a_child.getSize(0);
+    synchronized (m_entries) {
+      purge();
+      Entry parent = m_entries.get(new Key(a_parent));
+      if (parent == null || parent.m_outputs == null) {
+        return;
+      }
+      Entry donor = m_entries.get(new Key(a_donor));
+      Entry entry = new Entry();
+      entry.m_outputs = new IdentityHashMap<Object, double[][]>(4);
+      int end = a_point + a_inserted;
+      for (Map.Entry<Object, double[][]> e : parent.m_outputs.entrySet()) {
+        double[][] parentOutputs = e.getValue();
+        double[][] donorOutputs = donor == null ? null
+            : donor.getOutputs(e.getKey());
+        double[][] outputs = new double[size][];
+        for (int i = 0; i < size; i++) {
+          if (i < a_point) {
+            outputs[i] = get(parentOutputs, i);
+          }
+          else if (i < end) {
+            outputs[i] = get(donorOutputs, a_donorPoint + i - a_point);
+          }
+          else {
+            outputs[i] = get(parentOutputs, i - a_inserted + a_removed);
+          }
+        }
+        // The nodes above the crossover point have to be executed again.
+        // --------------------------------------------------------------
+        for (int i = a_child.getParentNode(a_point); i >= 0;
+             i = a_child.getParentNode(i)) {
+          outputs[i] = null;
+        }
+        entry.m_outputs.put(e.getKey(), outputs);
+        entry.m_values += countValues(outputs);
+      }
+      Entry old = m_entries.put(new Key(a_child, m_collected), entry);
+      if (old != null) {
+        m_values -= old.m_values;
+      }
+      m_values += entry.m_values;
+      evict();
+    }
+  }
+
+  /**
+   * Forgets the outputs and origin of a chromosome, e.g. because its nodes
+   * were changed.
+   *
+   * @param a_chrom the chromosome
+   */
+  public void remove(ProgramChromosome a_chrom) {
+    synchronized (m_entries) {
+      purge();
+      Entry old = m_entries.remove(new Key(a_chrom));
+      if (old != null) {
+        m_values -= old.m_values;
+      }
+    }
+  }
+
+  /**
+   * Prepares the evaluation of a chromosome: the outputs known from an
+   * earlier evaluation or from the parents are filled in.
+   *
+   * @param a_chrom the chromosome to evaluate
+   * @param a_data the dataset
+   * @return for each node the output, or null where it has to be computed;
+   * null if the chromosome cannot be cached
+   */
+  public double[][] prepare(ProgramChromosome a_chrom, BatchData a_data) {
+    int size = a_chrom.getSize(0);
+    CommandGene[] genes = a_chrom.getFunctions();
+    for (int i = 0; i < size; i++) {
+      if (!BatchData.hasKernel(genes[i])) {
+        return null;
+      }
+    }
+    double[][] outputs = new double[size][];
+    synchronized (m_entries) {
+      Entry entry = m_entries.get(new Key(a_chrom));
+      if (entry == null) {
+        return outputs;
+      }
+      double[][] known = entry.getOutputs(a_data.getKey());
+      if (known != null && known.length == size) {
+        for (int i = 0; i < size; i++) {
+          if (known[i] != null && known[i].length == a_data.getRows()) {
+            outputs[i] = known[i];
+          }
+        }
+      }
+    }
+    return outputs;
+  }
+
+  /**
+   * Stores the outputs of an evaluated chromosome.
+   *
+   * @param a_chrom the chromosome evaluated
+   * @param a_data the dataset
+   * @param a_outputs the outputs returned by prepare, filled during evaluation
+   * @param a_reused number of outputs taken from a_outputs during evaluation
+   * @param a_computed number of nodes executed during evaluation
+   */
+  public void put(ProgramChromosome a_chrom, BatchData a_data,
+                  double[][] a_outputs, int a_reused, int a_computed) {
+    int values = countValues(a_outputs);
+    synchronized (m_entries) {
+      purge();
+      Entry entry = m_entries.get(new Key(a_chrom));
+      if (entry == null) {
+        entry = new Entry();
+        m_entries.put(new Key(a_chrom, m_collected), entry);
+        m_values += entry.m_values;
+      }
+      double[][] old = entry.getOutputs(a_data.getKey());
+      if (entry.m_outputs == null) {
+        entry.m_outputs = new IdentityHashMap<Object, double[][]>(4);
+      }
+      entry.m_outputs.put(a_data.getKey(), a_outputs);
+      if (old != null) {
+        values -= countValues(old);
+      }
+      entry.m_values += values;
+      m_values += values;
+      m_reused += a_reused;
+      m_computed += a_computed;
+      evict();
+    }
+  }
+
+  /**
+   * @return number of subtree outputs taken from the cache instead of
+   * executing the subtree
+   */
+  public long getReusedCount() {
+    synchronized (m_entries) {
+      return m_reused;
+    }
+  }
+
+  /**
+   * @return number of nodes executed while evaluating with the cache
+   */
+  public long getComputedCount() {
+    synchronized (m_entries) {
+      return m_computed;
+    }
+  }
+
+  public long getEvictionCount() {
+    synchronized (m_entries) {
+      return m_evictions;
+    }
+  }
+
+  /**
+   * @return number of values held, including a fixed amount per chromosome
+   */
+  public long getValueCount() {
+    synchronized (m_entries) {
+      return m_values;
+    }
+  }
+
+  /**
+   * Removes all entries. The counters are kept.
+   */
+  public void clear() {
+    synchronized (m_entries) {
+      m_entries.clear();
+      m_values = 0;
+    }
+  }
+
+  /**
+   * Removes the entries of the chromosomes garbage collected.
+   */
+  private void purge() {
+    Reference<? extends ProgramChromosome> collected;
+    while ( (collected = m_collected.poll()) != null) {
+      Entry old = m_entries.remove(collected);
+      if (old != null) {
+        m_values -= old.m_values;
+      }
+    }
+  }
+
+  private static double[] get(double[][] a_outputs, int a_index) {
+    if (a_outputs == null || a_index < 0 || a_index >= a_outputs.length) {
+      return null;
+    }
+    return a_outputs[a_index];
+  }
+
+  private static int countValues(double[][] a_outputs) {
+    int values = 0;
+    for (int i = 0; i < a_outputs.length; i++) {
+      if (a_outputs[i] != null) {
+        values += a_outputs[i].length;
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Removes the least recently used entries until the maximum number of
+   * values is satisfied.
+   */
+  private void evict() {
+    Iterator<Entry> it = m_entries.values().iterator();
+    while (m_values > m_maxValues && it.hasNext()) {
+      Entry entry = it.next();
+      it.remove();
+      m_values -= entry.m_values;
+      m_evictions++;
+    }
+  }
+
+  /**
+   * Identifies a chromosome by reference without keeping it from being
+   * garbage collected.
+   */
+  private static class Key
+      extends WeakReference<ProgramChromosome> {
+    final int m_hash;
+
+    /**
+     * Creates a key for looking up an entry.
+     */
+    Key(ProgramChromosome a_chrom) {
+      super(a_chrom);
+      m_hash = System.identityHashCode(a_chrom);
+    }
+
+    /**
+     * Creates a key for storing an entry, enqueued once the chromosome is
+     * garbage collected.
+     */
+    Key(ProgramChromosome a_chrom,
+        ReferenceQueue<ProgramChromosome> a_queue) {
+      super(a_chrom, a_queue);
+      m_hash = System.identityHashCode(a_chrom);
+    }
+
+    public int hashCode() {
+      return m_hash;
+    }
+
+    public boolean equals(Object a_other) {
+      if (a_other == this) {
+        return true;
+      }
+      if (! (a_other instanceof Key)) {
+        return false;
+      }
+      ProgramChromosome chrom = get();
+      return chrom != null && ( (Key) a_other).get() == chrom;
+    }
+  }
+
+  /**
+   * Outputs of a chromosome for each dataset, by BatchData.getKey.
+   */
+  private static class Entry {
+    Map<Object, double[][]> m_outputs;
+
+    long m_values = ENTRY_VALUES;
+
+    double[][] getOutputs(Object a_dataKey) {
+      if (m_outputs == null) {
+        return null;
+      }
+      return m_outputs.get(a_dataKey);
+    }
+  }
+}
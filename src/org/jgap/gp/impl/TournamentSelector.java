@@ -10,8 +10,6 @@
 package org.jgap.gp.impl;
 
 import java.io.*;
-import java.util.*;
-
 import org.jgap.*;
 import org.jgap.gp.*;
 
@@ -25,12 +23,17 @@ import org.jgap.gp.*;
  * @since 3.2
  */
 public class TournamentSelector
-    implements INaturalGPSelector, Serializable, Cloneable {
+    implements INaturalGPSelector, IBoundedSelector, Serializable, Cloneable {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.7 $";
 
   private int m_tournament_size;
 
+  /**
+   * Arrays reused by the tournaments of a thread.
+   */
+  private transient ThreadLocal<Scratch> m_scratch;
+
   /**
    * Constructor with default tournament size.
    *
@@ -73,38 +76,137 @@ public class TournamentSelector
    * @since 3.2
    */
   public IGPProgram select(GPGenotype a_genotype) {
+    GPConfiguration conf = a_genotype.getGPConfiguration();
+    return select(a_genotype.getGPPopulation(), conf.getRandomGenerator(),
+                  conf.getGPFitnessEvaluator(), getScratch());
+  }
+
+  /**
+   * Does several tournament selections, the same as calling select the given
+   * number of times.
+   *
+   * @param a_genotype the genotype containing the competers
+   * @param a_howMany number of tournaments
+   * @return the winners of the tournaments
+   */
+  public IGPProgram[] selectN(GPGenotype a_genotype, int a_howMany) {
+    GPConfiguration conf = a_genotype.getGPConfiguration();
     GPPopulation pop = a_genotype.getGPPopulation();
-    IGPProgram bestProgram = null;
-    int index = 0;
-    RandomGenerator random = a_genotype.getGPConfiguration().getRandomGenerator();
-    IGPFitnessEvaluator evaluator = a_genotype.getGPConfiguration().
-        getGPFitnessEvaluator();
-    int popSize = pop.getPopSize();
+    RandomGenerator random = conf.getRandomGenerator();
+    IGPFitnessEvaluator evaluator = conf.getGPFitnessEvaluator();
+    Scratch scratch = getScratch();
+    IGPProgram[] result = new IGPProgram[a_howMany];
+    for (int i = 0; i < a_howMany; i++) {
+      result[i] = select(pop, random, evaluator, scratch);
+    }
+    return result;
+  }
+
+  private IGPProgram select(GPPopulation a_pop, RandomGenerator a_random,
+                            IGPFitnessEvaluator a_evaluator,
+                            Scratch a_scratch) {
+    int popSize = a_pop.getPopSize();
+    int size = Math.min(m_tournament_size, popSize);
+    a_scratch.ensureCapacity(size);
+    int[] opponents = a_scratch.m_opponents;
+    int[] drawn = a_scratch.m_drawn;
+    double[] fitness = a_scratch.m_fitness;
+    double[] column = a_pop.getFitnessColumn();
     // Care that in one tournament each individual is only considered once!
+    // The index drawn counts the individuals not drawn before, which are
+    // found by walking the sorted indexes already drawn.
     // --------------------------------------------------------------------
-    List<Integer> indexes = new Vector(popSize);
-    for (int i = 0; i < popSize; i++) {
-      indexes.add(i);
-    }
-    for (int i = 0; i < m_tournament_size; i++) {
-      index = (int) (random.nextDouble() * indexes.size());
-      int realIndex = indexes.get(index);
-      if (bestProgram == null) {
-        bestProgram = pop.getGPProgram(realIndex);
+    for (int i = 0; i < size; i++) {
+      int index = (int) (a_random.nextDouble() * (popSize - i));
+      int j = 0;
+      while (j < i && drawn[j] <= index) {
+        index++;
+        j++;
+      }
+      System.arraycopy(drawn, j, drawn, j + 1, i - j);
+      drawn[j] = index;
+      opponents[i] = index;
+      if (column != null) {
+        fitness[i] = column[index];
       }
       else {
-        IGPProgram prog = pop.getGPProgram(realIndex);
-        if (evaluator.isFitter(prog, bestProgram)) {
-          bestProgram = prog;
-        }
+        fitness[i] = getFitness(a_pop.getGPProgram(index));
+      }
+    }
+    int best = fight(a_evaluator, fitness, size);
+    // A bounded fitness value may be fitter than the complete one, see
+    // GPConfiguration.setBoundedEvaluation. Complete it and fight again.
+    // The fitness column keeps the bounded value, so compare against the
+    // program itself.
+    // ------------------------------------------------------------------
+    IGPProgram bestProgram = a_pop.getGPProgram(opponents[best]);
+    while (true) {
+      if (bestProgram instanceof GPProgramBase
+          && ( (GPProgramBase) bestProgram).isFitnessBounded()) {
+        ( (GPProgramBase) bestProgram).completeFitnessValue();
+      }
+      else if (column == null) {
+        break;
       }
-      if (i < m_tournament_size - 1) {
-        indexes.remove(index);
+      double complete = getFitness(bestProgram);
+      if (Double.compare(complete, fitness[best]) == 0) {
+        break;
       }
+      fitness[best] = complete;
+      best = fight(a_evaluator, fitness, size);
+      bestProgram = a_pop.getGPProgram(opponents[best]);
     }
     return bestProgram;
   }
 
+  /**
+   * @return index of the first fittest value
+   */
+  private int fight(IGPFitnessEvaluator a_evaluator, double[] a_fitness,
+                    int a_size) {
+    int best = 0;
+    for (int i = 1; i < a_size; i++) {
+      if (a_evaluator.isFitter(a_fitness[i], a_fitness[best])) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private double getFitness(IGPProgram a_program) {
+    try {
+      return a_program.getFitnessValue();
+    } catch (IllegalStateException iex) {
+      // Illegal program.
+      // ----------------
+      return Double.NaN;
+    }
+  }
+
+  private Scratch getScratch() {
+    ThreadLocal<Scratch> scratch = m_scratch;
+    if (scratch == null) {
+      scratch = new ThreadLocal<Scratch>();
+      m_scratch = scratch;
+    }
+    Scratch result = scratch.get();
+    if (result == null) {
+      result = new Scratch();
+      scratch.set(result);
+    }
+    return result;
+  }
+
+  /**
+   * The winner of a tournament is among the fittest programs returned with
+   * a probability of 99 percent.
+   *
+   * @return fraction of the fittest programs that nearly all winners come from
+   */
+  public double getSelectedFraction() {
+    return 1.0d - Math.pow(0.01d, 1.0d / Math.max(1, m_tournament_size));
+  }
+
   /**
    * @return deep clone of this instance
    *
@@ -115,4 +217,24 @@ public class TournamentSelector
     TournamentSelector sel = new TournamentSelector(m_tournament_size);
     return sel;
   }
+
+  /**
+   * Opponents of a tournament, in the order drawn and sorted, along with their
+   * fitness values.
+   */
+  private static class Scratch {
+    int[] m_opponents = new int[0];
+
+    int[] m_drawn = new int[0];
+
+    double[] m_fitness = new double[0];
+
+    void ensureCapacity(int a_size) {
+      if (m_opponents.length < a_size) {
+        m_opponents = new int[a_size];
+        m_drawn = new int[a_size];
+        m_fitness = new double[a_size];
+      }
+    }
+  }
 }
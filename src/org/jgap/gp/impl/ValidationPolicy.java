@@ -0,0 +1,31 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+/**
+ * Which programs are validated by GPGenotype.checkErroneousProg and
+ * checkErroneousPop, see GPConfiguration.setValidationPolicy. A program is
+ * valid if its fitness can be computed without exception.
+ */
+public enum ValidationPolicy {
+  /**
+   * No program is validated.
+   */
+  OFF,
+  /**
+   * A share of the programs is validated, see
+   * GPConfiguration.setValidationRate.
+   */
+  SAMPLED,
+  /**
+   * Every program is validated.
+   */
+  ALWAYS
+}
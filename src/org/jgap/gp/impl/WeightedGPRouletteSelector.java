@@ -0,0 +1,271 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.io.*;
+import java.util.*;
+
+import org.jgap.*;
+import org.jgap.gp.*;
+
+/**
+ * Selects programs with a probability proportional to their fitness value,
+ * like spinning a roulette wheel.<p>
+ * The wheel is built once per population as a Walker alias table, so each
+ * spin costs constant time. With DeltaGPFitnessEvaluator or any other
+ * evaluator preferring lower values, a program gets the weight
+ * 1 / (1 + fitness value). Programs without valid fitness value get no
+ * weight. If no program has any weight, all programs are equally likely.<p>
+ * In stochastic universal sampling mode, selectN picks all programs in one
+ * pass with equally spaced pointers over the wheel, which keeps the number
+ * of times a program is picked close to its expected value.
+ */
+public class WeightedGPRouletteSelector
+    implements INaturalGPSelector, Serializable, Cloneable {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static long serialVersionUID = 1L;
+
+  private boolean m_universalSampling;
+
+  /**
+   * The wheel of the population selected from last.
+   */
+  private transient volatile Wheel m_wheel;
+
+  public WeightedGPRouletteSelector() {
+    this(false);
+  }
+
+  /**
+   * @param a_universalSampling true: selectN uses stochastic universal
+   * sampling
+   */
+  public WeightedGPRouletteSelector(boolean a_universalSampling) {
+    m_universalSampling = a_universalSampling;
+  }
+
+  public void setUniversalSampling(boolean a_universalSampling) {
+    m_universalSampling = a_universalSampling;
+  }
+
+  public boolean isUniversalSampling() {
+    return m_universalSampling;
+  }
+
+  /**
+   * Spins the wheel once.
+   *
+   * @param a_genotype the genotype containing the programs to select from
+   * @return the selected program
+   */
+  public IGPProgram select(GPGenotype a_genotype) {
+    GPPopulation pop = a_genotype.getGPPopulation();
+    Wheel wheel = getWheel(pop);
+    RandomGenerator random = a_genotype.getGPConfiguration().getRandomGenerator();
+    return pop.getGPProgram(wheel.spin(random.nextDouble()));
+  }
+
+  /**
+   * Selects several programs at once. With universal sampling, a single
+   * random number places all pointers on the wheel and the programs are
+   * returned in the order of the population. Otherwise, the wheel is spun
+   * once per program.
+   *
+   * @param a_genotype the genotype containing the programs to select from
+   * @param a_howMany number of programs to select
+   * @return the selected programs
+   */
+  public IGPProgram[] selectN(GPGenotype a_genotype, int a_howMany) {
+    GPPopulation pop = a_genotype.getGPPopulation();
+    Wheel wheel = getWheel(pop);
+    RandomGenerator random = a_genotype.getGPConfiguration().getRandomGenerator();
+    IGPProgram[] result = new IGPProgram[a_howMany];
+    if (!m_universalSampling) {
+      for (int i = 0; i < a_howMany; i++) {
+        result[i] = pop.getGPProgram(wheel.spin(random.nextDouble()));
+      }
+      return result;
+    }
+    double[] cumulative = wheel.m_cumulative;
+    double total = cumulative[cumulative.length - 1];
+    double step = total / a_howMany;
+    double pointer = random.nextDouble() * step;
+    int index = 0;
+    for (int i = 0; i < a_howMany; i++, pointer += step) {
+      while (index < cumulative.length - 1 && cumulative[index] <= pointer) {
+        index++;
+      }
+      result[i] = pop.getGPProgram(index);
+    }
+    return result;
+  }
+
+  /**
+   * @param a_pop the population to select from
+   * @return the wheel for the population, built if not done yet
+   */
+  private Wheel getWheel(GPPopulation a_pop) {
+    Wheel wheel = m_wheel;
+    if (wheel == null || wheel.m_pop != a_pop) {
+      synchronized (this) {
+        wheel = m_wheel;
+        if (wheel == null || wheel.m_pop != a_pop) {
+          wheel = new Wheel(a_pop);
+          m_wheel = wheel;
+        }
+      }
+    }
+    return wheel;
+  }
+
+  /**
+   * @return deep clone of this instance
+   */
+  public Object clone() {
+    return new WeightedGPRouletteSelector(m_universalSampling);
+  }
+
+  /**
+   * Alias table and cumulative weights of the programs of a population.
+   */
+  private static class Wheel {
+    final GPPopulation m_pop;
+
+    /**
+     * Probability of keeping a slot instead of taking its alias.
+     */
+    final double[] m_keep;
+
+    final int[] m_alias;
+
+    final double[] m_cumulative;
+
+    Wheel(GPPopulation a_pop) {
+      m_pop = a_pop;
+      int size = 0;
+      while (size < a_pop.size() && a_pop.getGPProgram(size) != null) {
+        size++;
+      }
+      if (size == 0) {
+        throw new IllegalStateException("Population must not be empty");
+      }
+      IGPFitnessEvaluator evaluator = a_pop.getGPConfiguration().
+          getGPFitnessEvaluator();
+      boolean deltaMode = !evaluator.isFitter(2.0d, 1.0d);
+      double[] column = a_pop.getFitnessColumn();
+      double[] weights = new double[size];
+      double total = 0.0d;
+      for (int i = 0; i < size; i++) {
+        IGPProgram program = a_pop.getGPProgram(i);
+        boolean bounded = program instanceof GPProgramBase
+            && ( (GPProgramBase) program).isFitnessBounded();
+        if (column != null && !bounded) {
+          weights[i] = getWeight(column[i], deltaMode);
+        }
+        else {
+          weights[i] = getWeight(program, deltaMode);
+        }
+        total += weights[i];
+      }
+      if (total <= 0.0d || Double.isInfinite(total)) {
+        Arrays.fill(weights, 1.0d);
+        total = size;
+      }
+      m_cumulative = new double[size];
+      double sum = 0.0d;
+      for (int i = 0; i < size; i++) {
+        sum += weights[i];
+        m_cumulative[i] = sum;
+      }
+      // Vose's variant of the alias method: slots below the average weight
+      // are filled up with the excess of slots above it.
+      // -------------------------------------------------------------------
+      m_keep = new double[size];
+      m_alias = new int[size];
+      int[] small = new int[size];
+      int[] large = new int[size];
+      int smallCount = 0;
+      int largeCount = 0;
+      for (int i = 0; i < size; i++) {
+        weights[i] = weights[i] * size / total;
+        if (weights[i] < 1.0d) {
+          small[smallCount++] = i;
+        }
+        else {
+          large[largeCount++] = i;
+        }
+      }
+      while (smallCount > 0 && largeCount > 0) {
+        int less = small[--smallCount];
+        int more = large[--largeCount];
+        m_keep[less] = weights[less];
+        m_alias[less] = more;
+        weights[more] = weights[more] + weights[less] - 1.0d;
+        if (weights[more] < 1.0d) {
+          small[smallCount++] = more;
+        }
+        else {
+          large[largeCount++] = more;
+        }
+      }
+      // Remaining slots are full, apart from rounding errors.
+      // -----------------------------------------------------
+      while (largeCount > 0) {
+        m_keep[large[--largeCount]] = 1.0d;
+      }
+      while (smallCount > 0) {
+        m_keep[small[--smallCount]] = 1.0d;
+      }
+    }
+
+    /**
+     * @param a_random random number between 0 (inclusive) and 1 (exclusive)
+     * @return index of the selected program
+     */
+    int spin(double a_random) {
+      double slot = a_random * m_keep.length;
+      int index = (int) slot;
+      if (slot - index < m_keep[index]) {
+        return index;
+      }
+      return m_alias[index];
+    }
+
+    private static double getWeight(IGPProgram a_program, boolean a_deltaMode) {
+      double fitness;
+      try {
+        if (a_program instanceof GPProgramBase) {
+          // Selection needs the complete fitness value.
+          // -------------------------------------------
+          fitness = ( (GPProgramBase) a_program).completeFitnessValue();
+        }
+        else {
+          fitness = a_program.getFitnessValue();
+        }
+      } catch (IllegalStateException iex) {
+        return 0.0d;
+      }
+      return getWeight(fitness, a_deltaMode);
+    }
+
+    private static double getWeight(double a_fitness, boolean a_deltaMode) {
+      if (Double.isNaN(a_fitness) || Double.isInfinite(a_fitness)
+          || a_fitness < 0) {
+        return 0.0d;
+      }
+      if (a_deltaMode) {
+        return 1.0d / (1.0d + a_fitness);
+      }
+      return a_fitness;
+    }
+  }
+}
@@ -9,6 +9,8 @@
  */
 package org.jgap.gp.terminal;
 
+import java.util.*;
+
 import org.jgap.*;
 import org.jgap.gp.*;
 import org.jgap.gp.impl.*;
@@ -21,7 +23,7 @@ import org.jgap.util.*;
  * @since 3.0
  */
 public class Constant
-    extends MathCommand implements ICloneable {
+    extends MathCommand implements ICloneable, IImmutableCommand {
   /** String containing the CVS revision. Read out via reflection!*/
   private final static String CVS_REVISION = "$Revision: 1.8 $";
 
@@ -43,6 +45,10 @@ public class Constant
     return m_value.toString();
   }
 
+  public Object getCacheValue() {
+    return m_value;
+  }
+
   /**
    * @return textual name of this command
    *
@@ -69,6 +75,21 @@ public class Constant
     return ( (Double) m_value).doubleValue();
   }
 
+  /**
+   * Batch kernel, see CommandGene.execute_batch.
+   */
+  public void execute_batch(ProgramChromosome c, int n, BatchData a_data,
+                            double[] a_result) {
+    double value;
+    if (a_data.isFloat()) {
+      value = execute_float(c, n, null);
+    }
+    else {
+      value = execute_double(c, n, null);
+    }
+    Arrays.fill(a_result, 0, a_data.getRows(), value);
+  }
+
   public Object execute_object(ProgramChromosome c, int n, Object[] args) {
     return m_value;
   }
@@ -9,6 +9,8 @@
  */
 package org.jgap.gp.terminal;
 
+import java.util.*;
+
 import org.jgap.*;
 import org.jgap.gp.*;
 import org.jgap.gp.impl.*;
@@ -320,6 +322,25 @@ public class Terminal
     }
   }
 
+  public Object getCacheValue() {
+    Class retType = getReturnType();
+    if (retType == CommandGene.FloatClass) {
+      return m_value_float;
+    }
+    else if (retType == CommandGene.IntegerClass) {
+      return m_value_int;
+    }
+    else if (retType == CommandGene.LongClass) {
+      return m_value_long;
+    }
+    else if (retType == CommandGene.DoubleClass) {
+      return m_value_double;
+    }
+    else {
+      return toString();
+    }
+  }
+
   public int execute_int(ProgramChromosome c, int n, Object[] args) {
     return m_value_int;
   }
@@ -336,6 +357,21 @@ public class Terminal
     return m_value_double;
   }
 
+  /**
+   * Batch kernel, see CommandGene.execute_batch.
+   */
+  public void execute_batch(ProgramChromosome c, int n, BatchData a_data,
+                            double[] a_result) {
+    double value;
+    if (a_data.isFloat()) {
+      value = m_value_float;
+    }
+    else {
+      value = m_value_double;
+    }
+    Arrays.fill(a_result, 0, a_data.getRows(), value);
+  }
+
   /**
    * Returns a string representation of the terminal.
    *
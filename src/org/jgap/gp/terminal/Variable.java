@@ -37,14 +37,21 @@ public class Variable
   private String m_name;
 
   /**
-   * Current value of the variable.
+   * Current value of the variable, used when no EvaluationContext holds a
+   * value for this variable.
    */
   private Object m_value;
 
+  /**
+   * Index of the value of this variable in an EvaluationContext.
+   */
+  private int m_slot;
+
   public Variable(final GPConfiguration a_conf, String a_varName, Class a_type)
       throws InvalidConfigurationException {
     super(a_conf, 0, a_type);
     m_name = a_varName;
+    m_slot = a_conf.nextVariableSlot();
     vars.put(a_varName, this);
   }
 
@@ -52,6 +59,10 @@ public class Variable
     return m_name;
   }
 
+  public Object getCacheValue() {
+    return m_name;
+  }
+
   /**
    * Attention: It is important to return m_name here (see
    * GPGenotype.putVariable).
@@ -69,30 +80,103 @@ public class Variable
     return null;
   }
 
+  /**
+   * @return index of the value of this variable in an EvaluationContext
+   */
+  public int getSlot() {
+    return m_slot;
+  }
+
+  /**
+   * @param c the chromosome executed
+   * @return the evaluation context holding the value of this variable, or null
+   * if the value set via set(Object) is to be used. The context of the
+   * calling thread has already been resolved by the chromosome, see
+   * ProgramChromosome.execute_double(Object[])
+   */
+  protected EvaluationContext getContext(ProgramChromosome c) {
+    if (c == null) {
+      return null;
+    }
+    EvaluationContext context = c.getEvaluationContext();
+    if (context == null || !context.hasValue(m_slot)) {
+      return null;
+    }
+    return context;
+  }
+
   public boolean execute_boolean(ProgramChromosome c, int n, Object[] args) {
+    EvaluationContext context = getContext(c);
+    if (context != null) {
+      return context.getValue(m_slot) != 0;
+    }
     return ( (Boolean) m_value).booleanValue();
   }
 
   public int execute_int(ProgramChromosome c, int n, Object[] args) {
+    EvaluationContext context = getContext(c);
+    if (context != null) {
+      return (int) context.getValue(m_slot);
+    }
     return ( (Integer) m_value).intValue();
   }
 
   public long execute_long(ProgramChromosome c, int n, Object[] args) {
+    EvaluationContext context = getContext(c);
+    if (context != null) {
+      return (long) context.getValue(m_slot);
+    }
     return ( (Long) m_value).longValue();
   }
 
   public float execute_float(ProgramChromosome c, int n, Object[] args) {
+    EvaluationContext context = getContext(c);
+    if (context != null) {
+      return (float) context.getValue(m_slot);
+    }
     return ( (Float) m_value).floatValue();
   }
 
   public double execute_double(ProgramChromosome c, int n, Object[] args) {
+    EvaluationContext context = getContext(c);
+    if (context != null) {
+      return context.getValue(m_slot);
+    }
     return ( (Double) m_value).doubleValue();
   }
 
   public Object execute_object(ProgramChromosome c, int n, Object[] args) {
+    EvaluationContext context = getContext(c);
+    if (context != null) {
+      return context.getObject(m_slot);
+    }
     return m_value;
   }
 
+  /**
+   * Batch kernel, see CommandGene.execute_batch. Copies the column of this
+   * variable.
+   */
+  public void execute_batch(ProgramChromosome c, int n, BatchData a_data,
+                            double[] a_result) {
+    double[] column = a_data.getColumn(this);
+    if (column == null) {
+      // Not part of the dataset: use the current value.
+      // -----------------------------------------------
+      super.execute_batch(c, n, a_data, a_result);
+      return;
+    }
+    int rows = a_data.getRows();
+    if (a_data.isFloat()) {
+      for (int i = 0; i < rows; i++) {
+        a_result[i] = (float) column[i];
+      }
+    }
+    else {
+      System.arraycopy(column, 0, a_result, 0, rows);
+    }
+  }
+
   /**
    * Gets the one instance of a named variable.
    *
@@ -136,7 +220,9 @@ public class Variable
   }
 
   /**
-   * Sets the value of this named variable.
+   * Sets the value of this named variable. The value is shared by all threads,
+   * unless the calling thread has a current EvaluationContext, which then
+   * receives the value.
    *
    * @param a_value the value to set this variable with
    *
@@ -144,7 +230,19 @@ public class Variable
    * @since 3.0
    */
   public void set(Object a_value) {
-    m_value = a_value;
+    EvaluationContext context = EvaluationContext.getCurrent();
+    if (context == null) {
+      m_value = a_value;
+    }
+    else if (a_value instanceof Number) {
+      context.setValue(m_slot, ( (Number) a_value).doubleValue());
+    }
+    else if (a_value instanceof Boolean) {
+      context.setValue(m_slot, ( (Boolean) a_value).booleanValue() ? 1 : 0);
+    }
+    else {
+      context.setObject(this, a_value);
+    }
   }
 
   public Object getValue() {
@@ -2,8 +2,11 @@ package symbolicRegression;
 
 import org.jgap.gp.GPFitnessFunction;
 import org.jgap.gp.IGPProgram;
+import org.jgap.gp.impl.BatchData;
+import org.jgap.gp.impl.GPConfiguration;
 import org.jgap.gp.terminal.Variable;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -11,9 +14,34 @@ import java.util.List;
  */
 public class SymbolicRegressionFitnessFunction extends GPFitnessFunction {
 
+    /**
+     * Number of blocks of inputs executed at once. Evaluation against a bound stops after the block exceeding it.
+     */
+    private static final int BLOCKS = 4;
+
+    /**
+     * Minimum number of inputs per block, so that each node still executes for many inputs at once.
+     */
+    private static final int MIN_BLOCK_ROWS = 256;
+
     private List<Float> inputs;
     private List<Float> outputs;
 
+    /**
+     * The outputs as primitive values, built on first use
+     */
+    private transient double[] expected;
+
+    /**
+     * The inputs in columnar form, split into blocks of rows, built on first use
+     */
+    private transient BatchData[] sharedData;
+
+    /**
+     * Copies of sharedData, one per thread. The copies share the outputs cached for the blocks.
+     */
+    private final transient ThreadLocal<BatchData[]> batchData = new ThreadLocal<>();
+
     /**
      * Constructor
      *
@@ -27,30 +55,30 @@ public class SymbolicRegressionFitnessFunction extends GPFitnessFunction {
 
     @Override
     protected double evaluate(IGPProgram gpProgram) {
-        Variable variable = gpProgram.getGPConfiguration().getVariable(SymbolicRegressionProblem.VARIABLE_NAME);
-        double error = 0.0f;
+        return evaluate(gpProgram, Double.POSITIVE_INFINITY);
+    }
 
-        // Evaluate function for each input
-        for (int i = 0; i < inputs.size(); i++) {
-            // let the variable X be the input
-            float input = inputs.get(i);
-            variable.set(input);
+    @Override
+    protected double evaluate(IGPProgram gpProgram, double bound) {
+        BatchData[] blocks = getBatchData(gpProgram.getGPConfiguration());
+        double[] expected = this.expected;
+        double error = 0.0f;
+        int row = 0;
 
-            try {
-                // Execute the GP program representing the function to be evolved
-                double result = gpProgram.execute_float(0, null);
+        for (BatchData block : blocks) {
+            // Execute the GP program representing the function to be evolved for a block of inputs at once
+            double[] results = gpProgram.execute_batch(0, block);
+            for (int i = 0; i < block.getRows(); i++, row++) {
                 // Sum up the absolute error between actual and expected result
-                error += Math.abs(result - outputs.get(i));
+                error += Math.abs(results[i] - expected[row]);
                 // If the error is too high, stop evaluation and return worst error possible.
                 if (Double.isInfinite(error)) {
                     return Double.MAX_VALUE;
                 }
-            } catch (ArithmeticException e) {
-                // This should not happen, some illegal operation was executed.
-                // ------------------------------------------------------------
-                System.out.println("x = " + input);
-                System.out.println(gpProgram);
-                throw e;
+            }
+            // The error only grows, so the program cannot get better than the bound anymore.
+            if (error > bound && error >= 0.001) {
+                return error;
             }
         }
 
@@ -61,4 +89,52 @@ public class SymbolicRegressionFitnessFunction extends GPFitnessFunction {
 
         return error;
     }
+
+    @Override
+    public boolean isBoundSupported() {
+        return true;
+    }
+
+    /**
+     * Get the inputs as a single column for the variable X, split into at most BLOCKS blocks of rows. Built on first
+     * use, copied once per thread.
+     *
+     * @param configuration
+     * @return
+     */
+    private BatchData[] getBatchData(GPConfiguration configuration) {
+        BatchData[] data = batchData.get();
+        if (data == null) {
+            BatchData[] shared = getSharedData(configuration);
+            data = new BatchData[shared.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = new BatchData(shared[i]);
+            }
+            batchData.set(data);
+        }
+        return data;
+    }
+
+    private synchronized BatchData[] getSharedData(GPConfiguration configuration) {
+        if (sharedData == null) {
+            Variable variable = configuration.getVariable(SymbolicRegressionProblem.VARIABLE_NAME);
+            double[] column = new double[inputs.size()];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = inputs.get(i);
+            }
+            int blockRows = Math.max(MIN_BLOCK_ROWS, (column.length + BLOCKS - 1) / BLOCKS);
+            Variable[] variables = new Variable[] { variable };
+            sharedData = new BatchData[Math.max(1, (column.length + blockRows - 1) / blockRows)];
+            for (int i = 0; i < sharedData.length; i++) {
+                double[] block = Arrays.copyOfRange(column, Math.min(column.length, i * blockRows),
+                        Math.min(column.length, (i + 1) * blockRows));
+                sharedData[i] = new BatchData(variables, new double[][] { block });
+            }
+            expected = new double[outputs.size()];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = outputs.get(i);
+            }
+        }
+        return sharedData;
+    }
 }
@@ -80,6 +80,13 @@ public class SymbolicRegressionMain {
             config.setMaxCrossoverDepth(10);  // The maximum depth of an individual resulting from crossover. default: 17
             config.setMaxInitDepth(5);  // The maximum depth of an individual when the world is created. default: 7
             // config.setMinInitDepth(2);  // The minimum depth of an individual when the world is created.
+            // config.setFitnessThreads(4);  // Number of threads computing fitness values in parallel.
+            // config.setBreedingThreads(4);  // Number of threads breeding a new generation in parallel.
+            // config.setSimplifyPrograms(true);  // Fold constant subtrees and remove identities like x * 1 before evaluation.
+            // config.setBoundedEvaluation(true);  // Stop evaluating programs as soon as they are worse than the programs tournaments pick from.
+            // config.setUseSubtreeCache(true);  // Reuse the outputs of the subtrees an offspring takes over from its parents.
+            // config.setFuseNodes(true);  // Execute frequent node patterns like a * b + c by one kernel.
+            // config.setSteadyState(true);  // Replace single programs of the population instead of breeding whole generations.
 
             // use a delta fitness evaluator because we compute a defect rate, not a point score.
             config.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
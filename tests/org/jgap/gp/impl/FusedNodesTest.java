@@ -0,0 +1,156 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests FusedNodes: the patterns detected in known programs, and that
+ * executing programs with fused nodes gives exactly the results of the node
+ * kernels.
+ */
+public class FusedNodesTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int ROWS = 50;
+
+  private GPConfiguration m_conf;
+
+  private Variable[] m_vars;
+
+  public static Test suite() {
+    return new TestSuite(FusedNodesTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(150);
+    m_conf.setMaxInitDepth(6);
+    m_conf.setStrictProgramCreation(true);
+  }
+
+  private void createVariables(Class<?> a_type)
+      throws Exception {
+    m_vars = new Variable[] {
+        Variable.create(m_conf, "X", a_type),
+        Variable.create(m_conf, "Y", a_type)};
+  }
+
+  private int countFused(CommandGene[] a_genes)
+      throws Exception {
+    ProgramChromosome chrom = new ProgramChromosome(m_conf, a_genes);
+    chrom.redepth();
+    return new FusedNodes(chrom).getFusedCount();
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testFusedCount_0()
+      throws Exception {
+    Class<?> type = CommandGene.DoubleClass;
+    createVariables(type);
+    // (X * Y) + X: a * b + c, and var * var.
+    // --------------------------------------
+    assertEquals(2, countFused(new CommandGene[] {
+        new Add(m_conf, type), new Multiply(m_conf, type), m_vars[0],
+        m_vars[1], m_vars[0]}));
+    // (X + Y) + (X - Y): an Add chain and two binary nodes with leaves.
+    // ------------------------------------------------------------------
+    assertEquals(3, countFused(new CommandGene[] {
+        new Add(m_conf, type), new Add(m_conf, type), m_vars[0], m_vars[1],
+        new Subtract(m_conf, type), m_vars[0], m_vars[1]}));
+    // sine X * sine Y: no leaf operand, nothing to fuse.
+    // --------------------------------------------------
+    assertEquals(0, countFused(new CommandGene[] {
+        new Multiply(m_conf, type), new Sine(m_conf, type), m_vars[0],
+        new Sine(m_conf, type), m_vars[1]}));
+  }
+
+  private void checkExecute(Class<?> a_type)
+      throws Exception {
+    createVariables(a_type);
+    CommandGene[][] nodeSets = { {
+        m_vars[0], m_vars[1],
+        new Terminal(m_conf, a_type, 0.0d, 3.0d, false),
+        new Add(m_conf, a_type),
+        new Subtract(m_conf, a_type),
+        new Multiply(m_conf, a_type),
+        new Divide(m_conf, a_type),
+        new Sine(m_conf, a_type)}
+    };
+    GPPopulation pop = GPGenotype.randomInitialGenotype(m_conf,
+        new Class<?>[] {a_type}, new Class<?>[][] { {}
+    }, nodeSets, 60, false).getGPPopulation();
+    double[][] columns = new double[2][ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      columns[0][i] = i * 0.37d - 9;
+      columns[1][i] = (i % 7) * 1.5d - 4;
+    }
+    BatchData data = new BatchData(m_vars, columns);
+    int fused = 0;
+    for (int i = 0; i < pop.size(); i++) {
+      IGPProgram program = pop.getGPProgram(i);
+      m_conf.setFuseNodes(false);
+      double[] expected = program.execute_batch(0, data).clone();
+      m_conf.setFuseNodes(true);
+      double[] result = program.execute_batch(0, data);
+      for (int r = 0; r < ROWS; r++) {
+        assertEquals(program.toStringNorm(0) + " row " + r, 0,
+                     Double.compare(expected[r], result[r]));
+      }
+      fused += new FusedNodes(program.getChromosome(0)).getFusedCount();
+    }
+    assertTrue(fused > pop.size());
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testExecuteBatch_0()
+      throws Exception {
+    checkExecute(CommandGene.DoubleClass);
+  }
+
+  /**
+   * Fused nodes round to float precision after each operation, as the node
+   * kernels do.
+   *
+   * @throws Exception
+   */
+  public void testExecuteBatch_1()
+      throws Exception {
+    checkExecute(CommandGene.FloatClass);
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jgap.*;
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the GPIslandModel: the fittest programs of each island arrive at the
+ * islands given by the topology, and runs with the same seed give the same
+ * populations.
+ */
+public class GPIslandModelTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static Class<?> TYPE = CommandGene.DoubleClass;
+
+  private final static int ISLANDS = 3;
+
+  private final static int MIGRATION_SIZE = 2;
+
+  public static Test suite() {
+    return new TestSuite(GPIslandModelTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+  }
+
+  /**
+   * @return a configuration seeded with a_seed
+   */
+  private GPConfiguration createConfiguration(long a_seed)
+      throws Exception {
+    GPConfiguration.reset();
+    GPConfiguration conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(a_seed);
+    conf.setRandomGenerator(random);
+    conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    conf.setFitnessFunction(new ErrorFitness());
+    conf.setPopulationSize(40);
+    conf.setMaxInitDepth(4);
+    conf.setMaxCrossoverDepth(8);
+    conf.setStrictProgramCreation(true);
+    return conf;
+  }
+
+  private RecordingGenotype createIsland(GPConfiguration a_conf)
+      throws Exception {
+    CommandGene[][] nodeSets = { {
+        Variable.create(a_conf, "X", TYPE),
+        new Terminal(a_conf, TYPE, 0.0d, 3.0d, false),
+        new Add(a_conf, TYPE),
+        new Subtract(a_conf, TYPE),
+        new Multiply(a_conf, TYPE)}
+    };
+    Class<?>[] types = {TYPE};
+    Class<?>[][] argTypes = { {}
+    };
+    GPPopulation pop = GPGenotype.randomInitialGenotype(a_conf, types,
+        argTypes, nodeSets, 30, false).getGPPopulation();
+    return new RecordingGenotype(a_conf, pop, types, argTypes, nodeSets);
+  }
+
+  private GPIslandModel createModel(MigrationTopology a_topology)
+      throws Exception {
+    GPConfiguration[] confs = GPIslandModel.forkConfigurations(
+        createConfiguration(42), ISLANDS);
+    GPGenotype[] islands = new GPGenotype[ISLANDS];
+    for (int i = 0; i < ISLANDS; i++) {
+      islands[i] = createIsland(confs[i]);
+    }
+    GPIslandModel model = new GPIslandModel(islands);
+    model.setMigrationInterval(3);
+    model.setMigrationSize(MIGRATION_SIZE);
+    model.setMigrationTopology(a_topology);
+    return model;
+  }
+
+  private static List<IGPProgram> getReceived(GPIslandModel a_model,
+                                              int a_island) {
+    return ( (RecordingGenotype) a_model.getIsland(a_island)).m_received;
+  }
+
+  /**
+   * @return the programs of a population in normalized form
+   */
+  private static List<String> toStrings(GPPopulation a_pop) {
+    List<String> result = new ArrayList<String>();
+    for (int i = 0; i < a_pop.size(); i++) {
+      result.add(a_pop.getGPProgram(i).toStringNorm(0));
+    }
+    return result;
+  }
+
+  /**
+   * @return the populations and migrants received of all islands
+   */
+  private static List<String> toStrings(GPIslandModel a_model) {
+    List<String> result = new ArrayList<String>();
+    for (int i = 0; i < a_model.getIslandCount(); i++) {
+      result.addAll(toStrings(a_model.getIsland(i).getGPPopulation()));
+      for (IGPProgram migrant : getReceived(a_model, i)) {
+        result.add(migrant.toStringNorm(0));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the programs an island sends, fittest first
+   */
+  private static List<IGPProgram> getFittest(GPGenotype a_island) {
+    GPPopulation pop = a_island.getGPPopulation();
+    int[] order = pop.getIndexesByFitness();
+    List<IGPProgram> result = new ArrayList<IGPProgram>();
+    for (int i = 0; i < order.length && result.size() < MIGRATION_SIZE; i++) {
+      IGPProgram program = pop.getGPProgram(order[i]);
+      if (!GPGenotype.isBounded(program)) {
+        result.add(program);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testConstruct_0()
+      throws Exception {
+    try {
+      new GPIslandModel(new GPGenotype[0]);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+    GPGenotype island = createIsland(createConfiguration(42));
+    try {
+      new GPIslandModel(new GPGenotype[] {island, island});
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+    GPIslandModel model = new GPIslandModel(new GPGenotype[] {island});
+    try {
+      model.setMigrationInterval(0);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+    try {
+      model.setMigrationTopology(null);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+  }
+
+  /**
+   * Each island gets its own configuration and random generator, seeded
+   * from the given configuration.
+   *
+   * @throws Exception
+   */
+  public void testForkConfigurations_0()
+      throws Exception {
+    GPConfiguration[] confs = GPIslandModel.forkConfigurations(
+        createConfiguration(7), ISLANDS);
+    long[] seeds = new long[ISLANDS];
+    for (int i = 0; i < ISLANDS; i++) {
+      seeds[i] = confs[i].getRandomGenerator().nextLong();
+      for (int j = 0; j < i; j++) {
+        assertNotSame(confs[j], confs[i]);
+        assertTrue(seeds[j] != seeds[i]);
+      }
+    }
+    confs = GPIslandModel.forkConfigurations(createConfiguration(7), ISLANDS);
+    for (int i = 0; i < ISLANDS; i++) {
+      assertEquals(seeds[i], confs[i].getRandomGenerator().nextLong());
+    }
+  }
+
+  /**
+   * With the ring topology, the fittest programs of an island arrive at the
+   * next island before it evolves again, copied into its configuration.
+   *
+   * @throws Exception
+   */
+  public void testEvolve_0()
+      throws Exception {
+    GPIslandModel model = createModel(MigrationTopology.RING);
+    model.evolve(2);
+    for (int i = 0; i < ISLANDS; i++) {
+      assertTrue(getReceived(model, i).isEmpty());
+    }
+    // The migration interval is counted over both calls, programs are sent
+    // after the third generation and received before the fourth.
+    // --------------------------------------------------------------------
+    model.evolve(1);
+    assertEquals(3, model.getGeneration());
+    List<List<IGPProgram>> sent = new ArrayList<List<IGPProgram>>();
+    for (int i = 0; i < ISLANDS; i++) {
+      assertTrue(getReceived(model, i).isEmpty());
+      sent.add(getFittest(model.getIsland(i)));
+    }
+    model.evolve(1);
+    for (int i = 0; i < ISLANDS; i++) {
+      List<IGPProgram> expected = sent.get( (i + ISLANDS - 1) % ISLANDS);
+      List<IGPProgram> received = getReceived(model, i);
+      assertEquals(MIGRATION_SIZE, received.size());
+      for (int j = 0; j < MIGRATION_SIZE; j++) {
+        IGPProgram migrant = received.get(j);
+        assertEquals(expected.get(j).toStringNorm(0), migrant.toStringNorm(0));
+        assertEquals(expected.get(j).getFitnessValue(),
+                     migrant.getFitnessValue(), 0.0d);
+        assertSame(model.getIsland(i).getGPConfiguration(),
+                   migrant.getGPConfiguration());
+      }
+      assertEquals(40, model.getIsland(i).getGPPopulation().size());
+    }
+  }
+
+  /**
+   * With the random topology, each island sends its fittest programs to one
+   * other island.
+   *
+   * @throws Exception
+   */
+  public void testEvolve_1()
+      throws Exception {
+    GPIslandModel model = createModel(MigrationTopology.RANDOM);
+    model.evolve(4);
+    int received = 0;
+    for (int i = 0; i < ISLANDS; i++) {
+      received += getReceived(model, i).size();
+    }
+    assertEquals(ISLANDS * MIGRATION_SIZE, received);
+  }
+
+  /**
+   * Runs with the same seed give the same populations, although the islands
+   * evolve in parallel.
+   *
+   * @throws Exception
+   */
+  public void testEvolve_2()
+      throws Exception {
+    for (MigrationTopology topology : new MigrationTopology[] {
+        MigrationTopology.RING, MigrationTopology.RANDOM}) {
+      GPIslandModel model = createModel(topology);
+      model.evolve(7);
+      List<String> expected = toStrings(model);
+      model = createModel(topology);
+      model.evolve(3);
+      model.evolve(4);
+      assertEquals(topology.toString(), expected, toStrings(model));
+    }
+  }
+
+  /**
+   * Without migration, the islands evolve as if alone.
+   *
+   * @throws Exception
+   */
+  public void testEvolve_3()
+      throws Exception {
+    GPIslandModel model = createModel(MigrationTopology.RING);
+    model.setMigrationSize(0);
+    model.evolve(4);
+    GPConfiguration[] confs = GPIslandModel.forkConfigurations(
+        createConfiguration(42), ISLANDS);
+    GPGenotype[] islands = new GPGenotype[ISLANDS];
+    for (int i = 0; i < ISLANDS; i++) {
+      islands[i] = createIsland(confs[i]);
+    }
+    for (int i = 0; i < ISLANDS; i++) {
+      islands[i].evolve(4);
+      assertTrue(getReceived(model, i).isEmpty());
+      assertEquals(toStrings(islands[i].getGPPopulation()),
+                   toStrings(model.getIsland(i).getGPPopulation()));
+    }
+  }
+
+  /**
+   * Records the migrants received.
+   */
+  private static class RecordingGenotype
+      extends GPGenotype {
+    private static final long serialVersionUID = 1L;
+
+    private final List<IGPProgram> m_received = new ArrayList<IGPProgram>();
+
+    RecordingGenotype(GPConfiguration a_conf, GPPopulation a_pop,
+                      Class<?>[] a_types, Class<?>[][] a_argTypes,
+                      CommandGene[][] a_nodeSets)
+        throws InvalidConfigurationException {
+      super(a_conf, a_pop, a_types, a_argTypes, a_nodeSets, null, null, 30);
+    }
+
+    public void addMigrants(IGPProgram[] a_migrants) {
+      m_received.addAll(Arrays.asList(a_migrants));
+      super.addMigrants(a_migrants);
+    }
+  }
+
+  /**
+   * Sum of the absolute errors against x * x + x.
+   */
+  private static class ErrorFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      double[] column = new double[20];
+      for (int i = 0; i < column.length; i++) {
+        column[i] = i * 0.2d - 2;
+      }
+      Variable x = a_program.getGPConfiguration().getVariable("X");
+      double[] result = a_program.execute_batch(0, new BatchData(
+          new Variable[] {x}, new double[][] {column}));
+      double error = 0;
+      for (int i = 0; i < column.length; i++) {
+        error += Math.abs(result[i] - column[i] * (column[i] + 1));
+      }
+      return Double.isNaN(error) || error > 1e10d ? 1e10d : error;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the fitness, size and depth columns of GPPopulation and the order of
+ * programs by fitness derived from them.
+ */
+public class GPPopulationTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private GPConfiguration m_conf;
+
+  public static Test suite() {
+    return new TestSuite(GPPopulationTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setMaxInitDepth(4);
+    m_conf.setStrictProgramCreation(true);
+  }
+
+  /**
+   * Creates a population with the given fitness values, leaving the slots
+   * with a NaN value empty.
+   */
+  private GPPopulation createPopulation(double[] a_fitness)
+      throws Exception {
+    m_conf.setPopulationSize(a_fitness.length);
+    Class<?> type = CommandGene.DoubleClass;
+    CommandGene[][] nodeSets = { {
+        Variable.create(m_conf, "X", type),
+        new Terminal(m_conf, type, 0.0d, 3.0d, false),
+        new Add(m_conf, type),
+        new Multiply(m_conf, type)}
+    };
+    GPPopulation pop = GPGenotype.randomInitialGenotype(m_conf,
+        new Class<?>[] {type}, new Class<?>[][] { {}
+    }, nodeSets, 30, false).getGPPopulation();
+    for (int i = 0; i < a_fitness.length; i++) {
+      if (Double.isNaN(a_fitness[i])) {
+        pop.setGPProgram(i, null);
+      }
+      else {
+        pop.getGPProgram(i).setFitnessValue(a_fitness[i]);
+      }
+    }
+    pop.updateFitnessColumn();
+    return pop;
+  }
+
+  private void assertOrder(int[] a_expected, int[] a_order) {
+    assertEquals(Arrays.toString(a_expected), Arrays.toString(a_order));
+  }
+
+  /**
+   * Fittest first, equal values keep their order, NaN last.
+   *
+   * @throws Exception
+   */
+  public void testGetIndexesByFitness_0()
+      throws Exception {
+    GPPopulation pop = createPopulation(new double[] {3, 1, Double.NaN, 1, 0,
+                                        3, Double.NaN, 2, 1, 0});
+    assertTrue(Double.isNaN(pop.getFitnessColumn()[2]));
+    assertOrder(new int[] {4, 9, 1, 3, 8, 7, 0, 5, 2, 6},
+                pop.getIndexesByFitness());
+  }
+
+  /**
+   * Higher values are fitter with DefaultGPFitnessEvaluator, NaN still last.
+   *
+   * @throws Exception
+   */
+  public void testGetIndexesByFitness_1()
+      throws Exception {
+    m_conf.setGPFitnessEvaluator(new DefaultGPFitnessEvaluator());
+    GPPopulation pop = createPopulation(new double[] {3, 1, Double.NaN, 1, 0,
+                                        3, Double.NaN, 2, 1, 0});
+    assertOrder(new int[] {0, 5, 7, 1, 3, 8, 4, 9, 2, 6},
+                pop.getIndexesByFitness());
+  }
+
+  /**
+   * The merge sort agrees with a stable sort of the indexes on a larger
+   * population with many equal values.
+   *
+   * @throws Exception
+   */
+  public void testGetIndexesByFitness_2()
+      throws Exception {
+    Random random = new Random(3);
+    final double[] fitness = new double[157];
+    for (int i = 0; i < fitness.length; i++) {
+      int value = random.nextInt(12);
+      fitness[i] = value == 11 ? Double.NaN : value;
+    }
+    GPPopulation pop = createPopulation(fitness);
+    Integer[] expected = new Integer[fitness.length];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = i;
+    }
+    Arrays.sort(expected, new Comparator<Integer>() {
+      public int compare(Integer a_index1, Integer a_index2) {
+        double f1 = fitness[a_index1];
+        double f2 = fitness[a_index2];
+        if (Double.isNaN(f1) || Double.isNaN(f2)) {
+          return Boolean.compare(Double.isNaN(f1), Double.isNaN(f2));
+        }
+        return Double.compare(f1, f2);
+      }
+    });
+    int[] order = pop.getIndexesByFitness();
+    for (int i = 0; i < order.length; i++) {
+      assertEquals("position " + i, expected[i].intValue(), order[i]);
+    }
+  }
+
+  /**
+   * Sorting rearranges the programs and the fitness column alike, empty slots
+   * last.
+   *
+   * @throws Exception
+   */
+  public void testSortByFitness_0()
+      throws Exception {
+    GPPopulation pop = createPopulation(new double[] {3, 1, Double.NaN, 1, 0,
+                                        3, Double.NaN, 2, 1, 0});
+    IGPProgram[] programs = pop.getGPPrograms().clone();
+    int[] order = pop.getIndexesByFitness();
+    pop.sortByFitness();
+    double[] column = pop.getFitnessColumn();
+    for (int i = 0; i < order.length; i++) {
+      assertSame(programs[order[i]], pop.getGPProgram(i));
+      if (i < 8) {
+        assertEquals(pop.getGPProgram(i).getFitnessValue(), column[i], 0.0d);
+      }
+      else {
+        assertNull(pop.getGPProgram(i));
+        assertTrue(Double.isNaN(column[i]));
+      }
+    }
+    assertSame(pop.getGPProgram(0), pop.determineFittestProgram());
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testSizeColumn_0()
+      throws Exception {
+    GPPopulation pop = createPopulation(new double[] {5, 4, 3, 2, 1, 0});
+    int[] sizes = pop.getSizeColumn();
+    int[] depths = pop.getDepthColumn();
+    for (int i = 0; i < pop.size(); i++) {
+      ProgramChromosome chrom = pop.getGPProgram(i).getChromosome(0);
+      assertEquals(chrom.getSize(0), sizes[i]);
+      assertEquals(chrom.getDepth(0), depths[i]);
+    }
+    pop.setGPProgram(0, pop.getGPProgram(1));
+    assertNull(pop.getFitnessColumn());
+    assertNull(pop.getSizeColumn());
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the NodeTable: nodes are selected by return type, as terminal or
+ * function, rejected positions and nodes not fitting the remaining depth and
+ * number of nodes are left out.
+ */
+public class NodeTableTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static Class<?> DOUBLE = CommandGene.DoubleClass;
+
+  private final static Class<?> FLOAT = CommandGene.FloatClass;
+
+  private GPConfiguration m_conf;
+
+  private StockRandomGenerator m_random;
+
+  private CommandGene[] m_nodeSet;
+
+  /**
+   * The node set followed by an Argument of type double.
+   */
+  private CommandGene[] m_functionSet;
+
+  private NodeTable m_table;
+
+  public static Test suite() {
+    return new TestSuite(NodeTableTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    m_random = new StockRandomGenerator();
+    m_random.setSeed(42);
+    m_conf.setRandomGenerator(m_random);
+    m_nodeSet = new CommandGene[] {
+        Variable.create(m_conf, "X", DOUBLE),
+        new Terminal(m_conf, DOUBLE, 0.0d, 3.0d, false),
+        new Add(m_conf, DOUBLE),
+        new Multiply(m_conf, DOUBLE),
+        new Sine(m_conf, DOUBLE),
+        new Terminal(m_conf, FLOAT, 0.0d, 3.0d, false),
+        new Add(m_conf, FLOAT)};
+    m_functionSet = new CommandGene[m_nodeSet.length + 1];
+    System.arraycopy(m_nodeSet, 0, m_functionSet, 0, m_nodeSet.length);
+    m_functionSet[m_nodeSet.length] = new Argument(m_conf, 0, DOUBLE);
+    m_table = new NodeTable(m_nodeSet, new Class<?>[] {DOUBLE});
+  }
+
+  private int[] count(Class<?> a_type, boolean a_function, boolean a_growing,
+                      long[] a_rejected) {
+    int[] counts = new int[m_functionSet.length];
+    for (int i = 0; i < 2000; i++) {
+      int position = m_table.select(m_functionSet, null, a_type, 0,
+                                    a_function, a_growing, a_rejected,
+                                    m_random);
+      assertTrue(position >= 0);
+      counts[position]++;
+    }
+    return counts;
+  }
+
+  private void assertChosen(int[] a_counts, int[] a_positions) {
+    boolean[] expected = new boolean[a_counts.length];
+    for (int position : a_positions) {
+      expected[position] = true;
+    }
+    for (int i = 0; i < a_counts.length; i++) {
+      assertEquals("position " + i, expected[i], a_counts[i] > 0);
+    }
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testSize_0()
+      throws Exception {
+    assertEquals(m_functionSet.length, m_table.size());
+    assertTrue(m_table.isFor(new Class<?>[] {DOUBLE}));
+    assertFalse(m_table.isFor(new Class<?>[] {}));
+  }
+
+  /**
+   * Terminals of the return type, including the argument.
+   *
+   * @throws Exception
+   */
+  public void testSelect_0()
+      throws Exception {
+    assertChosen(count(DOUBLE, false, false, null), new int[] {0, 1, 7});
+    assertChosen(count(FLOAT, false, false, null), new int[] {5});
+  }
+
+  /**
+   * Functions of the return type in full mode, all nodes when growing.
+   *
+   * @throws Exception
+   */
+  public void testSelect_1()
+      throws Exception {
+    assertChosen(count(DOUBLE, true, false, null), new int[] {2, 3, 4});
+    assertChosen(count(DOUBLE, true, true, null),
+                 new int[] {0, 1, 2, 3, 4, 7});
+    assertChosen(count(FLOAT, true, true, null), new int[] {5, 6});
+  }
+
+  /**
+   * Rejected positions are never chosen, nothing left gives -1.
+   *
+   * @throws Exception
+   */
+  public void testSelect_2()
+      throws Exception {
+    long[] rejected = m_table.reject(null, 3);
+    assertChosen(count(DOUBLE, true, false, rejected), new int[] {2, 4});
+    rejected = m_table.reject(rejected, 2);
+    rejected = m_table.reject(rejected, 4);
+    // Full mode falls back to a terminal if no function is left.
+    // -----------------------------------------------------------
+    assertChosen(count(DOUBLE, true, false, rejected), new int[] {0, 1, 7});
+    rejected = m_table.reject(rejected, 5);
+    assertEquals( -1, m_table.select(m_functionSet, null, FLOAT, 0, false,
+                                     false, rejected, m_random));
+  }
+
+  /**
+   * No node of the return type gives -1.
+   *
+   * @throws Exception
+   */
+  public void testSelect_3()
+      throws Exception {
+    assertEquals( -1, m_table.select(m_functionSet, null,
+                                     CommandGene.IntegerClass, 0, true, true,
+                                     null, m_random));
+  }
+
+  /**
+   * Selecting from the table picks the same node as filtering the function
+   * set with the same random number.
+   *
+   * @throws Exception
+   */
+  public void testSelect_4()
+      throws Exception {
+    int[] doubles = {0, 1, 2, 3, 4, 7};
+    StockRandomGenerator random = new StockRandomGenerator();
+    for (int seed = 0; seed < 50; seed++) {
+      random.setSeed(seed);
+      int position = m_table.select(m_functionSet, null, DOUBLE, 0, true,
+                                    true, null, random);
+      random.setSeed(seed);
+      assertEquals(doubles[random.nextInt(doubles.length)], position);
+    }
+  }
+
+  private int[] count(Class<?> a_type, boolean a_function, boolean a_growing,
+                      int a_depth, int a_maxNodes) {
+    int[] counts = new int[m_functionSet.length];
+    for (int i = 0; i < 2000; i++) {
+      int position = m_table.select(m_functionSet, null, a_type, 0,
+                                    a_function, a_growing, null, m_random,
+                                    a_depth, a_maxNodes);
+      assertTrue(position >= 0);
+      counts[position]++;
+    }
+    return counts;
+  }
+
+  /**
+   * Only nodes whose subtree fits the remaining depth and number of nodes
+   * are chosen, full mode falls back to terminals.
+   *
+   * @throws Exception
+   */
+  public void testSelect_5()
+      throws Exception {
+    assertEquals(1, m_table.getMinSize(DOUBLE, 0));
+    assertChosen(count(DOUBLE, true, false, 1, 3), new int[] {2, 3, 4});
+    // Sine needs two nodes, Add and Multiply three.
+    // ---------------------------------------------
+    assertChosen(count(DOUBLE, true, false, 1, 2), new int[] {4});
+    assertChosen(count(DOUBLE, true, true, 1, 2), new int[] {0, 1, 4, 7});
+    assertChosen(count(DOUBLE, true, false, 1, 1), new int[] {0, 1, 7});
+    assertChosen(count(DOUBLE, true, false, 0, 100), new int[] {0, 1, 7});
+  }
+
+  /**
+   * Programs created with a tight node limit all fit it, without failed
+   * attempts.
+   *
+   * @throws Exception
+   */
+  public void testCreate_0()
+      throws Exception {
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(100);
+    m_conf.setMaxInitDepth(6);
+    m_conf.setStrictProgramCreation(true);
+    CommandGene[][] nodeSets = { {
+        m_nodeSet[0], m_nodeSet[1], m_nodeSet[2], m_nodeSet[3], m_nodeSet[4]}
+    };
+    GPPopulation pop = GPGenotype.randomInitialGenotype(m_conf,
+        new Class<?>[] {DOUBLE}, new Class<?>[][] { {}
+    }, nodeSets, 12, false).getGPPopulation();
+    for (int i = 0; i < pop.size(); i++) {
+      ProgramChromosome chrom = pop.getGPProgram(i).getChromosome(0);
+      assertTrue(chrom.toStringNorm(0), chrom.getSize(0) <= 12);
+      assertTrue(chrom.toStringNorm(0), chrom.getDepth(0) <= 6);
+    }
+    ProgramCreationStatistics statistics = m_conf.
+        getProgramCreationStatistics();
+    assertEquals(0, statistics.getFailedCount());
+    assertEquals(0, statistics.getPrototypesClonedCount());
+    assertEquals(pop.size(), statistics.getCreatedCount());
+  }
+
+  /**
+   * The configuration holds one table per node set.
+   *
+   * @throws Exception
+   */
+  public void testGetNodeTable_0()
+      throws Exception {
+    NodeTable table = m_conf.getNodeTable(m_nodeSet, new Class<?>[] {DOUBLE});
+    assertSame(table, m_conf.getNodeTable(m_nodeSet,
+                                          new Class<?>[] {DOUBLE}));
+    NodeTable other = m_conf.getNodeTable(m_nodeSet, new Class<?>[] {});
+    assertNotSame(table, other);
+    assertEquals(m_nodeSet.length, other.size());
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.io.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the PostfixProgram: the code and stack size of known programs, their
+ * results for single rows and whole columns, and serialization.
+ */
+public class PostfixProgramTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static Class<?> TYPE = CommandGene.DoubleClass;
+
+  private GPConfiguration m_conf;
+
+  private Variable[] m_vars;
+
+  public static Test suite() {
+    return new TestSuite(PostfixProgramTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_vars = new Variable[] {
+        Variable.create(m_conf, "X", TYPE),
+        Variable.create(m_conf, "Y", TYPE)};
+  }
+
+  private Terminal constant(double a_value)
+      throws Exception {
+    Terminal terminal = new Terminal(m_conf, TYPE, 0.0d, 10.0d, false);
+    terminal.setValue(a_value);
+    return terminal;
+  }
+
+  /**
+   * @param a_genes the nodes of a program in prefix order
+   * @return the program translated into postfix code
+   */
+  private PostfixProgram compile(CommandGene[] a_genes)
+      throws Exception {
+    ProgramChromosome chrom = new ProgramChromosome(m_conf, a_genes);
+    chrom.redepth();
+    return m_conf.getProgramCompiler().compilePostfix(chrom, m_vars);
+  }
+
+  /**
+   * (X * Y) + 2: X Y MUL 2 ADD.
+   *
+   * @throws Exception
+   */
+  public void testCompile_0()
+      throws Exception {
+    PostfixProgram program = compile(new CommandGene[] {
+        new Add(m_conf, TYPE), new Multiply(m_conf, TYPE), m_vars[0],
+        m_vars[1], constant(2.0d)});
+    assertEquals(5, program.getLength());
+    assertEquals(2, program.getMaxStack());
+    assertEquals(14.0d, program.eval(new double[] {3.0d, 4.0d}), 0.0d);
+    assertEquals(1.5d, program.eval(new double[] { -0.5d, 1.0d}), 0.0d);
+  }
+
+  /**
+   * X + (Y * (X - Y)): X Y X Y SUB MUL ADD, all operands stacked before the
+   * first operation.
+   *
+   * @throws Exception
+   */
+  public void testCompile_1()
+      throws Exception {
+    PostfixProgram program = compile(new CommandGene[] {
+        new Add(m_conf, TYPE), m_vars[0], new Multiply(m_conf, TYPE),
+        m_vars[1], new Subtract(m_conf, TYPE), m_vars[0], m_vars[1]});
+    assertEquals(7, program.getLength());
+    assertEquals(4, program.getMaxStack());
+    assertEquals(3.0d + 4.0d * (3.0d - 4.0d),
+                 program.eval(new double[] {3.0d, 4.0d}), 0.0d);
+  }
+
+  /**
+   * Nodes the compiler does not support give no postfix program.
+   *
+   * @throws Exception
+   */
+  public void testCompile_2()
+      throws Exception {
+    assertNull(compile(new CommandGene[] {
+        new Sine(m_conf, TYPE), m_vars[0]}));
+  }
+
+  /**
+   * Evaluating whole columns gives the results of single rows.
+   *
+   * @throws Exception
+   */
+  public void testEval_0()
+      throws Exception {
+    PostfixProgram program = compile(new CommandGene[] {
+        new Divide(m_conf, TYPE), new Add(m_conf, TYPE), m_vars[0],
+        constant(1.5d), new Max(m_conf, TYPE), m_vars[1], constant(0.25d)});
+    assertEquals(14.0d, program.eval(new double[] {2.0d, -1.5d}), 0.0d);
+    int rows = 30;
+    double[][] columns = new double[2][rows];
+    for (int i = 0; i < rows; i++) {
+      columns[0][i] = i * 0.7d - 10;
+      columns[1][i] = (i % 4) - 1.5d;
+    }
+    double[] result = new double[rows];
+    program.eval(columns, rows, result);
+    for (int i = 0; i < rows; i++) {
+      double expected = program.eval(new double[] {columns[0][i],
+                                     columns[1][i]});
+      assertEquals("row " + i, 0, Double.compare(expected, result[i]));
+    }
+  }
+
+  /**
+   * A deserialized program returns the same results.
+   *
+   * @throws Exception
+   */
+  public void testSerialize_0()
+      throws Exception {
+    PostfixProgram program = compile(new CommandGene[] {
+        new Subtract(m_conf, TYPE), new Multiply(m_conf, TYPE), m_vars[0],
+        m_vars[0], new Abs(m_conf, TYPE), m_vars[1]});
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(program);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+        bytes.toByteArray()));
+    PostfixProgram copy = (PostfixProgram) in.readObject();
+    in.close();
+    assertEquals(program.getLength(), copy.getLength());
+    for (int i = 0; i < 10; i++) {
+      double[] vars = {i - 4.5d, 2.0d - i};
+      assertEquals(0, Double.compare(program.eval(vars), copy.eval(vars)));
+    }
+    assertEquals(7.0d, copy.eval(new double[] {3.0d, -2.0d}), 0.0d);
+  }
+}
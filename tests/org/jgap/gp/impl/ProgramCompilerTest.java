@@ -0,0 +1,251 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the ProgramCompiler: compiled programs, both as JVM classes and as
+ * postfix code, must return exactly what the interpreter returns.
+ */
+public class ProgramCompilerTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int ROWS = 50;
+
+  private GPConfiguration m_conf;
+
+  private Variable[] m_vars;
+
+  private double[][] m_columns;
+
+  public static Test suite() {
+    return new TestSuite(ProgramCompilerTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(200);
+    m_conf.setMaxInitDepth(6);
+    m_conf.setStrictProgramCreation(true);
+    m_columns = new double[2][ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      m_columns[0][i] = i * 0.37d - 9;
+      m_columns[1][i] = (i % 7) * 1.5d - 4;
+    }
+  }
+
+  /**
+   * Creates a population of programs of the given type. Sine is not supported
+   * by the compiler, so some programs fall back to the interpreter.
+   */
+  private GPPopulation createPopulation(Class<?> a_type)
+      throws Exception {
+    m_vars = new Variable[] {
+        Variable.create(m_conf, "X", a_type),
+        Variable.create(m_conf, "Y", a_type)};
+    CommandGene[][] nodeSets = { {
+        m_vars[0], m_vars[1],
+        new Terminal(m_conf, a_type, 0.0d, 3.0d, false),
+        new Add(m_conf, a_type),
+        new Subtract(m_conf, a_type),
+        new Multiply(m_conf, a_type),
+        new Divide(m_conf, a_type),
+        new Max(m_conf, a_type),
+        new Abs(m_conf, a_type),
+        new Sine(m_conf, a_type)}
+    };
+    return GPGenotype.randomInitialGenotype(m_conf, new Class<?>[] {a_type},
+        new Class<?>[][] { {}
+    }, nodeSets, 60, false).getGPPopulation();
+  }
+
+  private double interpret(ProgramChromosome a_chrom, Class<?> a_type,
+                           int a_row) {
+    for (int i = 0; i < m_vars.length; i++) {
+      if (a_type == CommandGene.FloatClass) {
+        m_vars[i].set(Float.valueOf( (float) m_columns[i][a_row]));
+      }
+      else {
+        m_vars[i].set(Double.valueOf(m_columns[i][a_row]));
+      }
+    }
+    if (a_type == CommandGene.FloatClass) {
+      return a_chrom.execute_float(null);
+    }
+    return a_chrom.execute_double(null);
+  }
+
+  private double[] row(int a_row) {
+    return new double[] {m_columns[0][a_row], m_columns[1][a_row]};
+  }
+
+  private void checkCompiled(Class<?> a_type, boolean a_bytecode)
+      throws Exception {
+    GPPopulation pop = createPopulation(a_type);
+    m_conf.getProgramCompiler().setGenerateBytecode(a_bytecode);
+    int compiled = 0;
+    int interpreted = 0;
+    for (int i = 0; i < pop.size(); i++) {
+      ProgramChromosome chrom = pop.getGPProgram(i).getChromosome(0);
+      ICompiledProgram program = chrom.compile(m_vars);
+      if (ProgramCompiler.isCompiled(program)) {
+        compiled++;
+      }
+      else {
+        interpreted++;
+      }
+      double[] batch = new double[ROWS];
+      program.eval(m_columns, ROWS, batch);
+      for (int r = 0; r < ROWS; r++) {
+        double expected = interpret(chrom, a_type, r);
+        assertEquals(chrom.toStringNorm(0) + " row " + r, 0,
+                     Double.compare(expected, program.eval(row(r))));
+        assertEquals(chrom.toStringNorm(0) + " batch row " + r, 0,
+                     Double.compare(expected, batch[r]));
+      }
+    }
+    assertTrue(compiled > 0);
+    assertTrue(interpreted > 0);
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testCompile_0()
+      throws Exception {
+    checkCompiled(CommandGene.FloatClass, true);
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testCompile_1()
+      throws Exception {
+    checkCompiled(CommandGene.DoubleClass, true);
+  }
+
+  /**
+   * Postfix code instead of JVM classes.
+   *
+   * @throws Exception
+   */
+  public void testCompile_2()
+      throws Exception {
+    checkCompiled(CommandGene.FloatClass, false);
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testCompile_3()
+      throws Exception {
+    checkCompiled(CommandGene.DoubleClass, false);
+  }
+
+  /**
+   * Executing compiled programs for a dataset must not change the results.
+   *
+   * @throws Exception
+   */
+  public void testExecuteBatch_0()
+      throws Exception {
+    GPPopulation pop = createPopulation(CommandGene.FloatClass);
+    BatchData data = new BatchData(m_vars, m_columns);
+    for (int i = 0; i < pop.size(); i++) {
+      IGPProgram program = pop.getGPProgram(i);
+      m_conf.setCompilePrograms(false);
+      double[] expected = program.execute_batch(0, data).clone();
+      m_conf.setCompilePrograms(true);
+      double[] result = program.execute_batch(0, data);
+      for (int r = 0; r < ROWS; r++) {
+        assertEquals(program.toStringNorm(0) + " row " + r, 0,
+                     Double.compare(expected[r], result[r]));
+      }
+    }
+  }
+
+  /**
+   * A program falling back to the interpreter may be evaluated by several
+   * threads at once.
+   *
+   * @throws Exception
+   */
+  public void testInterpreted_0()
+      throws Exception {
+    GPPopulation pop = createPopulation(CommandGene.DoubleClass);
+    ProgramChromosome chrom = null;
+    for (int i = 0; i < pop.size() && chrom == null; i++) {
+      ProgramChromosome c = pop.getGPProgram(i).getChromosome(0);
+      if (!ProgramCompiler.isCompiled(c.compile(m_vars))
+          && c.getSize(0) > 5) {
+        chrom = c;
+      }
+    }
+    assertNotNull(chrom);
+    final ICompiledProgram program = chrom.compile(m_vars);
+    final double[] expected = new double[ROWS];
+    for (int r = 0; r < ROWS; r++) {
+      expected[r] = program.eval(row(r));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int t = 0; t < 4; t++) {
+        final int offset = t;
+        results.add(executor.submit(new Callable<Integer>() {
+          public Integer call() {
+            int wrong = 0;
+            for (int n = 0; n < 2000; n++) {
+              int r = (n + offset * 13) % ROWS;
+              if (Double.compare(expected[r], program.eval(row(r))) != 0) {
+                wrong++;
+              }
+            }
+            return wrong;
+          }
+        }));
+      }
+      for (Future<Integer> result : results) {
+        assertEquals(0, result.get().intValue());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertNull(chrom.getEvaluationContext());
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
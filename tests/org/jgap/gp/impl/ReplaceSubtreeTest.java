@@ -0,0 +1,194 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests ProgramChromosome.replaceSubtree: the sizes, depths, parents and
+ * children derived from both parents equal those computed by redepth().
+ */
+public class ReplaceSubtreeTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int MAX_NODES = 40;
+
+  private GPConfiguration m_conf;
+
+  private GPPopulation m_pop;
+
+  public static Test suite() {
+    return new TestSuite(ReplaceSubtreeTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(80);
+    m_conf.setMaxInitDepth(5);
+    m_conf.setStrictProgramCreation(true);
+    Class<?> type = CommandGene.DoubleClass;
+    CommandGene[][] nodeSets = { {
+        Variable.create(m_conf, "X", type),
+        new Terminal(m_conf, type, 0.0d, 3.0d, false),
+        new Add(m_conf, type),
+        new Multiply(m_conf, type),
+        new Sine(m_conf, type),
+        new Add3(m_conf, type)}
+    };
+    m_pop = GPGenotype.randomInitialGenotype(m_conf, new Class<?>[] {type},
+        new Class<?>[][] { {}
+    }, nodeSets, MAX_NODES, false).getGPPopulation();
+  }
+
+  /**
+   * Creates an offspring of a_base with the subtree at a_index replaced.
+   */
+  private ProgramChromosome replace(ProgramChromosome a_base, int a_index,
+                                    ProgramChromosome a_donor,
+                                    int a_donorIndex)
+      throws Exception {
+    ProgramChromosome chrom = new ProgramChromosome(m_conf,
+        a_base.getFunctions().length, a_base.getFunctionSet(),
+        a_base.getArgTypes(), a_base.getIndividual());
+    chrom.replaceSubtree(a_base, a_index, a_donor, a_donorIndex);
+    return chrom;
+  }
+
+  /**
+   * @return a copy of the nodes of a_chrom indexed by redepth()
+   */
+  private ProgramChromosome redepth(ProgramChromosome a_chrom)
+      throws Exception {
+    CommandGene[] genes = new CommandGene[a_chrom.size()];
+    System.arraycopy(a_chrom.getFunctions(), 0, genes, 0, genes.length);
+    ProgramChromosome chrom = new ProgramChromosome(m_conf, genes);
+    chrom.redepth();
+    return chrom;
+  }
+
+  private void assertIndex(ProgramChromosome a_expected,
+                           ProgramChromosome a_chrom) {
+    String program = a_chrom.toStringNorm(0);
+    assertEquals(a_expected.toStringNorm(0), program);
+    int size = a_expected.getSize(0);
+    assertEquals(program, size, a_chrom.getSize(0));
+    for (int i = 0; i < size; i++) {
+      String node = program + " node " + i;
+      assertEquals(node, a_expected.getSize(i), a_chrom.getSize(i));
+      assertEquals(node, a_expected.getDepth(i), a_chrom.getDepth(i));
+      assertEquals(node, a_expected.getParentNode(i),
+                   a_chrom.getParentNode(i));
+      int arity = a_chrom.getNode(i).getArity(null);
+      for (int k = 0; k < arity; k++) {
+        assertEquals(node + " child " + k, a_expected.getChild(i, k),
+                     a_chrom.getChild(i, k));
+      }
+    }
+  }
+
+  /**
+   * Random pairs of programs and crossover points, including the root.
+   *
+   * @throws Exception
+   */
+  public void testReplaceSubtree_0()
+      throws Exception {
+    Random random = new Random(1);
+    int checked = 0;
+    for (int n = 0; n < 500; n++) {
+      ProgramChromosome base = m_pop.getGPProgram(random.nextInt(
+          m_pop.size())).getChromosome(0);
+      ProgramChromosome donor = m_pop.getGPProgram(random.nextInt(
+          m_pop.size())).getChromosome(0);
+      int index = random.nextInt(base.getSize(0));
+      int donorIndex = random.nextInt(donor.getSize(0));
+      if (base.getSize(0) - base.getSize(index) + donor.getSize(donorIndex)
+          >= MAX_NODES) {
+        continue;
+      }
+      ProgramChromosome chrom = replace(base, index, donor, donorIndex);
+      assertTrue(chrom.isIndexValid());
+      assertIndex(redepth(chrom), chrom);
+      // Offsprings of offsprings are derived from derived indexes.
+      // -----------------------------------------------------------
+      int index2 = random.nextInt(chrom.getSize(0));
+      if (chrom.getSize(0) - chrom.getSize(index2) + base.getSize(0)
+          < MAX_NODES) {
+        ProgramChromosome chrom2 = replace(chrom, index2, base, 0);
+        assertIndex(redepth(chrom2), chrom2);
+      }
+      checked++;
+    }
+    assertTrue(checked > 300);
+  }
+
+  /**
+   * A parent without a valid index is indexed by redepth().
+   *
+   * @throws Exception
+   */
+  public void testReplaceSubtree_1()
+      throws Exception {
+    ProgramChromosome base = m_pop.getGPProgram(0).getChromosome(0);
+    ProgramChromosome donor = redepth(m_pop.getGPProgram(1).getChromosome(0));
+    donor.invalidateIndex();
+    assertFalse(donor.isIndexValid());
+    ProgramChromosome chrom = replace(base, base.getSize(0) - 1, donor, 0);
+    assertTrue(chrom.isIndexValid());
+    assertIndex(redepth(chrom), chrom);
+  }
+
+  /**
+   * An offspring exceeding the number of nodes of the base is rejected.
+   *
+   * @throws Exception
+   */
+  public void testReplaceSubtree_2()
+      throws Exception {
+    ProgramChromosome chrom = new ProgramChromosome(m_conf, new CommandGene[] {
+        new Sine(m_conf, CommandGene.DoubleClass),
+        new Sine(m_conf, CommandGene.DoubleClass),
+        Variable.create(m_conf, "Y", CommandGene.DoubleClass)});
+    chrom.redepth();
+    try {
+      replace(chrom, 2, chrom, 0);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests breeding steady state: offsprings replace the programs chosen by the
+ * replacement policy in place, each slot holds a program of its own and the
+ * fitness column stays up to date.
+ */
+public class SteadyStateTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static Class<?> TYPE = CommandGene.DoubleClass;
+
+  private final static int POP_SIZE = 40;
+
+  private GPConfiguration m_conf;
+
+  public static Test suite() {
+    return new TestSuite(SteadyStateTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ErrorFitness());
+    m_conf.setPopulationSize(POP_SIZE);
+    m_conf.setMaxInitDepth(4);
+    m_conf.setMaxCrossoverDepth(8);
+    m_conf.setStrictProgramCreation(true);
+    m_conf.setSteadyState(true);
+  }
+
+  private GPGenotype createGenotype()
+      throws Exception {
+    CommandGene[][] nodeSets = { {
+        Variable.create(m_conf, "X", TYPE),
+        new Terminal(m_conf, TYPE, 0.0d, 3.0d, false),
+        new Add(m_conf, TYPE),
+        new Subtract(m_conf, TYPE),
+        new Multiply(m_conf, TYPE)}
+    };
+    return GPGenotype.randomInitialGenotype(m_conf, new Class<?>[] {TYPE},
+        new Class<?>[][] { {}
+    }, nodeSets, 30, false);
+  }
+
+  /**
+   * Each slot holds a program of its own, the fitness column holds the
+   * fitness of the programs. Chromosomes not changed by crossing over may be
+   * shared, they are copied before mutating them, see
+   * BranchTypingCross.copyForMutation.
+   */
+  private void assertPopulation(GPPopulation a_pop) {
+    assertEquals(POP_SIZE, a_pop.size());
+    Set<IGPProgram> seen = Collections.newSetFromMap(
+        new IdentityHashMap<IGPProgram, Boolean>());
+    double[] column = a_pop.getFitnessColumn();
+    assertNotNull(column);
+    for (int i = 0; i < POP_SIZE; i++) {
+      IGPProgram program = a_pop.getGPProgram(i);
+      assertNotNull(program);
+      assertTrue("slot " + i, seen.add(program));
+      assertEquals("slot " + i, program.getFitnessValue(), column[i], 0.0d);
+    }
+  }
+
+  private double getBest(GPPopulation a_pop) {
+    return a_pop.getFitnessColumn()[a_pop.getIndexesByFitness()[0]];
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testSetReplacementPolicy_0()
+      throws Exception {
+    assertEquals(ReplacementPolicy.INVERSE_TOURNAMENT,
+                 m_conf.getReplacementPolicy());
+    try {
+      m_conf.setReplacementPolicy(null);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+    try {
+      m_conf.setReplacementTournamentSize(0);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+  }
+
+  /**
+   * The least fit program is replaced, empty slots and programs without
+   * fitness first.
+   *
+   * @throws Exception
+   */
+  public void testSelectReplaced_0()
+      throws Exception {
+    m_conf.setReplacementPolicy(ReplacementPolicy.WORST);
+    GPGenotype gp = createGenotype();
+    GPPopulation pop = gp.getGPPopulation();
+    gp.calcFitness();
+    int[] order = pop.getIndexesByFitness();
+    assertEquals(order[POP_SIZE - 1], gp.selectReplaced(pop));
+    pop.setGPProgram(order[3], null);
+    pop.updateFitnessColumn();
+    assertEquals(order[3], gp.selectReplaced(pop));
+  }
+
+  /**
+   * Inverse tournaments pick the least fit of the programs drawn.
+   *
+   * @throws Exception
+   */
+  public void testSelectReplaced_1()
+      throws Exception {
+    GPGenotype gp = createGenotype();
+    GPPopulation pop = gp.getGPPopulation();
+    gp.calcFitness();
+    int[] order = pop.getIndexesByFitness();
+    double[] column = pop.getFitnessColumn();
+    double median = column[order[POP_SIZE / 2]];
+    m_conf.setReplacementTournamentSize(1);
+    Set<Integer> replaced = new HashSet<Integer>();
+    for (int i = 0; i < 400; i++) {
+      replaced.add(gp.selectReplaced(pop));
+    }
+    assertTrue(replaced.size() > POP_SIZE / 2);
+    m_conf.setReplacementTournamentSize(20);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(column[gp.selectReplaced(pop)] >= median);
+    }
+  }
+
+  /**
+   * Reproduced parents are copied, so no program takes two slots.
+   *
+   * @throws Exception
+   */
+  public void testEvolve_0()
+      throws Exception {
+    m_conf.setCrossoverProb(0.0f);
+    m_conf.setReproductionProb(1.0f);
+    GPGenotype gp = createGenotype();
+    for (int i = 0; i < 3; i++) {
+      gp.evolve();
+      assertPopulation(gp.getGPPopulation());
+    }
+  }
+
+  /**
+   * Replacing the least fit program never loses the fittest one.
+   *
+   * @throws Exception
+   */
+  public void testEvolve_1()
+      throws Exception {
+    m_conf.setReplacementPolicy(ReplacementPolicy.WORST);
+    GPGenotype gp = createGenotype();
+    gp.calcFitness();
+    double best = getBest(gp.getGPPopulation());
+    for (int i = 0; i < 5; i++) {
+      gp.evolve();
+      GPPopulation pop = gp.getGPPopulation();
+      assertPopulation(pop);
+      assertTrue(getBest(pop) <= best);
+      best = getBest(pop);
+    }
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testEvolve_2()
+      throws Exception {
+    GPGenotype gp = createGenotype();
+    GPPopulation pop = gp.getGPPopulation();
+    for (int i = 0; i < 5; i++) {
+      gp.evolve();
+      assertSame(pop, gp.getGPPopulation());
+      assertPopulation(pop);
+    }
+  }
+
+  /**
+   * Sum of the absolute errors against x * x + x.
+   */
+  private static class ErrorFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      double[] column = new double[20];
+      for (int i = 0; i < column.length; i++) {
+        column[i] = i * 0.2d - 2;
+      }
+      Variable x = a_program.getGPConfiguration().getVariable("X");
+      double[] result = a_program.execute_batch(0, new BatchData(
+          new Variable[] {x}, new double[][] {column}));
+      double error = 0;
+      for (int i = 0; i < column.length; i++) {
+        error += Math.abs(result[i] - column[i] * (column[i] + 1));
+      }
+      return Double.isNaN(error) || error > 1e10d ? 1e10d : error;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the SubtreeOutputCache: offsprings of crossing over reuse the outputs
+ * of their parents and are evaluated exactly as without the cache.
+ */
+public class SubtreeOutputCacheTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int ROWS = 40;
+
+  private GPConfiguration m_conf;
+
+  private GPPopulation m_pop;
+
+  private Variable[] m_vars;
+
+  private BatchData m_data;
+
+  public static Test suite() {
+    return new TestSuite(SubtreeOutputCacheTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(60);
+    m_conf.setMaxInitDepth(5);
+    m_conf.setMaxCrossoverDepth(8);
+    m_conf.setStrictProgramCreation(true);
+    Class<?> type = CommandGene.DoubleClass;
+    m_vars = new Variable[] {
+        Variable.create(m_conf, "X", type),
+        Variable.create(m_conf, "Y", type)};
+    CommandGene[][] nodeSets = { {
+        m_vars[0], m_vars[1],
+        new Terminal(m_conf, type, 0.0d, 3.0d, false),
+        new Add(m_conf, type),
+        new Subtract(m_conf, type),
+        new Multiply(m_conf, type)}
+    };
+    m_pop = GPGenotype.randomInitialGenotype(m_conf, new Class<?>[] {type},
+        new Class<?>[][] { {}
+    }, nodeSets, 60, false).getGPPopulation();
+    m_data = createData(ROWS);
+  }
+
+  private BatchData createData(int a_rows) {
+    double[][] columns = new double[2][a_rows];
+    for (int i = 0; i < a_rows; i++) {
+      columns[0][i] = i * 0.25d - 5;
+      columns[1][i] = (i % 5) - 2;
+    }
+    return new BatchData(m_vars, columns);
+  }
+
+  /**
+   * Crosses programs of the population pairwise.
+   */
+  private List<IGPProgram> cross() {
+    BranchTypingCross cross = new BranchTypingCross(m_conf);
+    List<IGPProgram> offsprings = new ArrayList<IGPProgram>();
+    for (int i = 0; i + 1 < m_pop.size(); i += 2) {
+      try {
+        offsprings.addAll(Arrays.asList(cross.operate(m_pop.getGPProgram(i),
+            m_pop.getGPProgram(i + 1))));
+      } catch (IllegalStateException iex) {
+        // Offspring too large, no other pair to try.
+        // ------------------------------------------
+      }
+    }
+    return offsprings;
+  }
+
+  private double[] execute(IGPProgram a_program, boolean a_cached) {
+    m_conf.setUseSubtreeCache(a_cached);
+    return a_program.execute_batch(0, m_data).clone();
+  }
+
+  private void assertOutputs(IGPProgram a_program, double[] a_expected,
+                             double[] a_result) {
+    for (int r = 0; r < a_expected.length; r++) {
+      assertEquals(a_program.toStringNorm(0) + " row " + r, 0,
+                   Double.compare(a_expected[r], a_result[r]));
+    }
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testExecuteBatch_0()
+      throws Exception {
+    m_conf.setUseSubtreeCache(true);
+    for (int i = 0; i < m_pop.size(); i++) {
+      execute(m_pop.getGPProgram(i), true);
+    }
+    List<IGPProgram> offsprings = cross();
+    assertTrue(offsprings.size() > 20);
+    SubtreeOutputCache cache = m_conf.getSubtreeCache();
+    long reused = cache.getReusedCount();
+    for (IGPProgram offspring : offsprings) {
+      double[] result = execute(offspring, true);
+      assertOutputs(offspring, execute(offspring, false), result);
+    }
+    assertTrue(cache.getReusedCount() > reused);
+    // Evaluated again, all outputs come from the cache.
+    // -------------------------------------------------
+    for (IGPProgram offspring : offsprings) {
+      double[] result = execute(offspring, true);
+      assertOutputs(offspring, execute(offspring, false), result);
+    }
+  }
+
+  /**
+   * The number of values held stays within the memory given, evicted
+   * outputs are computed again.
+   *
+   * @throws Exception
+   */
+  public void testMaxMemory_0()
+      throws Exception {
+    m_data = createData(5000);
+    m_conf.setUseSubtreeCache(true);
+    SubtreeOutputCache cache = m_conf.getSubtreeCache();
+    cache.setMaxMemory(1);
+    for (int n = 0; n < 2; n++) {
+      for (int i = 0; i < m_pop.size(); i++) {
+        IGPProgram program = m_pop.getGPProgram(i);
+        double[] result = execute(program, true);
+        assertOutputs(program, execute(program, false), result);
+        assertTrue(cache.getValueCount() <= 1024 * 1024 / 8);
+      }
+    }
+    assertTrue(cache.getEvictionCount() > 0);
+    cache.clear();
+    assertEquals(0, cache.getValueCount());
+    try {
+      cache.setMaxMemory(0);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
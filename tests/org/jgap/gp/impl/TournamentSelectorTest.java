@@ -0,0 +1,139 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the TournamentSelector: opponents of a tournament are drawn without
+ * repetition, and selectN draws the same winners as repeated selections.
+ */
+public class TournamentSelectorTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int POP_SIZE = 50;
+
+  private GPConfiguration m_conf;
+
+  private StockRandomGenerator m_random;
+
+  private GPGenotype m_genotype;
+
+  public static Test suite() {
+    return new TestSuite(TournamentSelectorTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    m_random = new StockRandomGenerator();
+    m_random.setSeed(42);
+    m_conf.setRandomGenerator(m_random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(POP_SIZE);
+    m_conf.setMaxInitDepth(4);
+    m_conf.setStrictProgramCreation(true);
+    Class<?> type = CommandGene.DoubleClass;
+    CommandGene[][] nodeSets = { {
+        Variable.create(m_conf, "X", type),
+        new Terminal(m_conf, type, 0.0d, 3.0d, false),
+        new Add(m_conf, type),
+        new Multiply(m_conf, type)}
+    };
+    m_genotype = GPGenotype.randomInitialGenotype(m_conf,
+        new Class<?>[] {type}, new Class<?>[][] { {}
+    }, nodeSets, 30, false);
+    // Distinct fitness values in scrambled order, 0 is the fittest.
+    // -------------------------------------------------------------
+    GPPopulation pop = m_genotype.getGPPopulation();
+    for (int i = 0; i < POP_SIZE; i++) {
+      pop.getGPProgram(i).setFitnessValue( (i * 7 + 3) % POP_SIZE);
+    }
+    pop.updateFitnessColumn();
+  }
+
+  /**
+   * A tournament of the whole population is always won by the fittest
+   * program.
+   *
+   * @throws Exception
+   */
+  public void testSelect_0()
+      throws Exception {
+    TournamentSelector selector = new TournamentSelector(POP_SIZE);
+    for (int i = 0; i < 200; i++) {
+      assertEquals(0.0d, selector.select(m_genotype).getFitnessValue(), 0.0d);
+    }
+  }
+
+  /**
+   * A tournament larger than the population is limited to it.
+   *
+   * @throws Exception
+   */
+  public void testSelect_1()
+      throws Exception {
+    TournamentSelector selector = new TournamentSelector(POP_SIZE * 3);
+    for (int i = 0; i < 200; i++) {
+      assertEquals(0.0d, selector.select(m_genotype).getFitnessValue(), 0.0d);
+    }
+  }
+
+  /**
+   * The least fit program never wins a tournament of two, as it never meets
+   * itself.
+   *
+   * @throws Exception
+   */
+  public void testSelect_2()
+      throws Exception {
+    TournamentSelector selector = new TournamentSelector(2);
+    int[] wins = new int[POP_SIZE];
+    for (int i = 0; i < 20000; i++) {
+      wins[ (int) selector.select(m_genotype).getFitnessValue()]++;
+    }
+    assertEquals(0, wins[POP_SIZE - 1]);
+    assertTrue(wins[0] > wins[POP_SIZE / 2]);
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testSelectN_0()
+      throws Exception {
+    TournamentSelector selector = new TournamentSelector(3);
+    m_random.setSeed(7);
+    IGPProgram[] selected = selector.selectN(m_genotype, 100);
+    assertEquals(100, selected.length);
+    m_random.setSeed(7);
+    for (int i = 0; i < selected.length; i++) {
+      assertSame(selector.select(m_genotype), selected[i]);
+    }
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the validation policies: how many programs are validated when
+ * checking a population, and that invalid programs are detected.
+ */
+public class ValidationPolicyTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private GPConfiguration m_conf;
+
+  private CountingFitness m_fitness;
+
+  public static Test suite() {
+    return new TestSuite(ValidationPolicyTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    m_fitness = new CountingFitness();
+    m_conf.setFitnessFunction(m_fitness);
+  }
+
+  private int countValidating(int a_programs) {
+    int count = 0;
+    for (int i = 0; i < a_programs; i++) {
+      if (m_conf.isValidating()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private GPPopulation createPopulation(int a_size)
+      throws Exception {
+    m_conf.setPopulationSize(a_size);
+    m_conf.setMaxInitDepth(4);
+    m_conf.setStrictProgramCreation(true);
+    Class<?> type = CommandGene.DoubleClass;
+    CommandGene[][] nodeSets = { {
+        Variable.create(m_conf, "X", type),
+        new Terminal(m_conf, type, 0.0d, 3.0d, false),
+        new Add(m_conf, type),
+        new Multiply(m_conf, type)}
+    };
+    return GPGenotype.randomInitialGenotype(m_conf, new Class<?>[] {type},
+        new Class<?>[][] { {}
+    }, nodeSets, 30, false).getGPPopulation();
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testGetValidationPolicy_0()
+      throws Exception {
+    assertEquals(ValidationPolicy.OFF, m_conf.getValidationPolicy());
+    assertFalse(m_conf.isVerifyPrograms());
+    m_conf.setVerifyPrograms(true);
+    assertEquals(ValidationPolicy.ALWAYS, m_conf.getValidationPolicy());
+    m_conf.setValidationPolicy(ValidationPolicy.SAMPLED);
+    assertTrue(m_conf.isVerifyPrograms());
+    m_conf.setVerifyPrograms(false);
+    assertEquals(ValidationPolicy.OFF, m_conf.getValidationPolicy());
+    try {
+      m_conf.setValidationPolicy(null);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+    try {
+      m_conf.setValidationRate(1.5d);
+      fail();
+    } catch (IllegalArgumentException iex) {
+      // Expected.
+      // ---------
+    }
+    assertEquals(0.1d, m_conf.getValidationRate(), 0.0d);
+  }
+
+  /**
+   * Sampled programs are evenly spread, without using the random generator.
+   *
+   * @throws Exception
+   */
+  public void testIsValidating_0()
+      throws Exception {
+    m_conf.setValidationPolicy(ValidationPolicy.SAMPLED);
+    m_conf.setValidationRate(0.25d);
+    for (int i = 0; i < 40; i++) {
+      assertEquals("program " + i, i % 4 == 3, m_conf.isValidating());
+    }
+    assertEquals(250, countValidating(1000));
+    m_conf.setValidationRate(0.1d);
+    int count = countValidating(1000);
+    assertTrue(count >= 99 && count <= 101);
+    m_conf.setValidationRate(0.0d);
+    assertEquals(0, countValidating(1000));
+    m_conf.setValidationRate(1.0d);
+    assertEquals(1000, countValidating(1000));
+  }
+
+  /**
+   * @throws Exception
+   */
+  public void testIsValidating_1()
+      throws Exception {
+    m_conf.setValidationPolicy(ValidationPolicy.OFF);
+    assertEquals(0, countValidating(100));
+    m_conf.setValidationPolicy(ValidationPolicy.ALWAYS);
+    assertEquals(100, countValidating(100));
+  }
+
+  /**
+   * Checking a population computes the fitness of the programs validated.
+   *
+   * @throws Exception
+   */
+  public void testCheckErroneousPop_0()
+      throws Exception {
+    GPPopulation pop = createPopulation(40);
+    m_conf.setValidationPolicy(ValidationPolicy.OFF);
+    m_fitness.m_count = 0;
+    GPGenotype.checkErroneousPop(pop, "", true);
+    assertEquals(0, m_fitness.m_count);
+    m_conf.setValidationPolicy(ValidationPolicy.SAMPLED);
+    m_conf.setValidationRate(0.25d);
+    GPGenotype.checkErroneousPop(pop, "", true);
+    assertEquals(10, m_fitness.m_count);
+    m_conf.setValidationPolicy(ValidationPolicy.ALWAYS);
+    m_fitness.m_count = 0;
+    GPGenotype.checkErroneousPop(pop, "", true);
+    assertEquals(40, m_fitness.m_count);
+  }
+
+  /**
+   * A program whose fitness cannot be computed is reported, unless it is
+   * not validated.
+   *
+   * @throws Exception
+   */
+  public void testCheckErroneousProg_0()
+      throws Exception {
+    IGPProgram program = createPopulation(10).getGPProgram(0);
+    m_fitness.m_fail = true;
+    m_conf.setValidationPolicy(ValidationPolicy.OFF);
+    GPGenotype.checkErroneousProg(program, "", true);
+    m_conf.setValidationPolicy(ValidationPolicy.ALWAYS);
+    try {
+      GPGenotype.checkErroneousProg(program, " (index ", 3, ")", true);
+      fail();
+    } catch (RuntimeException rex) {
+      assertEquals("Invalid program detected (index 3)!", rex.getMessage());
+      assertTrue(rex.getCause() instanceof ArithmeticException);
+    }
+  }
+
+  private static class CountingFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    private int m_count;
+
+    private boolean m_fail;
+
+    protected double evaluate(IGPProgram a_program) {
+      m_count++;
+      if (m_fail) {
+        throw new ArithmeticException();
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * This file is part of JGAP.
+ *
+ * JGAP offers a dual license model containing the LGPL as well as the MPL.
+ *
+ * For licensing information please see the file license.txt included with JGAP
+ * or have a look at the top of class org.jgap.Chromosome which representatively
+ * includes the JGAP license policy applicable for any file delivered with JGAP.
+ */
+package org.jgap.gp.impl;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jgap.gp.*;
+import org.jgap.gp.function.*;
+import org.jgap.gp.terminal.*;
+import org.jgap.impl.*;
+
+/**
+ * Tests the WeightedGPRouletteSelector: programs are selected in proportion
+ * to their weight, both by spinning the alias table and by universal
+ * sampling.
+ */
+public class WeightedGPRouletteSelectorTest
+    extends TestCase {
+  /** String containing the CVS revision. Read out via reflection!*/
+  private final static String CVS_REVISION = "$Revision: 1.1 $";
+
+  private final static int POP_SIZE = 10;
+
+  private GPConfiguration m_conf;
+
+  private GPGenotype m_genotype;
+
+  private Map<IGPProgram, Integer> m_indexes;
+
+  public static Test suite() {
+    return new TestSuite(WeightedGPRouletteSelectorTest.class);
+  }
+
+  public void setUp()
+      throws Exception {
+    super.setUp();
+    GPConfiguration.reset();
+    m_conf = new GPConfiguration();
+    StockRandomGenerator random = new StockRandomGenerator();
+    random.setSeed(42);
+    m_conf.setRandomGenerator(random);
+    m_conf.setGPFitnessEvaluator(new DefaultGPFitnessEvaluator());
+    m_conf.setFitnessFunction(new ZeroFitness());
+    m_conf.setPopulationSize(POP_SIZE);
+    m_conf.setMaxInitDepth(4);
+    m_conf.setStrictProgramCreation(true);
+    Class<?> type = CommandGene.DoubleClass;
+    CommandGene[][] nodeSets = { {
+        Variable.create(m_conf, "X", type),
+        new Terminal(m_conf, type, 0.0d, 3.0d, false),
+        new Add(m_conf, type),
+        new Multiply(m_conf, type)}
+    };
+    m_genotype = GPGenotype.randomInitialGenotype(m_conf,
+        new Class<?>[] {type}, new Class<?>[][] { {}
+    }, nodeSets, 30, false);
+    m_indexes = new IdentityHashMap<IGPProgram, Integer>();
+    for (int i = 0; i < POP_SIZE; i++) {
+      m_indexes.put(m_genotype.getGPPopulation().getGPProgram(i), i);
+    }
+  }
+
+  /**
+   * Program i gets fitness value i, so the weights sum up to 45.
+   */
+  private void setFitness() {
+    GPPopulation pop = m_genotype.getGPPopulation();
+    for (int i = 0; i < POP_SIZE; i++) {
+      pop.getGPProgram(i).setFitnessValue(i);
+    }
+    pop.updateFitnessColumn();
+  }
+
+  private int[] count(IGPProgram[] a_programs) {
+    int[] counts = new int[POP_SIZE];
+    for (IGPProgram program : a_programs) {
+      counts[m_indexes.get(program)]++;
+    }
+    return counts;
+  }
+
+  /**
+   * Each program is selected about as often as its weight says.
+   *
+   * @throws Exception
+   */
+  public void testSelect_0()
+      throws Exception {
+    setFitness();
+    WeightedGPRouletteSelector selector = new WeightedGPRouletteSelector();
+    IGPProgram[] selected = new IGPProgram[90000];
+    for (int i = 0; i < selected.length; i++) {
+      selected[i] = selector.select(m_genotype);
+    }
+    int[] counts = count(selected);
+    assertEquals(0, counts[0]);
+    for (int i = 1; i < POP_SIZE; i++) {
+      double expected = selected.length * i / 45.0d;
+      assertEquals("program " + i, expected, counts[i],
+                   5 * Math.sqrt(expected));
+    }
+  }
+
+  /**
+   * Without any weight, all programs are equally likely.
+   *
+   * @throws Exception
+   */
+  public void testSelect_1()
+      throws Exception {
+    GPPopulation pop = m_genotype.getGPPopulation();
+    for (int i = 0; i < POP_SIZE; i++) {
+      pop.getGPProgram(i).setFitnessValue(0);
+    }
+    pop.updateFitnessColumn();
+    WeightedGPRouletteSelector selector = new WeightedGPRouletteSelector();
+    int[] counts = count(selector.selectN(m_genotype, 10000));
+    for (int i = 0; i < POP_SIZE; i++) {
+      assertEquals("program " + i, 1000, counts[i], 5 * Math.sqrt(1000));
+    }
+  }
+
+  /**
+   * With DeltaGPFitnessEvaluator, lower fitness values get more weight.
+   *
+   * @throws Exception
+   */
+  public void testSelect_2()
+      throws Exception {
+    m_conf.setGPFitnessEvaluator(new DeltaGPFitnessEvaluator());
+    setFitness();
+    WeightedGPRouletteSelector selector = new WeightedGPRouletteSelector();
+    int[] counts = count(selector.selectN(m_genotype, 50000));
+    for (int i = 1; i < POP_SIZE; i++) {
+      assertTrue("program " + i, counts[i] < counts[i - 1]);
+    }
+  }
+
+  /**
+   * Universal sampling picks each program exactly as often as expected when
+   * the expected counts are whole numbers.
+   *
+   * @throws Exception
+   */
+  public void testSelectN_0()
+      throws Exception {
+    setFitness();
+    WeightedGPRouletteSelector selector = new WeightedGPRouletteSelector(true);
+    for (int n = 0; n < 20; n++) {
+      int[] counts = count(selector.selectN(m_genotype, 45));
+      for (int i = 0; i < POP_SIZE; i++) {
+        assertEquals("program " + i, i, counts[i]);
+      }
+    }
+  }
+
+  private static class ZeroFitness
+      extends GPFitnessFunction {
+    private static final long serialVersionUID = 1L;
+
+    protected double evaluate(IGPProgram a_program) {
+      return 0;
+    }
+  }
+}